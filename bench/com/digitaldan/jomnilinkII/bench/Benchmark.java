@@ -0,0 +1,86 @@
+package com.digitaldan.jomnilinkII.bench;
+
+/**
+ *  Copyright (C) 2009  Dan Cunningham                                         
+ *                                                                             
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * One measured operation.  run() is called in a loop on a single thread,
+ * first to warm up then for the measured period, and its results are
+ * folded into a sink so the JIT can not drop the work.
+ */
+public abstract class Benchmark {
+
+	private static final int BATCH = 1000;
+
+	private String name;
+	private int sink;
+
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * @return anything derived from the result of the operation
+	 */
+	public abstract int run() throws Exception;
+
+	/**
+	 * @return nanoseconds per operation, and bytes allocated per operation
+	 * or -1 if the JVM can not report allocation
+	 */
+	public double[] measure(long warmupMillis, long measureMillis) throws Exception {
+		loop(warmupMillis);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocation = null;
+		if(threads instanceof com.sun.management.ThreadMXBean)
+			allocation = (com.sun.management.ThreadMXBean)threads;
+		long thread = Thread.currentThread().getId();
+
+		long bytes = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+		long start = System.nanoTime();
+		long ops = loop(measureMillis);
+		long nanos = System.nanoTime() - start;
+		if(allocation != null)
+			bytes = allocation.getThreadAllocatedBytes(thread) - bytes;
+		else
+			bytes = -ops;
+		if(sink == 42)
+			System.out.print("");
+		return new double[]{nanos / (double)ops, bytes / (double)ops};
+	}
+
+	private long loop(long millis) throws Exception {
+		long end = System.nanoTime() + (millis * 1000000L);
+		long ops = 0;
+		do {
+			for(int i = 0; i < BATCH; i++){
+				sink ^= run();
+			}
+			ops += BATCH;
+		} while(System.nanoTime() < end);
+		return ops;
+	}
+}
@@ -0,0 +1,306 @@
+package com.digitaldan.jomnilinkII.bench;
+
+/**
+ *  Copyright (C) 2009  Dan Cunningham                                         
+ *                                                                             
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.digitaldan.jomnilinkII.Aes;
+import com.digitaldan.jomnilinkII.Message;
+import com.digitaldan.jomnilinkII.MessageFactory;
+import com.digitaldan.jomnilinkII.MessageUtils;
+import com.digitaldan.jomnilinkII.MessageTypes.ActivateKeypadEmergency;
+import com.digitaldan.jomnilinkII.MessageTypes.ClearNames;
+import com.digitaldan.jomnilinkII.MessageTypes.CommandMessage;
+import com.digitaldan.jomnilinkII.MessageTypes.ConnectedSecurityCommand;
+import com.digitaldan.jomnilinkII.MessageTypes.DownloadNames;
+import com.digitaldan.jomnilinkII.MessageTypes.EnableNotifications;
+import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.OtherEventNotifications;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqAudioSourceStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqConnectedSecurityStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqExtenedObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectProperties;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectTypeCapacities;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqSecurityCodeValidation;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqSystemFeatures;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqSystemFormats;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqSystemInformation;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqSystemStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqSystemTroubles;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqZoneReadyStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.SetTimeCommand;
+import com.digitaldan.jomnilinkII.MessageTypes.UploadEventRecord;
+import com.digitaldan.jomnilinkII.MessageTypes.UploadNames;
+import com.digitaldan.jomnilinkII.MessageTypes.statuses.ZoneStatus;
+import com.wheelycreek.jomnilinkII.OmniNotifyListener;
+import com.wheelycreek.jomnilinkII.OmniSystem.OmniArea;
+import com.wheelycreek.jomnilinkII.OmniSystem.OmniController;
+import com.wheelycreek.jomnilinkII.Parts.OmniZone;
+
+/**
+ * Runs the codec, crypto and dispatch benchmarks and prints time and
+ * allocation per operation.
+ * <pre>
+ * ant bench
+ * java -cp bin:bin-bench com.digitaldan.jomnilinkII.bench.Benchmarks [-t millis] [filter]
+ * </pre>
+ * Only benchmarks whose name contains the filter are run.
+ */
+public class Benchmarks {
+
+	private static final int MAX_FRAME = 260;
+
+	public static void main(String[] args) throws Exception {
+		long millis = 1000;
+		String filter = null;
+		for(int i = 0; i < args.length; i++){
+			if(args[i].equals("-t"))
+				millis = Long.parseLong(args[++i]);
+			else
+				filter = args[i];
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		decodeBenchmarks(benchmarks);
+		encodeBenchmarks(benchmarks);
+		crcBenchmarks(benchmarks);
+		aesBenchmarks(benchmarks);
+		notificationBenchmarks(benchmarks);
+
+		System.out.println(String.format("%-40s %12s %12s", "benchmark", "ns/op", "bytes/op"));
+		for(Benchmark b : benchmarks){
+			if(filter != null && !b.getName().contains(filter))
+				continue;
+			double[] result = b.measure(millis / 2, millis);
+			System.out.println(String.format("%-40s %12.1f %12.1f", b.getName(), result[0], result[1]));
+		}
+	}
+
+	/*
+	 * MessageFactory.fromBytes on every fixture
+	 */
+	private static void decodeBenchmarks(List<Benchmark> benchmarks){
+		for(Map.Entry<String, byte[]> e : Fixtures.all().entrySet()){
+			final ByteBuffer frame = ByteBuffer.wrap(e.getValue().clone());
+			benchmarks.add(new Benchmark("fromBytes " + e.getKey()) {
+				public int run() throws Exception {
+					frame.position(0);
+					return MessageFactory.fromBytes(frame).getMessageType();
+				}
+			});
+		}
+	}
+
+	/*
+	 * MessageFactory.toBytes on every request type, into a reused buffer
+	 */
+	private static void encodeBenchmarks(List<Benchmark> benchmarks){
+		Message[] requests = {
+				new ReqSystemInformation(), new ReqSystemStatus(), new ReqSystemTroubles(),
+				new ReqSystemFeatures(), new ReqSystemFormats(), new ReqZoneReadyStatus(),
+				new ReqConnectedSecurityStatus(), new ClearNames(), new EnableNotifications(true),
+				new ReqObjectTypeCapacities(Message.OBJ_TYPE_ZONE),
+				new ReqObjectProperties(Message.OBJ_TYPE_ZONE, 0, 1, 1, 0, 0),
+				new ReqObjectStatus(Message.OBJ_TYPE_ZONE, 1, 25),
+				new ReqExtenedObjectStatus(Message.OBJ_TYPE_THERMO, 1, 4),
+				new ReqAudioSourceStatus(1, 0), new CommandMessage(1, 0, 12),
+				new UploadEventRecord(0, 1), new UploadNames(Message.OBJ_TYPE_ZONE, 1),
+				new ConnectedSecurityCommand(1, 1, 1, 2, 3, 4, 0, 0),
+				new SetTimeCommand(17, 10, 16, 6, 14, 32, true),
+				new ActivateKeypadEmergency(1, 1),
+				new ReqSecurityCodeValidation(1, 1, 2, 3, 4),
+				new DownloadNames(Message.OBJ_TYPE_ZONE, 1, "FRONT DOOR")
+		};
+		final ByteBuffer out = ByteBuffer.allocate(MAX_FRAME);
+		for(final Message m : requests){
+			benchmarks.add(new Benchmark("toBytes " + m.getClass().getSimpleName()) {
+				public int run() throws Exception {
+					out.clear();
+					MessageFactory.toBytes(m, out);
+					return out.position();
+				}
+			});
+		}
+	}
+
+	private static void crcBenchmarks(List<Benchmark> benchmarks){
+		final byte[] frame = Fixtures.get("ZONE_STATUS_25");
+		final int length = (frame[1] & 0xFF) + 1;
+		final ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+		direct.put(frame);
+		benchmarks.add(new Benchmark("crc16 array " + length + " bytes") {
+			public int run() {
+				return MessageUtils.crc16(frame, 1, length);
+			}
+		});
+		benchmarks.add(new Benchmark("crc16 direct buffer " + length + " bytes") {
+			public int run() {
+				return MessageUtils.crc16(direct, 1, length);
+			}
+		});
+		//compare with fromBytes ZONE_STATUS_25 for the cost of checking on receive
+		final ByteBuffer heap = ByteBuffer.wrap(frame.clone());
+		benchmarks.add(new Benchmark("fromBytes ZONE_STATUS_25 crc checked") {
+			public int run() throws Exception {
+				heap.position(0);
+				boolean validate = MessageFactory.isValidateCrc();
+				MessageFactory.setValidateCrc(true);
+				try {
+					return MessageFactory.fromBytes(heap).getMessageType();
+				} finally {
+					MessageFactory.setValidateCrc(validate);
+				}
+			}
+		});
+	}
+
+	/*
+	 * A 25 zone status reply pads out to 7 blocks
+	 */
+	private static void aesBenchmarks(List<Benchmark> benchmarks){
+		byte[] key = new byte[16];
+		for(int i = 0; i < key.length; i++)
+			key[i] = (byte)(i * 17);
+		final Aes aes = new Aes(key);
+		final byte[] data = new byte[112];
+		final byte[] out = new byte[112];
+		System.arraycopy(Fixtures.get("ZONE_STATUS_25"), 0, data, 0, 106);
+		benchmarks.add(new Benchmark("aes encrypt 112 bytes") {
+			public int run() throws Exception {
+				return aes.encrypt(data)[0];
+			}
+		});
+		benchmarks.add(new Benchmark("aes encrypt 112 bytes in place") {
+			public int run() throws Exception {
+				return aes.encrypt(data, 0, data.length, data, 0);
+			}
+		});
+		benchmarks.add(new Benchmark("aes encrypt 112 bytes to buffer") {
+			public int run() throws Exception {
+				return aes.encrypt(data, 0, data.length, out, 0);
+			}
+		});
+		benchmarks.add(new Benchmark("aes decrypt 112 bytes") {
+			public int run() throws Exception {
+				return aes.decrypt(data)[0];
+			}
+		});
+		benchmarks.add(new Benchmark("aes decrypt 112 bytes in place") {
+			public int run() throws Exception {
+				return aes.decrypt(data, 0, data.length, data, 0);
+			}
+		});
+		benchmarks.add(new Benchmark("aes decrypt 112 bytes to buffer") {
+			public int run() throws Exception {
+				return aes.decrypt(data, 0, data.length, out, 0);
+			}
+		});
+	}
+
+	private static void notificationBenchmarks(List<Benchmark> benchmarks) throws Exception {
+		final ByteBuffer other = ByteBuffer.wrap(Fixtures.get("OTHER_EVENT_8"));
+		benchmarks.add(new Benchmark("OtherEventNotifications 8 events") {
+			public int run() throws Exception {
+				other.position(0);
+				OtherEventNotifications o = (OtherEventNotifications)MessageFactory.fromBytes(other);
+				int sum = 0;
+				for(int k = 0; k < o.Count(); k++)
+					sum += o.getNotification(k).hashCode();
+				return sum;
+			}
+		});
+
+		//alternate between two states so every zone changes each time
+		final ObjectStatus[] statuses = {
+				(ObjectStatus)MessageFactory.fromBytes(Fixtures.get("ZONE_STATUS_25")),
+				(ObjectStatus)MessageFactory.fromBytes(Fixtures.get("ZONE_STATUS_25_CHANGED"))
+		};
+		int[] listeners = {0, 1, 4, 16, 256};
+		for(int n : listeners){
+			final BenchController controller = new BenchController(25, n, 0);
+			benchmarks.add(new Benchmark("statusNotify 25 zones, " + n + " listeners") {
+				int next;
+				public int run() {
+					controller.notify(statuses[next ^= 1]);
+					return Counter.total;
+				}
+			});
+		}
+		//arming and tripping changes three fields of every zone
+		final ObjectStatus[] alarms = new ObjectStatus[2];
+		for(int k = 0; k < 2; k++){
+			ZoneStatus[] records = new ZoneStatus[25];
+			for(int i = 0; i < records.length; i++)
+				records[i] = new ZoneStatus(i + 1, k == 0 ? 0x00 : 0x15, 0xfd);
+			alarms[k] = new ObjectStatus(statuses[0].getStatusType(), records);
+		}
+		for(final boolean aggregate : new boolean[] {false, true}){
+			final BenchController controller = new BenchController(25, 16, 0);
+			controller.setAggregateChanges(aggregate);
+			benchmarks.add(new Benchmark("zone alarms 25 zones, 16 " + (aggregate ? "aggregated" : "listeners")) {
+				int next;
+				public int run() {
+					controller.notify(alarms[next ^= 1]);
+					return Counter.total;
+				}
+			});
+		}
+		//the same number of callers, each only interested in one zone's status
+		final BenchController subscribed = new BenchController(25, 0, 256);
+		benchmarks.add(new Benchmark("statusNotify 25 zones, 256 subscribed") {
+			int next;
+			public int run() {
+				subscribed.notify(statuses[next ^= 1]);
+				return Counter.total;
+			}
+		});
+	}
+
+	/*
+	 * A controller with zones but no connection
+	 */
+	private static class BenchController extends OmniController {
+		BenchController(int zones, int listeners, int subscriptions) {
+			for(int i = 1; i <= zones; i++)
+				zoneFor(i);
+			for(int i = 0; i < listeners; i++)
+				addNotificationListener(new Counter());
+			for(int i = 0; i < subscriptions; i++){
+				int zone = 1 + (i * 7) % 176;
+				subscribe(new Counter(), OmniArea.Zone, zone, zone, OmniZone.ChangeType.Status);
+			}
+		}
+
+		void notify(ObjectStatus status){
+			statusNotify(status);
+		}
+	}
+
+	private static class Counter implements OmniNotifyListener {
+		static int total;
+
+		public void objectChangedNotification(ChangeMessage msg) {
+			total++;
+		}
+	}
+}
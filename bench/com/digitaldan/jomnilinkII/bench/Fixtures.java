@@ -0,0 +1,131 @@
+package com.digitaldan.jomnilinkII.bench;
+
+/**
+ *  Copyright (C) 2009  Dan Cunningham                                         
+ *                                                                             
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decrypted message frames, start byte through CRC, used to drive the
+ * benchmarks.  They are written in the format Connection prints as "RX:"
+ * with debugging on, so a frame captured from a panel can be pasted in
+ * as is (any padding after the CRC is ignored).  The frames below follow
+ * the layouts in the Omni-Link II protocol document, with values typical
+ * of a mid sized install.
+ */
+public class Fixtures {
+
+	private static Map<String, byte[]> frames = new LinkedHashMap<String, byte[]>();
+
+	static {
+		add("ACK", "0x21 0x01 0x01 0xc0 0x50");
+		add("NEG_ACK", "0x21 0x01 0x02 0x80 0x51");
+		add("END_OF_DATA", "0x21 0x01 0x03 0x41 0x91");
+		add("SYS_INFO", "0x21 0x14 0x17 0x1e 0x03 0x00 0xfe 0x35 0x35 0x35 0x31 0x32 0x33 0x34 "
+				+ "0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0xec 0xa2");
+		add("SYS_STATUS", "0x21 0x11 0x19 0x01 0x11 0x0a 0x10 0x06 0x0e 0x20 0x05 0x01 0x07 0x0c "
+				+ "0x12 0x1d 0xd5 0x01 0x02 0x30 0x74");
+		add("SYS_TROUBLES", "0x21 0x03 0x1b 0x01 0x04 0x70 0x10");
+		add("SYS_FEATURES", "0x21 0x03 0x1d 0x01 0x02 0x10 0x13");
+		add("SYS_FORMATS", "0x21 0x04 0x29 0x01 0x02 0x01 0x68 0xfc");
+		add("OBJ_CAPACITY", "0x21 0x04 0x1f 0x01 0x00 0xb0 0xa6 0x60");
+		add("ZONE_PROPERTIES", "0x21 0x18 0x21 0x01 0x00 0x01 0x00 0xfd 0x00 0x01 0x00 0x46 0x52 0x4f "
+				+ "0x4e 0x54 0x20 0x44 0x4f 0x4f 0x52 0x00 0x00 0x00 0x00 0x00 0x9d 0x9d");
+		add("UNIT_PROPERTIES", "0x21 0x14 0x21 0x02 0x00 0x0c 0x01 0x00 0x00 0x03 0x50 0x4f 0x52 0x43 "
+				+ "0x48 0x20 0x4c 0x49 0x47 0x48 0x54 0x00 0xea 0x12");
+		add("AREA_PROPERTIES", "0x21 0x17 0x21 0x05 0x00 0x01 0x00 0x00 0x00 0x00 0x01 0x3c 0x1e 0x4d "
+				+ "0x41 0x49 0x4e 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0x63 0x7f");
+		add("THERMO_PROPERTIES", "0x21 0x18 0x21 0x06 0x00 0x01 0x01 0x96 0x8c 0xaa 0x01 0x00 0x00 0x01 "
+				+ "0x55 0x50 0x53 0x54 0x41 0x49 0x52 0x53 0x00 0x00 0x00 0x00 0xca 0xd2");
+		add("AUX_PROPERTIES", "0x21 0x18 0x21 0x08 0x00 0x02 0x00 0x96 0x00 0xff 0x01 0x4f 0x55 0x54 "
+				+ "0x44 0x4f 0x4f 0x52 0x20 0x54 0x45 0x4d 0x50 0x00 0x00 0x00 0x59 0xf1");
+		add("ZONE_STATUS_25", "0x21 0x66 0x23 0x01 0x00 0x01 0x00 0xfd 0x00 0x02 0x00 0xfd 0x00 0x03 "
+				+ "0x00 0xfd 0x00 0x04 0x00 0xfd 0x00 0x05 0x00 0xfd 0x00 0x06 0x00 0xfd "
+				+ "0x00 0x07 0x01 0x00 0x00 0x08 0x00 0xfd 0x00 0x09 0x00 0xfd 0x00 0x0a "
+				+ "0x00 0xfd 0x00 0x0b 0x00 0xfd 0x00 0x0c 0x00 0xfd 0x00 0x0d 0x00 0xfd "
+				+ "0x00 0x0e 0x01 0x00 0x00 0x0f 0x00 0xfd 0x00 0x10 0x00 0xfd 0x00 0x11 "
+				+ "0x00 0xfd 0x00 0x12 0x00 0xfd 0x00 0x13 0x00 0xfd 0x00 0x14 0x00 0xfd "
+				+ "0x00 0x15 0x01 0x00 0x00 0x16 0x00 0xfd 0x00 0x17 0x00 0xfd 0x00 0x18 "
+				+ "0x00 0xfd 0x00 0x19 0x00 0xfd 0x66 0x5a");
+		add("ZONE_STATUS_25_CHANGED", "0x21 0x66 0x23 0x01 0x00 0x01 0x01 0x00 0x00 0x02 0x01 0x00 0x00 0x03 "
+				+ "0x01 0x00 0x00 0x04 0x01 0x00 0x00 0x05 0x01 0x00 0x00 0x06 0x01 0x00 "
+				+ "0x00 0x07 0x00 0xfd 0x00 0x08 0x01 0x00 0x00 0x09 0x01 0x00 0x00 0x0a "
+				+ "0x01 0x00 0x00 0x0b 0x01 0x00 0x00 0x0c 0x01 0x00 0x00 0x0d 0x01 0x00 "
+				+ "0x00 0x0e 0x00 0xfd 0x00 0x0f 0x01 0x00 0x00 0x10 0x01 0x00 0x00 0x11 "
+				+ "0x01 0x00 0x00 0x12 0x01 0x00 0x00 0x13 0x01 0x00 0x00 0x14 0x01 0x00 "
+				+ "0x00 0x15 0x00 0xfd 0x00 0x16 0x01 0x00 0x00 0x17 0x01 0x00 0x00 0x18 "
+				+ "0x01 0x00 0x00 0x19 0x01 0x00 0xe5 0xa2");
+		add("UNIT_STATUS_25", "0x21 0x7f 0x23 0x02 0x00 0x01 0x00 0x00 0x00 0x00 0x02 0x00 0x00 0x00 "
+				+ "0x00 0x03 0x01 0x00 0x00 0x00 0x04 0x00 0x00 0x00 0x00 0x05 0x00 0x02 "
+				+ "0x58 0x00 0x06 0x01 0x00 0x00 0x00 0x07 0x00 0x00 0x00 0x00 0x08 0x00 "
+				+ "0x00 0x00 0x00 0x09 0x01 0x00 0x00 0x00 0x0a 0x00 0x02 0x58 0x00 0x0b "
+				+ "0x00 0x00 0x00 0x00 0x0c 0x01 0x00 0x00 0x00 0x0d 0x00 0x00 0x00 0x00 "
+				+ "0x0e 0x00 0x00 0x00 0x00 0x0f 0x01 0x02 0x58 0x00 0x10 0x00 0x00 0x00 "
+				+ "0x00 0x11 0x00 0x00 0x00 0x00 0x12 0x01 0x00 0x00 0x00 0x13 0x00 0x00 "
+				+ "0x00 0x00 0x14 0x00 0x02 0x58 0x00 0x15 0x01 0x00 0x00 0x00 0x16 0x00 "
+				+ "0x00 0x00 0x00 0x17 0x00 0x00 0x00 0x00 0x18 0x01 0x00 0x00 0x00 0x19 "
+				+ "0x00 0x02 0x58 0x2c 0x76");
+		add("AREA_STATUS", "0x21 0x08 0x23 0x05 0x00 0x01 0x00 0x00 0x00 0x00 0x4d 0x0d");
+		add("THERMO_STATUS", "0x21 0x26 0x23 0x06 0x00 0x01 0x01 0x97 0x8c 0xaa 0x01 0x00 0x00 0x00 "
+				+ "0x02 0x01 0x98 0x8c 0xaa 0x01 0x00 0x00 0x00 0x03 0x01 0x99 0x8c 0xaa "
+				+ "0x01 0x00 0x00 0x00 0x04 0x01 0x9a 0x8c 0xaa 0x01 0x00 0x00 0x55 0xba");
+		add("AUX_STATUS", "0x21 0x0e 0x23 0x08 0x00 0x01 0x00 0x96 0x00 0xff 0x00 0x02 0x00 0x98 "
+				+ "0x00 0xff 0x87 0x95");
+		add("MESG_STATUS", "0x21 0x08 0x23 0x07 0x00 0x01 0x00 0x00 0x02 0x01 0xae 0x6d");
+		add("EXT_THERMO_STATUS", "0x21 0x1f 0x3b 0x06 0x0e 0x00 0x01 0x01 0x97 0x8c 0xaa 0x01 0x00 0x00 "
+				+ "0x5a 0x50 0x64 0x82 0x00 0x00 0x02 0x01 0x98 0x8c 0xaa 0x01 0x00 0x00 "
+				+ "0x5a 0x50 0x64 0x82 0x00 0xd7 0x76");
+		add("AUDIO_SOURCE_STATUS", "0x21 0x11 0x31 0x00 0x01 0x03 0x01 0x01 0x52 0x61 0x64 0x69 0x6f 0x20 "
+				+ "0x31 0x30 0x31 0x2e 0x31 0x4e 0xbc");
+		add("ZONE_READY", "0x21 0x17 0x39 0xff 0xfe 0xff 0xff 0xff 0xff 0xff 0xff 0xff 0xff 0xff "
+				+ "0xff 0xff 0xff 0xff 0xff 0xff 0xff 0xff 0xff 0xff 0xff 0xf8 0xc5");
+		add("CONN_SEC_STATUS", "0x21 0x09 0x2e 0x01 0x00 0x00 0x00 0x00 0x00 0x00 0x00 0xc4 0x42");
+		add("OTHER_EVENT_1", "0x21 0x03 0x37 0x0c 0x01 0x75 0x4a");
+		add("OTHER_EVENT_8", "0x21 0x11 0x37 0x0c 0x01 0x0c 0x02 0x02 0x01 0x02 0x02 0x03 0x04 0x01 "
+				+ "0x00 0xf0 0x01 0x70 0x01 0xfb 0x19");
+		add("EVENT_LOG_DATA", "0x21 0x0c 0x25 0x00 0x01 0x01 0x0a 0x10 0x0e 0x20 0x80 0x01 0x00 0x02 "
+				+ "0x28 0xbc");
+		add("NAME_DATA", "0x21 0x13 0x0e 0x01 0x00 0x01 0x46 0x52 0x4f 0x4e 0x54 0x20 0x44 0x4f "
+				+ "0x4f 0x52 0x00 0x00 0x00 0x00 0x00 0x0a 0xfc");
+		add("SEC_CODE_VALID", "0x21 0x03 0x27 0x01 0x01 0x70 0x1f");
+	}
+
+	private static void add(String name, String hex){
+		String[] bytes = hex.trim().split("\\s+");
+		byte[] frame = new byte[bytes.length];
+		for(int i = 0; i < bytes.length; i++){
+			frame[i] = (byte)Integer.parseInt(bytes[i].substring(2), 16);
+		}
+		frames.put(name, frame);
+	}
+
+	/**
+	 * @return a copy of the named frame
+	 */
+	public static byte[] get(String name){
+		byte[] frame = frames.get(name);
+		if(frame == null)
+			throw new IllegalArgumentException("No fixture " + name);
+		return frame.clone();
+	}
+
+	public static Map<String, byte[]> all(){
+		return frames;
+	}
+}
@@ -0,0 +1,198 @@
+package com.digitaldan.jomnilinkII.bench;
+
+/**
+ *  Copyright (C) 2009  Dan Cunningham
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import com.digitaldan.jomnilinkII.Connection;
+import com.digitaldan.jomnilinkII.Message;
+import com.digitaldan.jomnilinkII.NotificationListener;
+import com.digitaldan.jomnilinkII.NotificationQueue;
+import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.OtherEventNotifications;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectStatus;
+import com.digitaldan.jomnilinkII.simulator.OmniSimulator;
+import com.digitaldan.jomnilinkII.simulator.SimulatedPanel;
+
+/**
+ * Request latency, pipelined throughput and notification delivery against
+ * a local simulator.
+ * <pre>
+ * ant loadtest
+ * java -cp bin:bin-bench com.digitaldan.jomnilinkII.bench.LoadTest [-c clients] [-p depth]
+ *      [-r notifications/s] [-s seconds] [-l reply delay ms] [-o BLOCK|DROP_OLDEST|COALESCE]
+ * </pre>
+ */
+public class LoadTest {
+
+	private static final String KEY = "00:11:22:33:44:55:66:77:88:99:aa:bb:cc:dd:ee:ff";
+
+	public static void main(String[] args) throws Exception {
+		int clients = 4;
+		int depth = 8;
+		int rate = 5000;
+		int seconds = 5;
+		int delay = 0;
+		NotificationQueue.OverflowPolicy policy = NotificationQueue.OverflowPolicy.COALESCE;
+		for(int i = 0; i + 1 < args.length; i += 2){
+			if(args[i].equals("-o")){
+				policy = NotificationQueue.OverflowPolicy.valueOf(args[i + 1]);
+				continue;
+			}
+			int value = Integer.parseInt(args[i + 1]);
+			if(args[i].equals("-c"))
+				clients = value;
+			else if(args[i].equals("-p"))
+				depth = value;
+			else if(args[i].equals("-r"))
+				rate = value;
+			else if(args[i].equals("-s"))
+				seconds = value;
+			else if(args[i].equals("-l"))
+				delay = value;
+		}
+
+		OmniSimulator sim = new OmniSimulator(0, KEY, new SimulatedPanel());
+		sim.setReplyDelay(delay);
+		Connection[] c = new Connection[clients];
+		for(int i = 0; i < clients; i++){
+			c[i] = new Connection("127.0.0.1", sim.getPort(), KEY);
+			c[i].setPipelineDepth(depth);
+			c[i].getNotificationQueue().setOverflowPolicy(policy);
+		}
+		System.out.println(clients + " clients, pipeline depth " + depth + ", reply delay " + delay + "ms");
+
+		latency(c, seconds * 1000L);
+		throughput(c, depth, seconds * 1000L);
+		notifications(sim, c, rate, seconds * 1000L);
+
+		for(int i = 0; i < clients; i++)
+			c[i].disconnect();
+		sim.shutdown();
+		System.exit(0);
+	}
+
+	/*
+	 * One blocking 25 zone status request at a time on each client
+	 */
+	private static void latency(final Connection[] c, final long millis) throws Exception {
+		final long[][] samples = new long[c.length][];
+		Thread[] threads = new Thread[c.length];
+		for(int i = 0; i < c.length; i++){
+			final int n = i;
+			threads[i] = new Thread() {
+				public void run(){
+					long[] times = new long[1024];
+					int count = 0;
+					long end = System.currentTimeMillis() + millis;
+					try {
+						while(System.currentTimeMillis() < end){
+							long start = System.nanoTime();
+							c[n].reqObjectStatus(Message.OBJ_TYPE_ZONE, 1, 25);
+							if(count == times.length)
+								times = Arrays.copyOf(times, count * 2);
+							times[count++] = System.nanoTime() - start;
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+					samples[n] = Arrays.copyOf(times, count);
+				}
+			};
+			threads[i].start();
+		}
+		long[] all = new long[0];
+		for(int i = 0; i < c.length; i++){
+			threads[i].join();
+			long[] s = samples[i];
+			int off = all.length;
+			all = Arrays.copyOf(all, off + s.length);
+			System.arraycopy(s, 0, all, off, s.length);
+		}
+		Arrays.sort(all);
+		if(all.length == 0)
+			return;
+		System.out.println(String.format("latency: %d requests, p50 %.0fus p99 %.0fus max %.0fus",
+				all.length, all[all.length / 2] / 1000.0, all[(int)(all.length * 0.99)] / 1000.0,
+				all[all.length - 1] / 1000.0));
+	}
+
+	/*
+	 * Keeps depth async requests outstanding on every client
+	 */
+	private static void throughput(Connection[] c, int depth, long millis) throws Exception {
+		final AtomicLong completed = new AtomicLong();
+		final Semaphore[] window = new Semaphore[c.length];
+		for(int i = 0; i < c.length; i++)
+			window[i] = new Semaphore(depth);
+		long start = System.currentTimeMillis();
+		long end = start + millis;
+		int next = 0;
+		while(System.currentTimeMillis() < end){
+			final int n = next++ % c.length;
+			window[n].acquire();
+			c[n].sendAsync(new ReqObjectStatus(Message.OBJ_TYPE_ZONE, 1, 25)).whenComplete(
+					new BiConsumer<Message, Throwable>() {
+						public void accept(Message m, Throwable t) {
+							completed.incrementAndGet();
+							window[n].release();
+						}
+					});
+		}
+		for(int i = 0; i < c.length; i++)
+			window[i].acquire(depth);
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println(String.format("throughput: %d requests, %.0f requests/s",
+				completed.get(), completed.get() * 1000.0 / elapsed));
+	}
+
+	/*
+	 * Every client listens while the simulator toggles zones at the given rate
+	 */
+	private static void notifications(OmniSimulator sim, Connection[] c, int rate, long millis) throws Exception {
+		final AtomicLong received = new AtomicLong();
+		for(int i = 0; i < c.length; i++){
+			c[i].addNotificationListener(new NotificationListener() {
+				public void objectStausNotification(ObjectStatus s) {
+					received.incrementAndGet();
+				}
+				public void otherEventNotification(OtherEventNotifications o) {
+				}
+			});
+			c[i].enableNotifications();
+		}
+		sim.startNotificationStorm(rate);
+		Thread.sleep(millis);
+		sim.stopNotificationStorm();
+		long sent = sim.getNotificationCount();
+		//let the clients drain
+		Thread.sleep(500);
+		long dropped = 0;
+		long coalesced = 0;
+		for(int i = 0; i < c.length; i++){
+			dropped += c[i].getNotificationQueue().getDropped();
+			coalesced += c[i].getNotificationQueue().getCoalesced();
+		}
+		System.out.println(String.format("notifications: %d sent, %d received, %.0f/s per client at %d/s, %d dropped, %d coalesced",
+				sent, received.get(), received.get() * 1000.0 / millis / c.length, rate, dropped, coalesced));
+	}
+}
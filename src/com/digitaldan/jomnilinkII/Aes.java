@@ -65,4 +65,16 @@ public class Aes {
 			throw new IOException(e.getMessage());
 		}
 	}
+	
+	/**
+	 * Input and output may be the same array, but the cipher then copies
+	 * the input, so keep them apart to avoid allocating
+	 */
+	public int encrypt(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws IOException{
+		try {
+		    return encipher.doFinal(input,inputOffset,inputLen, output,outputOffset);
+		}catch(Exception e){
+			throw new IOException(e.getMessage());
+		}
+	}
 }
@@ -0,0 +1,66 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.OtherEventNotifications;
+
+/**
+ * Calls a listener from its own {@link ListenerQueue} instead of the
+ * notification thread.
+ * @see Connection#addAsyncNotificationListener(NotificationListener)
+ */
+public class AsyncNotificationListener implements NotificationListener {
+
+	private final NotificationListener listener;
+	private final ListenerQueue queue;
+
+	public AsyncNotificationListener(NotificationListener listener){
+		this(listener, new ListenerQueue(listener.getClass().getName()));
+	}
+
+	public AsyncNotificationListener(NotificationListener listener, ListenerQueue queue){
+		this.listener = listener;
+		this.queue = queue;
+	}
+
+	public NotificationListener getListener(){
+		return listener;
+	}
+
+	public ListenerQueue getQueue(){
+		return queue;
+	}
+
+	public void objectStausNotification(final ObjectStatus status) {
+		queue.execute(new Runnable() {
+			public void run() {
+				listener.objectStausNotification(status);
+			}
+		});
+	}
+
+	public void otherEventNotification(final OtherEventNotifications other) {
+		queue.execute(new Runnable() {
+			public void run() {
+				listener.otherEventNotification(other);
+			}
+		});
+	}
+}
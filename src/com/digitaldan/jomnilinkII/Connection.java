@@ -19,19 +19,30 @@ package com.digitaldan.jomnilinkII;
  */
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 //import java.security.AccessController;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
 
+import com.digitaldan.jomnilinkII.MessageTypes.Acknowledge;
 import com.digitaldan.jomnilinkII.MessageTypes.ActivateKeypadEmergency;
 import com.digitaldan.jomnilinkII.MessageTypes.CommandMessage;
 import com.digitaldan.jomnilinkII.MessageTypes.ConnectedSecurityCommand;
@@ -43,6 +54,7 @@ import com.digitaldan.jomnilinkII.MessageTypes.ExtendedObjectStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.ObjectTypeCapacities;
 import com.digitaldan.jomnilinkII.MessageTypes.OtherEventNotifications;
+import com.digitaldan.jomnilinkII.MessageTypes.RawMessage;
 import com.digitaldan.jomnilinkII.MessageTypes.ReqAudioSourceStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.ReqConnectedSecurityStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.ReqExtenedObjectStatus;
@@ -66,6 +78,7 @@ import com.digitaldan.jomnilinkII.MessageTypes.SystemTroubles;
 import com.digitaldan.jomnilinkII.MessageTypes.UploadEventRecord;
 import com.digitaldan.jomnilinkII.MessageTypes.UploadNames;
 import com.digitaldan.jomnilinkII.MessageTypes.ZoneReadyStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.events.OtherEvent;
 import com.digitaldan.jomnilinkII.MessageTypes.statuses.AccessControlReaderLockStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.statuses.AccessControlReaderStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.statuses.AreaStatus;
@@ -95,6 +108,12 @@ public class Connection extends Thread {
 	public static int OMNI_TO = 60 * 5 * 1000;
 	// Keep alive time, Omni timeout minus one 1/2 minutes
 	public static int PING_TO =  OMNI_TO - (1000 * 90);
+	// Number of requests allowed on the wire before waiting for a reply,
+	// 1 keeps the classic one request at a time behaviour
+	public static int DEFAULT_PIPELINE_DEPTH = 1;
+	public static int MAX_PIPELINE_DEPTH = 32;
+	// Notifications waiting for dispatch before the overflow policy applies
+	public static int NOTIFICATION_QUEUE_SIZE = 1024;
 
 	public boolean debug;
 	private boolean connected;
@@ -106,35 +125,100 @@ public class Connection extends Thread {
 	private int tx;
 	//private int rx;
 	private Aes aes;
-	private LinkedList<Message> notifications;
-	private OmniPacket response;
-	private Object readLock = new Object();
+	private NotificationQueue notifications;
+	//requests on the wire, keyed by the sequence number they were sent with
+	private Map<Integer, OmniRequest> pendingRequests;
+	//requests waiting for room in the pipeline
+	private LinkedList<OmniRequest> queuedRequests;
+	private int pipelineDepth;
 	private Object writeLock = new Object();
-	private Object notifyLock = new Object();
 	private Exception lastException;
-	private Vector<NotificationListener> notificationListeners;
+	private CopyOnWriteArrayList<NotificationListener> notificationListeners;
+	private NotificationPublisher<ObjectStatus> statusPublisher = new NotificationPublisher<ObjectStatus>();
+	private NotificationPublisher<OtherEvent> eventPublisher = new NotificationPublisher<OtherEvent>();
+	private Vector<ObjectStatusViewListener> statusViewListeners;
+	private CopyOnWriteArrayList<NotificationFrameListener> frameListeners;
+	//only used by the reader
+	private ObjectStatusView statusView = new ObjectStatusView();
 	private Vector<DisconnectListener> disconnectListeners;
 	private NotificationHandler notificationHandler;
 	private ConnectionWatchdog watchdog;
+	//only used when the connection is served by an OmniEventLoop
+	private OmniEventLoop loop;
+	private SocketChannel channel;
+	//per connection scratch space, plain text and cipher text are kept in
+	//separate arrays as the cipher copies its input when they are the same
+	private byte [] txPlain;
+	private ByteBuffer txMessage;
+	private byte [] txFrame;
+	private ByteBuffer txHeader;
+	private ByteBuffer txBody;
+	private ByteBuffer [] txBuffers;
+	private byte [] rxFrame;
+	private byte [] rxPlain;
+	private ByteBuffer rxView;
+	private DataInputStream rxStream;
+	private SelectionKey selectionKey;
+	private ByteBuffer rxBuffer;
+	private LinkedList<ByteBuffer> txQueue;
+	private long lastRXMessageTime;
+
 	public Connection(String address, int port, String key) 
+	  throws Exception,IOException,UnknownHostException {
+		this(address, port, key, null);
+	}
+
+	/** Connect to a controller.
+	 * When an event loop is given the connection does not start any
+	 * threads of its own, reading, keep alive pings and notification
+	 * dispatch are done by the loop, which can serve many connections.
+	 * @param address Controller host
+	 * @param port Controller port
+	 * @param key Controller key
+	 * @param loop Event loop to use, or null for a dedicated reader thread
+	 */
+	public Connection(String address, int port, String key, OmniEventLoop loop) 
 	  throws Exception,IOException,UnknownHostException {
 
 		ping = true;
-		notifications = new LinkedList<Message>();
-		response = null;
+		notifications = new NotificationQueue(NOTIFICATION_QUEUE_SIZE, NotificationQueue.OverflowPolicy.COALESCE);
+		pendingRequests = new HashMap<Integer, OmniRequest>();
+		queuedRequests = new LinkedList<OmniRequest>();
+		pipelineDepth = DEFAULT_PIPELINE_DEPTH;
 		lastException = null;
-		notificationListeners = new Vector<NotificationListener>();
+		notificationListeners = new CopyOnWriteArrayList<NotificationListener>();
+		statusViewListeners = new Vector<ObjectStatusViewListener>();
+		frameListeners = new CopyOnWriteArrayList<NotificationFrameListener>();
 		disconnectListeners = new Vector<DisconnectListener>();
 
 		byte[] _key = hexStringToByteArray(key.replaceAll("\\W", ""));		
 
-		socket = new Socket(address,port);
+		if(loop == null){
+			socket = new Socket(address,port);
+		} else {
+			//handshake is done in blocking mode, the loop takes over after
+			channel = SocketChannel.open(new InetSocketAddress(address,port));
+			socket = channel.socket();
+		}
 		is = socket.getInputStream();
 		os = socket.getOutputStream();
 		socket.setSoTimeout(OMNI_TO);
 		tx = 1;
 		// rx = 1;
 
+		//header, first block and the most a message length can add
+		int frameSize = 4 + ((((MAX_PACKET_SIZE + 3) / 16) + 1) * 16);
+		txPlain = new byte[frameSize - 4];
+		txMessage = ByteBuffer.wrap(txPlain);
+		txFrame = new byte[frameSize];
+		txHeader = ByteBuffer.wrap(txFrame, 0, 4).slice();
+		txBody = ByteBuffer.wrap(txFrame, 4, frameSize - 4).slice();
+		txBuffers = new ByteBuffer[]{txHeader, txBody};
+		rxFrame = new byte[frameSize];
+		rxPlain = new byte[frameSize];
+		rxView = ByteBuffer.wrap(rxPlain);
+		rxStream = new DataInputStream(is);
+
 		sendBytes(new OmniPacket(PACKET_TYPE_CLIENT_REQUEST_NEW_SESSION,null));
 
 		OmniPacket rec = readBytes();
@@ -175,6 +259,16 @@ public class Connection extends Thread {
 		lastTXMessageTime = System.currentTimeMillis();
 		
 		//notificationListeners = new Vector<NotificationListener>();
+
+		if(loop != null){
+			this.loop = loop;
+			rxBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE * 16);
+			txQueue = new LinkedList<ByteBuffer>();
+			lastRXMessageTime = lastTXMessageTime;
+			channel.configureBlocking(false);
+			loop.register(this);
+			return;
+		}
 		
 		this.setName("OmniReaderThread");
 		this.start();
@@ -189,6 +283,8 @@ public class Connection extends Thread {
 	
 	public void disconnect(){
 		connected = false;
+		notifications.close();
+		closePublishers();
 		if(socket != null){
 			try {
 				socket.close();
@@ -196,6 +292,7 @@ public class Connection extends Thread {
 
 			}
 		}
+		failRequests(new OmniNotConnectedException(lastError()));
 	}
 
 	public boolean connected(){
@@ -214,19 +311,129 @@ public class Connection extends Thread {
 		this.ping = ping;
 	}
 
-	public void addNotificationListener(NotificationListener listener){
-		synchronized (notificationListeners) {
-			notificationListeners.add(listener);
+	/** Number of requests that may be outstanding at once.
+	 */
+	public int getPipelineDepth(){
+		return pipelineDepth;
+	}
+
+	/** Set how many requests may be written to the controller before
+	 * waiting for a reply.  Replies are matched to their request by the
+	 * packet sequence number, so with a depth greater than one requests
+	 * made from several threads (or through {@link #sendAndReceive(Message[])})
+	 * are written back to back instead of one per round trip.
+	 * @param depth 1 to {@link #MAX_PIPELINE_DEPTH}
+	 */
+	public void setPipelineDepth(int depth){
+		if(depth < 1 || depth > MAX_PIPELINE_DEPTH)
+			throw new IllegalArgumentException("invalid pipeline depth (" + depth + ")");
+		synchronized (writeLock) {
+			pipelineDepth = depth;
+			drainRequests();
 		}
 	}
 
+	/** The hand off between the reader and the notification thread.
+	 * Its overflow policy may be changed at any time, it starts as COALESCE
+	 * with {@link #NOTIFICATION_QUEUE_SIZE} slots.  BLOCK stops the reader,
+	 * so a listener that makes requests would wait on replies that are never
+	 * read; only use it when no listener talks to the controller.  Not used
+	 * when the connection is served by an event loop.
+	 */
+	public NotificationQueue getNotificationQueue(){
+		return notifications;
+	}
+
+	public void addNotificationListener(NotificationListener listener){
+		notificationListeners.add(listener);
+	}
+
+	/**
+	 * Add a listener that is called from its own thread and bounded queue,
+	 * so it can not hold up other listeners or the reader.
+	 * @return the wrapper, whose queue has the listener's metrics
+	 */
+	public AsyncNotificationListener addAsyncNotificationListener(NotificationListener listener){
+		AsyncNotificationListener async = new AsyncNotificationListener(listener);
+		notificationListeners.add(async);
+		return async;
+	}
+
+	/**
+	 * Removes the listener, or the asynchronous wrapper around it
+	 */
 	public void removeNotificationListener(NotificationListener listener){
-		synchronized (notificationListeners) {
-			if(notificationListeners.contains(listener))
-				notificationListeners.remove(listener);
+		for (NotificationListener l : notificationListeners) {
+			if(l == listener){
+				notificationListeners.remove(l);
+			} else if(l instanceof AsyncNotificationListener
+					&& ((AsyncNotificationListener)l).getListener() == listener){
+				notificationListeners.remove(l);
+				((AsyncNotificationListener)l).getQueue().shutdown();
+			}
+		}
+	}
+
+
+	/**
+	 * Status notifications as a reactive stream.  Subscribers are called on
+	 * the notification thread while they have demand, without demand
+	 * notifications are buffered for them and the oldest dropped, they never
+	 * hold up the notification thread.  Completes when the connection is
+	 * closed, or fails with the error that closed it.
+	 */
+	public Flow.Publisher<ObjectStatus> getStatusPublisher(){
+		return statusPublisher;
+	}
+
+	/**
+	 * Other events as a reactive stream, one item per event, see
+	 * {@link #getStatusPublisher()}.
+	 */
+	public Flow.Publisher<OtherEvent> getOtherEventPublisher(){
+		return eventPublisher;
+	}
+
+	private void closePublishers(){
+		Exception e = lastException;
+		if(e == null){
+			statusPublisher.close();
+			eventPublisher.close();
+		} else {
+			statusPublisher.closeExceptionally(e);
+			eventPublisher.closeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Status notifications are given to view listeners on the reader thread
+	 * before they are decoded for the notification listeners, if there are
+	 * no notification listeners they are not decoded at all.
+	 */
+	public void addStatusViewListener(ObjectStatusViewListener listener){
+		synchronized (statusViewListeners) {
+			statusViewListeners.add(listener);
+		}
+	}
+
+	public void removeStatusViewListener(ObjectStatusViewListener listener){
+		synchronized (statusViewListeners) {
+			statusViewListeners.remove(listener);
 		}
 	}
 
+	/**
+	 * Frame listeners are given every notification as it came off the
+	 * wire, on the reader thread before anything else sees it.
+	 */
+	public void addNotificationFrameListener(NotificationFrameListener listener){
+		frameListeners.add(listener);
+	}
+
+	public void removeNotificationFrameListener(NotificationFrameListener listener){
+		frameListeners.remove(listener);
+	}
+
 	public void addDisconnectListener(DisconnectListener listener){
 		synchronized (disconnectListeners) {
 			disconnectListeners.add(listener);
@@ -240,98 +447,246 @@ public class Connection extends Thread {
 		}
 	}
 
+	/** Send a message and wait for its reply.
+	 * The reply to a {@link RawMessage} is not decoded, it is a RawMessage
+	 * holding the reply frame.
+	 */
 	public Message sendAndReceive(Message message) throws IOException, OmniNotConnectedException, OmniUnknownMessageTypeException{
+		checkBlockingAllowed();
+		return submit(message).await();
+	}
+
+	/** Send a message without waiting for the reply.
+	 * The future is completed on the reader thread when the reply arrives,
+	 * so dependent stages should not make blocking requests on this
+	 * connection unless they are given their own executor.  Failures are
+	 * reported with the same exceptions the blocking methods throw.
+	 * @param message Message to send
+	 * @return Future for the reply.
+	 */
+	public CompletableFuture<Message> sendAsync(Message message){
+		try {
+			return submit(message);
+		} catch (Exception e){
+			CompletableFuture<Message> failed = new CompletableFuture<Message>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+	}
+
+	private <T extends Message> CompletableFuture<T> sendAsync(Message message, Class<T> responseClass, int... responseTypes){
+		return sendAsync(message).thenApply(new ResponseCheck<T>(responseClass, responseTypes));
+	}
+
+	/** Send a group of messages and wait for all of their replies.
+	 * Up to {@link #getPipelineDepth()} of the messages are on the wire at
+	 * the same time.
+	 * @param messages Messages to send
+	 * @return The replies, in the same order as the messages.
+	 */
+	public Message[] sendAndReceive(Message[] messages) throws IOException, OmniNotConnectedException, OmniUnknownMessageTypeException{
+		checkBlockingAllowed();
+		OmniRequest[] requests = new OmniRequest[messages.length];
+		for(int i=0;i<messages.length;i++){
+			requests[i] = submit(messages[i]);
+		}
+		Message[] ret = new Message[messages.length];
+		for(int i=0;i<requests.length;i++){
+			ret[i] = requests[i].await();
+		}
+		return ret;
+	}
+
+	/*
+	 * The event loop reads the replies, waiting for one on the loop
+	 * thread would never return.
+	 */
+	private void checkBlockingAllowed(){
+		if(loop != null && loop.inEventLoop())
+			throw new IllegalStateException("blocking request made from the event loop thread, use the async methods");
+	}
+
+	private OmniRequest submit(Message message) throws OmniNotConnectedException, OmniUnknownMessageTypeException, IOException{
+		return submit(message, null);
+	}
 
+	private OmniRequest submit(Message message, ObjectStatusViewListener viewListener) throws OmniNotConnectedException, IOException{
+		OmniRequest request = new OmniRequest(message);
+		request.viewListener = viewListener;
 		synchronized(writeLock){
 			if(!connected)
 				throw new OmniNotConnectedException(lastError());
+			queuedRequests.add(request);
+			drainRequests();
+		}
+		return request;
+	}
 
-			OmniPacket ret;
-			sendBytesEncrypted(new OmniPacket(PACKET_TYPE_OMNI_LINK_MESSAGE, 
-					MessageFactory.toBytes(message)));
-			synchronized(readLock){
-				//wait for notfiy when response comes in on thread
-				while(response == null && connected)
-					try { readLock.wait();} catch (InterruptedException ignored){}
-					ret = response;
-					//no longer need this reference
-					response = null;
-					//notify reader it can continue;
-					readLock.notify();
-					//if an error occurs on our other thread it saves the exception
-					if(!connected)
-						throw new OmniNotConnectedException(lastError());
-			}
-			if(ret.type() != PACKET_TYPE_OMNI_LINK_MESSAGE) {
-				System.out.println(bytesToString(ret.data()));
-				throw new IOException("RECEIEVD NON OMNI_LINK_MESG ("+ ( ret == null ? "NULL MESG" : ret.type() ) +")");
+	/*
+	 * Write queued requests while there is room in the pipeline, must be
+	 * called holding writeLock.  The request is registered under its
+	 * sequence number before it is written so the reader always finds it.
+	 */
+	private void drainRequests(){
+		while(connected && pendingRequests.size() < pipelineDepth && !queuedRequests.isEmpty()){
+			OmniRequest request = queuedRequests.removeFirst();
+			int seq = tx;
+			pendingRequests.put(seq, request);
+			try {
+				txMessage.clear();
+				MessageFactory.toBytes(request.message, txMessage);
+				sendBytesEncrypted(PACKET_TYPE_OMNI_LINK_MESSAGE, txMessage);
+				//used to ping after a certain amount of time
+				lastTXMessageTime = System.currentTimeMillis();
+			} catch (IOException e){
+				pendingRequests.remove(seq);
+				request.complete(null, e);
+			} catch (OmniUnknownMessageTypeException e){
+				pendingRequests.remove(seq);
+				request.complete(null, e);
 			}
+		}
+	}
 
-			//used to ping after a certain amount of time
-			lastTXMessageTime = System.currentTimeMillis();
-
-			writeLock.notifyAll();
-			return MessageFactory.fromBytes(ret.data());
+	private void failRequests(Exception e){
+		LinkedList<OmniRequest> failed = new LinkedList<OmniRequest>();
+		synchronized(writeLock){
+			failed.addAll(pendingRequests.values());
+			failed.addAll(queuedRequests);
+			pendingRequests.clear();
+			queuedRequests.clear();
+		}
+		for(Iterator<OmniRequest> it = failed.iterator(); it.hasNext();){
+			it.next().complete(null, e);
 		}
 	}
+
 	private void notify_disconnect(Exception e){
-		disconnect();
 		lastException = e;
+		disconnect();
 		//tell listeners about exception
 		notifyDisconnectHandlers(lastException);
 	}
 
 	public void run() {
-		OmniPacket ret;
 		while(connected){
-			synchronized (readLock) {
+			try {
+				readBytesEncrypted2();
+			} catch(OmniUnknownMessageTypeException e){
+				//ignored
+				if(debug){
+					e.printStackTrace();
+					System.out.println("run: Uknown Messgage type " + e.getUnknowMessageType() + " Continuing");
+				}
+//			}catch(SocketTimeoutException e){
+//				//ignored
+//				if(debug){
+//					e.printStackTrace();
+//					System.out.println("Ignoring SocketTimeoutException, will try and send omni a ping if needed");
+//				}
+			}catch(Exception e){
+				notify_disconnect(e);
+			}
+		}
+		if(debug)
+			System.out.println("run: not connected, thread exiting");
+	}
+
+	/*
+	 * Sequence number 0 is an unsolicited notification, anything else is the
+	 * reply to the request that was sent with that sequence number.
+	 */
+	private void packetReceived(int seq, int type, ByteBuffer data) throws IOException, OmniUnknownMessageTypeException {
+		if(type != PACKET_TYPE_OMNI_LINK_MESSAGE)
+			throw new IOException("Non omnilink message");
+		OmniCrcException crcError = null;
+		try {
+			MessageFactory.checkCrc(data);
+		} catch (OmniCrcException e){
+			crcError = e;
+		}
+		if(seq == 0){
+			if(crcError != null){
+				if(debug)
+					System.out.println("run: NOTIFICATION: dropped, " + crcError.getMessage());
+				return;
+			}
+			for (NotificationFrameListener l : frameListeners) {
 				try {
-					if((ret = readBytesEncrypted2()).seq() == 0 &&
-							ret.type() == PACKET_TYPE_OMNI_LINK_MESSAGE){
-						notifications.add(MessageFactory.fromBytes(ret.data()));
-						if(debug)
-							System.out.println("run: NOTIFICATION: Added message with type " + ret.type);
-						synchronized (notifyLock) {
-							notifyLock.notifyAll();
-						}
-					} else if(ret.type() == PACKET_TYPE_OMNI_LINK_MESSAGE) {
-						response = ret;
-						//notify calling request lock
-						readLock.notify();
-						//wait until the response is finished
-						try { readLock.wait();} catch (InterruptedException ignored){}
-					} else {
-						throw new IOException("Non omnilink message");
-					}
-				} catch(OmniUnknownMessageTypeException e){
-					//ignored
-					if(debug){
+					l.notificationFrame(data.duplicate());
+				} catch (RuntimeException e){
+					if(debug)
 						e.printStackTrace();
-						System.out.println("run: Uknown Messgage type " + e.getUnknowMessageType() + " Continuing");
+				}
+			}
+			if(isObjectStatus(data)){
+				synchronized (statusViewListeners) {
+					for (ObjectStatusViewListener l : statusViewListeners) {
+						try {
+							l.objectStatus(statusView.wrap(data));
+						} catch (RuntimeException e){
+							if(debug)
+								e.printStackTrace();
+						}
 					}
-//				}catch(SocketTimeoutException e){
-//					//ignored
-//					if(debug){
-//						e.printStackTrace();
-//						System.out.println("Ignoring SocketTimeoutException, will try and send omni a ping if needed");
-//					}
-				}catch(Exception e){
-					notify_disconnect(e);
-				} finally {
-					readLock.notifyAll();
 				}
-				//omni will kick you off in 5 minutes if they don't get a message
-//				if(ping && connected &&
-//						System.currentTimeMillis() >= PING_TO + lastTXMessageTime){
-//					if(debug){
-//						System.out.println("Pinging Server");
-//					}
-//					pingServer();
-//				}					
 			}
+			if(notificationListeners.isEmpty() && !statusPublisher.hasSubscribers()
+					&& !eventPublisher.hasSubscribers())
+				return;
+			final Message m = MessageFactory.fromBytes(data, false);
+			if(loop != null){
+				loop.execute(new Runnable() {
+					public void run() {
+						dispatchNotification(m);
+					}
+				});
+				return;
+			}
+			notifications.offer(m);
+			if(debug)
+				System.out.println("run: NOTIFICATION: Added message with type " + m.getMessageType());
+			return;
 		}
-		if(debug)
-			System.out.println("run: not connected, thread exiting");
+		OmniRequest request;
+		synchronized (writeLock) {
+			request = pendingRequests.remove(seq);
+		}
+		if(request == null){
+			if(debug)
+				System.out.println("run: no request waiting for sequence " + seq);
+			return;
+		}
+		try {
+			if(crcError != null)
+				throw crcError;
+			if(request.viewListener != null && isObjectStatus(data)){
+				request.viewListener.objectStatus(statusView.wrap(data));
+				request.complete(null, null);
+			} else if(request.message instanceof RawMessage){
+				request.complete(RawMessage.copyOf(data), null);
+			} else {
+				request.complete(MessageFactory.fromBytes(data, false), null);
+			}
+		} catch (RuntimeException e){
+			//from the view listener
+			request.complete(null, e);
+		} catch (OmniUnknownMessageTypeException e){
+			request.complete(null, e);
+		} catch (OmniCrcException e){
+			request.complete(null, e);
+		} finally {
+			synchronized (writeLock) {
+				drainRequests();
+			}
+		}
+	}
+
+	private static boolean isObjectStatus(ByteBuffer data){
+		if(data.remaining() < 3)
+			return false;
+		int type = data.get(data.position() + 2) & 0xFF;
+		return type == Message.MESG_TYPE_OBJ_STATUS || type == Message.MESG_TYPE_EXT_OBJ_STATUS;
 	}
 
 //	private void pingServer(){
@@ -360,41 +715,61 @@ public class Connection extends Thread {
 
 	 */
 	private void sendBytesEncrypted(OmniPacket p) throws IOException {
+		txMessage.clear();
+		txMessage.put(p.data());
+		sendBytesEncrypted(p.type(), txMessage);
+	}
+
+	/*
+	 * Encrypts the data written to txMessage, from 0 to its position, into
+	 * txFrame and sends it.  Called holding writeLock (or during the handshake).
+	 */
+	private void sendBytesEncrypted(int type, ByteBuffer body) throws IOException {
+		int length = body.position();
 		/* 1. */
 		if(debug)
-			System.out.println("TX: " + bytesToString(p.data()));
-		int txlength = (p.data().length + 15) & ~0xF;
-		byte [] paddedData = new byte[txlength];
-
-		System.arraycopy(p.data(), 0, paddedData, 0, p.data().length);
-		for(int i = p.data().length; i < txlength ;i++){
-			paddedData[i] = 0x00;
+			System.out.println("TX: " + bytesToString(txPlain, 0, length));
+		int txlength = (length + 15) & ~0xF;
+		for(int i = length; i < txlength ;i++){
+			txPlain[i] = 0x00;
 		}
 		/* 2 */
 		for (int i = 0; i < (txlength / 16); i++){
-			paddedData[0 + (16 * i)] ^= (tx >> 8) & 0xFF;
-			paddedData[1 + (16 * i)] ^= (tx) & 0xFF;
+			txPlain[0 + (16 * i)] ^= (tx >> 8) & 0xFF;
+			txPlain[1 + (16 * i)] ^= (tx) & 0xFF;
 		}
 		/*3*/
-		byte []encData; 
-		try {
-			encData = aes.encrypt(paddedData);
-		} catch (Exception e){
-			throw new IOException(e.getMessage());
-		}
-		sendBytes(new OmniPacket(p.type(),encData));
+		aes.encrypt(txPlain, 0, txlength, txFrame, 4);
+		sendFrame(type, txlength);
 	}
 
 	private void sendBytes(OmniPacket p) throws IOException {
-		ByteArrayOutputStream bout = new ByteArrayOutputStream();
-		DataOutputStream dout = new DataOutputStream(bout);
-		dout.writeShort(tx);
-		dout.writeByte(p.type());
-		dout.writeByte(0);
-		if(p.data() != null)
-			dout.write(p.data());
-		os.write(bout.toByteArray());
-		os.flush();
+		int length = 0;
+		if(p.data() != null){
+			length = p.data().length;
+			System.arraycopy(p.data(), 0, txFrame, 4, length);
+		}
+		sendFrame(p.type(), length);
+	}
+
+	/*
+	 * Writes the header and the first length bytes of txBody as one write
+	 */
+	private void sendFrame(int type, int length) throws IOException {
+		txHeader.clear();
+		txHeader.putShort((short)tx);
+		txHeader.put((byte)type);
+		txHeader.put((byte)0);
+		txHeader.flip();
+		txBody.clear();
+		txBody.limit(length);
+		if(channel != null && !channel.isBlocking()){
+			writeChannel();
+		} else {
+			//header and body are adjacent in txFrame
+			os.write(txFrame, 0, 4 + length);
+			os.flush();
+		}
 		tx++;
 		if(tx >= 65535)
 			tx = 1;
@@ -418,41 +793,97 @@ public class Connection extends Thread {
 
 	}
 
-	private OmniPacket readBytesEncrypted2() throws IOException, SocketTimeoutException{
+	private void readBytesEncrypted2() throws IOException, SocketTimeoutException, OmniUnknownMessageTypeException{
 		//Notifications have thrown a bit of a curve ball, its possible to have
 		//two packets on the wire, but because the length of the packet
 		//is encrypted we have to peek into the first 16 bytes, decrypt those
 		//bytes and get the length, this makes the following code tricky and
 		//unattractive, 
-		DataInputStream dis = new DataInputStream(is);
-
 		if(debug)
 			if(debug)System.out.println("readBytesEncrypted2: Bytes available for reading: " + is.available());
 
-		int seq = dis.readUnsignedShort();
-		int type = dis.readUnsignedByte();
-		/*int reserved = */ dis.readUnsignedByte();
+		//header and first block
+		rxStream.readFully(rxFrame, 0, 4 + 16);
+		int seq = ((rxFrame[0] & 0xFF) << 8) | (rxFrame[1] & 0xFF);
+		int type = rxFrame[2] & 0xFF;
+		decryptBlocks(seq, rxFrame, 4, rxPlain, 4, 16);
 
-		byte [] encData = new byte [16];
-		dis.readFully(encData);
-		byte [] decData = aes.decrypt(encData);
+		int readLength = remainingLength(type, rxPlain, 4);
+		if(readLength > 0){
+			//read the rest 
+			rxStream.readFully(rxFrame, 4 + 16, readLength);
+			decryptBlocks(seq, rxFrame, 4 + 16, rxPlain, 4 + 16, readLength);
+		}
+		if(debug)
+			System.out.println("RX: " + bytesToString(rxPlain, 4, 16 + readLength));
 
-		decData[0]^=(seq >> 8) & 0xFF;
-		decData[1]^=(seq) & 0xFF;
+		if(debug)
+			System.out.println("readBytesEncrypted2: Data still available after read " + is.available());
+		rxView.limit(4 + 16 + readLength);
+		rxView.position(4);
+		packetReceived(seq, type, rxView);
+	}
+
+	/*
+	 * Incremental version of readBytesEncrypted2 for the event loop, returns
+	 * false and leaves the buffer untouched until a whole packet is there.
+	 * The packet is decrypted into rxPlain, the buffer is only read.
+	 */
+	private boolean readBytesEncrypted2(ByteBuffer in) throws IOException, OmniUnknownMessageTypeException {
+		if(in.remaining() < 4 + 16)
+			return false;
+		int start = in.position();
+		byte [] buf = in.array();
+		int offset = in.arrayOffset() + start;
+		int seq = ((buf[offset] & 0xFF) << 8) | (buf[offset + 1] & 0xFF);
+		int type = buf[offset + 2] & 0xFF;
+
+		//peek at the length
+		decryptBlocks(seq, buf, offset + 4, rxPlain, 4, 16);
+		int readLength = remainingLength(type, rxPlain, 4);
+		if(in.remaining() < 4 + 16 + readLength)
+			return false;
+		if(readLength > 0)
+			decryptBlocks(seq, buf, offset + 4 + 16, rxPlain, 4 + 16, readLength);
+		if(debug)
+			System.out.println("RX: " + bytesToString(rxPlain, 4, 16 + readLength));
 
+		in.position(start + 4 + 16 + readLength);
+		rxView.limit(4 + 16 + readLength);
+		rxView.position(4);
+		packetReceived(seq, type, rxView);
+		return true;
+	}
 
+	/*
+	 * Decrypts whole blocks into another array and removes the sequence
+	 * number XOR
+	 */
+	private void decryptBlocks(int seq, byte[] in, int inOffset, byte[] out, int offset, int length) throws IOException {
+		aes.decrypt(in, inOffset, length, out, offset);
+		/* XOR data */
+		for (int i = 0; i < (length / 16); i++){
+			out[offset + 0 + (16 * i)] ^= (seq >> 8) & 0xFF;
+			out[offset + 1 + (16 * i)] ^= (seq) & 0xFF;
+		}
+	}
+
+	/*
+	 * Number of bytes still on the wire after the first 16 byte block
+	 */
+	private int remainingLength(int type, byte[] decData, int offset) throws IOException {
 		//not all messages are omnilink
 		if(type != PACKET_TYPE_OMNI_LINK_MESSAGE) {
 			if(debug){
-				System.out.println("RX: " + bytesToString(decData));
+				System.out.println("RX: " + bytesToString(decData, offset, 16));
 				System.out.println("NON OMNI LINK PACKET: " + type);
 			}
-			return new OmniPacket(seq,type,decData);
+			return 0;
 		}
 
 		//continue with omnilink decoding
-		int start = (int) decData[0] & 0xFF;
-		int length = (int) decData[1] & 0xFF;
+		int start = (int) decData[offset] & 0xFF;
+		int length = (int) decData[offset + 1] & 0xFF;
 
 		if(start != Message.MESG_START)
 			System.out.println("invalid start char (" + start + ")");
@@ -467,31 +898,7 @@ public class Connection extends Thread {
 		int readLength = ((((length+3)/16)+1)*16) -16;
 		if(debug)
 			System.out.println("readBytesEncrypted2: Additional bytes to read " + readLength);
-
-		if(readLength > 0){
-			//buffer for existing 16 bytes of data plus any on the wire
-			byte [] decData2 = new byte[decData.length + readLength];
-			encData = new byte[readLength];
-			//copy the data we already have from decData to decData2
-			System.arraycopy(decData, 0,decData2,0,decData.length);
-			//read the rest 
-			dis.readFully(encData);
-			//add decrypted data to the buffer
-			aes.decrypt(encData,0,readLength,decData2,decData.length);
-			/* XOR data */
-			for (int i = 1; i < (decData2.length / 16); i++){
-				decData2[0 + (16 * i)] ^= (seq >> 8) & 0xFF;
-				decData2[1 + (16 * i)] ^= (seq) & 0xFF;
-			}
-			decData = decData2;
-		}
-		if(debug)
-			System.out.println("RX: " + bytesToString(decData));
-
-		if(debug)
-			System.out.println("readBytesEncrypted2: Data still available after read " + is.available());
-		return new OmniPacket(seq,type,decData);
-
+		return readLength;
 	}
 
 	private OmniPacket readBytes() throws IOException, SocketTimeoutException {
@@ -516,6 +923,10 @@ public class Connection extends Thread {
 			throw new OmniInvalidResponseException(msg);
 	}
 
+	public CompletableFuture<Acknowledge> enableNotificationsAsync(){
+		return sendAsync(new EnableNotifications(), Acknowledge.class, Message.MESG_TYPE_ACK);
+	}
+
 	public SystemInformation reqSystemInformation() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException{
 		Message msg = sendAndReceive(new ReqSystemInformation());
 		if(msg.getMessageType() != Message.MESG_TYPE_SYS_INFO)
@@ -523,6 +934,10 @@ public class Connection extends Thread {
 		return (SystemInformation)msg;
 	}
 
+	public CompletableFuture<SystemInformation> reqSystemInformationAsync(){
+		return sendAsync(new ReqSystemInformation(), SystemInformation.class, Message.MESG_TYPE_SYS_INFO);
+	}
+
 	public SystemStatus reqSystemStatus() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqSystemStatus());
 		if(msg.getMessageType() != Message.MESG_TYPE_SYS_STATUS)
@@ -530,6 +945,10 @@ public class Connection extends Thread {
 		return (SystemStatus)msg;
 	}
 
+	public CompletableFuture<SystemStatus> reqSystemStatusAsync(){
+		return sendAsync(new ReqSystemStatus(), SystemStatus.class, Message.MESG_TYPE_SYS_STATUS);
+	}
+
 	public SystemTroubles reqSystemTroubles() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqSystemTroubles());
 		if(msg.getMessageType() != Message.MESG_TYPE_SYS_TROUBLES)
@@ -537,6 +956,10 @@ public class Connection extends Thread {
 		return (SystemTroubles)msg;
 	}
 
+	public CompletableFuture<SystemTroubles> reqSystemTroublesAsync(){
+		return sendAsync(new ReqSystemTroubles(), SystemTroubles.class, Message.MESG_TYPE_SYS_TROUBLES);
+	}
+
 	public SystemFeatures reqSystemFeatures() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqSystemFeatures());
 		if(msg.getMessageType() != Message.MESG_TYPE_SYS_FEATURES)
@@ -544,6 +967,10 @@ public class Connection extends Thread {
 		return (SystemFeatures)msg;
 	}
 
+	public CompletableFuture<SystemFeatures> reqSystemFeaturesAsync(){
+		return sendAsync(new ReqSystemFeatures(), SystemFeatures.class, Message.MESG_TYPE_SYS_FEATURES);
+	}
+
 	public SystemFormats reqSystemFormats() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqSystemFormats());
 		if(msg.getMessageType() != Message.MESG_TYPE_SYS_FORMATS)
@@ -551,6 +978,10 @@ public class Connection extends Thread {
 		return (SystemFormats)msg;
 	}
 
+	public CompletableFuture<SystemFormats> reqSystemFormatsAsync(){
+		return sendAsync(new ReqSystemFormats(), SystemFormats.class, Message.MESG_TYPE_SYS_FORMATS);
+	}
+
 	public ObjectTypeCapacities reqObjectTypeCapacities(int objectType) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqObjectTypeCapacities(objectType));
 		if(msg.getMessageType() != Message.MESG_TYPE_OBJ_CAPACITY)
@@ -558,6 +989,10 @@ public class Connection extends Thread {
 		return (ObjectTypeCapacities)msg;
 	}
 
+	public CompletableFuture<ObjectTypeCapacities> reqObjectTypeCapacitiesAsync(int objectType){
+		return sendAsync(new ReqObjectTypeCapacities(objectType), ObjectTypeCapacities.class, Message.MESG_TYPE_OBJ_CAPACITY);
+	}
+
 	public Message reqObjectProperties(int objectType, int objectNum, int direction,
 			int filter1, int filter2, int filter3) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqObjectProperties(objectType, objectNum, direction,
@@ -568,14 +1003,117 @@ public class Connection extends Thread {
 		return msg;
 	}
 
+	public CompletableFuture<Message> reqObjectPropertiesAsync(int objectType, int objectNum, int direction,
+			int filter1, int filter2, int filter3){
+		return sendAsync(new ReqObjectProperties(objectType, objectNum, direction,
+				filter1, filter2, filter3), Message.class, Message.MESG_TYPE_OBJ_PROP, Message.MESG_TYPE_END_OF_DATA);
+	}
+
 	public ObjectStatus reqObjectStatus(int objectType, int startObject, int endObject) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		return reqObjectStatus(objectType,startObject,endObject,false);
 	}
 	public ExtendedObjectStatus reqExtendedObjectStatus(int objectType, int startObject, int endObject) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		return (ExtendedObjectStatus)reqObjectStatus(objectType,startObject,endObject,true);
 	}
+	public CompletableFuture<ExtendedObjectStatus> reqExtendedObjectStatusAsync(int objectType, int startObject, int endObject){
+		return reqObjectStatusAsync(objectType, startObject, endObject, true).thenApply(
+				new ResponseCheck<ExtendedObjectStatus>(ExtendedObjectStatus.class, Message.MESG_TYPE_EXT_OBJ_STATUS));
+	}
 
 	public ObjectStatus reqObjectStatus(int objectType, int startObject, int endObject, boolean extended) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
+		return objectStatus(objectType, startObject, endObject, extended,
+				sendAndReceive(objectStatusRequests(objectType, startObject, endObject, extended)));
+	}
+
+	public CompletableFuture<ObjectStatus> reqObjectStatusAsync(int objectType, int startObject, int endObject){
+		return reqObjectStatusAsync(objectType, startObject, endObject, false);
+	}
+
+	public CompletableFuture<ObjectStatus> reqObjectStatusAsync(final int objectType, final int startObject, final int endObject, final boolean extended){
+		Message[] reqs = objectStatusRequests(objectType, startObject, endObject, extended);
+		final CompletableFuture<?>[] replies = new CompletableFuture<?>[reqs.length];
+		for(int i=0;i<reqs.length;i++){
+			replies[i] = sendAsync(reqs[i]);
+		}
+		return CompletableFuture.allOf(replies).thenApply(new Function<Void, ObjectStatus>() {
+			public ObjectStatus apply(Void ignored) {
+				Message[] msgs = new Message[replies.length];
+				for(int i=0;i<replies.length;i++){
+					msgs[i] = (Message)replies[i].join();
+				}
+				try {
+					return objectStatus(objectType, startObject, endObject, extended, msgs);
+				} catch (OmniInvalidResponseException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Same requests as reqObjectStatus, but each reply is handed to the
+	 * listener as a view over the receive buffer instead of being decoded,
+	 * the listener is called on the reader thread once for each block of up
+	 * to 25 objects, in the order the replies arrive.
+	 */
+	public void reqObjectStatus(int objectType, int startObject, int endObject, boolean extended, ObjectStatusViewListener listener) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
+		checkBlockingAllowed();
+		OmniRequest[] requests = submitViews(objectType, startObject, endObject, extended, listener);
+		for(int i=0;i<requests.length;i++){
+			//anything other than a status reply is decoded
+			Message msg = requests[i].await();
+			if(msg != null)
+				throw new OmniInvalidResponseException(msg);
+		}
+	}
+
+	public CompletableFuture<Void> reqObjectStatusAsync(int objectType, int startObject, int endObject, boolean extended, ObjectStatusViewListener listener){
+		final OmniRequest[] requests;
+		try {
+			requests = submitViews(objectType, startObject, endObject, extended, listener);
+		} catch (Exception e){
+			CompletableFuture<Void> failed = new CompletableFuture<Void>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		return CompletableFuture.allOf(requests).thenApply(new Function<Void, Void>() {
+			public Void apply(Void ignored) {
+				for(int i=0;i<requests.length;i++){
+					Message msg = requests[i].join();
+					if(msg != null)
+						throw new CompletionException(new OmniInvalidResponseException(msg));
+				}
+				return null;
+			}
+		});
+	}
+
+	private OmniRequest[] submitViews(int objectType, int startObject, int endObject, boolean extended, ObjectStatusViewListener listener) throws IOException, OmniNotConnectedException{
+		Message[] reqs = objectStatusRequests(objectType, startObject, endObject, extended);
+		OmniRequest[] requests = new OmniRequest[reqs.length];
+		for(int i=0;i<reqs.length;i++){
+			requests[i] = submit(reqs[i], listener);
+		}
+		return requests;
+	}
+
+	private Message[] objectStatusRequests(int objectType, int startObject, int endObject, boolean extended){
+		//request 25 at a time, all of the blocks are sent together
+		Message[] reqs = new Message[(endObject - startObject + 25) / 25];
+		for(int i=0;i<reqs.length;i++){
+			int current = startObject + (i * 25);
+			int last = current + 24;
+			if(last > endObject)
+				last = endObject;
+			if(extended)
+				reqs[i] = new ReqExtenedObjectStatus(objectType,current,last);
+			else
+				reqs[i] = new ReqObjectStatus(objectType,current,last);
+		}
+		return reqs;
+	}
+
+	private static ObjectStatus objectStatus(int objectType, int startObject, int endObject, boolean extended, Message[] msgs) throws OmniInvalidResponseException {
 		Status []s = null;
 		switch (objectType) {
 		case Message.OBJ_TYPE_AREA:{
@@ -629,16 +1167,12 @@ public class Connection extends Thread {
 		default:
 			break;
 		}
-		int current = startObject;
-		while(current <= endObject){
-			int last = current + 24; // Request 25 at a time
+		for(int i=0;i<msgs.length;i++){
+			Message msg = msgs[i];
+			int current = startObject + (i * 25);
+			int last = current + 24;
 			if(last > endObject)
 				last = endObject;
-			Message msg = null;
-			if(extended)
-				msg = sendAndReceive(new ReqObjectStatus(objectType,current,last));
-			else
-				msg = sendAndReceive(new ReqExtenedObjectStatus(objectType,current,last));
 
 			int curMsgType = msg.getMessageType();
 			switch (curMsgType) {
@@ -652,7 +1186,12 @@ public class Connection extends Thread {
 			default:
 				throw new OmniInvalidResponseException(msg);
 			}
-			current = last+1;
+		}
+		if(extended){
+			int recordLength = 0;
+			if(msgs.length > 0 && msgs[0] instanceof ExtendedObjectStatus)
+				recordLength = ((ExtendedObjectStatus)msgs[0]).getRecordLength();
+			return new ExtendedObjectStatus(objectType,recordLength,s);
 		}
 		return new ObjectStatus(objectType,s);
 	}
@@ -665,6 +1204,11 @@ public class Connection extends Thread {
 		return msg;
 	}
 
+	public CompletableFuture<Message> reqAudioSourceStatusAsync(int source, int position){
+		return sendAsync(new ReqAudioSourceStatus(source, position), Message.class,
+				Message.MESG_TYPE_AUDIO_SOURCE_STATUS, Message.MESG_TYPE_END_OF_DATA);
+	}
+
 	public ZoneReadyStatus reqZoneReadyStatus() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqZoneReadyStatus());
 		if(msg.getMessageType() != Message.MESG_TYPE_ZONE_READY)
@@ -672,6 +1216,10 @@ public class Connection extends Thread {
 		return (ZoneReadyStatus)msg;
 	}
 
+	public CompletableFuture<ZoneReadyStatus> reqZoneReadyStatusAsync(){
+		return sendAsync(new ReqZoneReadyStatus(), ZoneReadyStatus.class, Message.MESG_TYPE_ZONE_READY);
+	}
+
 	public ConnectedSecurityStatus reqConnectedSecurityStatus() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqConnectedSecurityStatus());
 		if(msg.getMessageType() != Message.MESG_TYPE_CONN_SEC_STATUS)
@@ -679,6 +1227,10 @@ public class Connection extends Thread {
 		return (ConnectedSecurityStatus)msg;
 	}
 
+	public CompletableFuture<ConnectedSecurityStatus> reqConnectedSecurityStatusAsync(){
+		return sendAsync(new ReqConnectedSecurityStatus(), ConnectedSecurityStatus.class, Message.MESG_TYPE_CONN_SEC_STATUS);
+	}
+
 	public Message uploadEventLogData(int number, int direction) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new UploadEventRecord(number,direction));
 		if(msg.getMessageType() != Message.MESG_TYPE_EVENT_LOG_DATA &&
@@ -686,7 +1238,11 @@ public class Connection extends Thread {
 			throw new OmniInvalidResponseException(msg);
 		return msg;
 	}
-	
+
+	public CompletableFuture<Message> uploadEventLogDataAsync(int number, int direction){
+		return sendAsync(new UploadEventRecord(number,direction), Message.class,
+				Message.MESG_TYPE_EVENT_LOG_DATA, Message.MESG_TYPE_END_OF_DATA);
+	}
 
 	@Deprecated
 	public Message uploadNames(int objectType, int objectNumber) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
@@ -708,6 +1264,11 @@ public class Connection extends Thread {
 			throw new OmniInvalidResponseException(msg);
 		return msg;
 	}
+
+	public CompletableFuture<Message> receiveNameAsync(int objectType, int objectNumber){
+		return sendAsync(new UploadNames(objectType,objectNumber), Message.class,
+				Message.MESG_TYPE_NAME_DATA, Message.MESG_TYPE_END_OF_DATA);
+	}
 	
 	@Deprecated
 	public void downloadNames(int objectType, int objectNumber, String name) throws IOException, OmniNotConnectedException , OmniInvalidResponseException, OmniUnknownMessageTypeException {
@@ -727,6 +1288,10 @@ public class Connection extends Thread {
 		if(msg.getMessageType() != Message.MESG_TYPE_ACK)
 			throw new OmniInvalidResponseException(msg);
 	}
+
+	public CompletableFuture<Acknowledge> sendNameAsync(int objectType, int objectNumber, String name){
+		return sendAsync(new DownloadNames(objectType,objectNumber,name), Acknowledge.class, Message.MESG_TYPE_ACK);
+	}
 	
 	public void connectedSecurityCommand(int command, int partition, int digit1,
 			int digit2,int digit3,int digit4,int digit5,int digit6) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
@@ -736,6 +1301,12 @@ public class Connection extends Thread {
 			throw new OmniInvalidResponseException(msg);
 	}
 
+	public CompletableFuture<Acknowledge> connectedSecurityCommandAsync(int command, int partition, int digit1,
+			int digit2,int digit3,int digit4,int digit5,int digit6){
+		return sendAsync(new ConnectedSecurityCommand(command,partition, digit1,
+				digit2,digit3,digit4,digit5,digit6), Acknowledge.class, Message.MESG_TYPE_ACK);
+	}
+
 	public void controllerCommand( CommandMessage cmd) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(cmd);
 		if(msg.getMessageType() != Message.MESG_TYPE_ACK)
@@ -745,6 +1316,13 @@ public class Connection extends Thread {
 		controllerCommand(new CommandMessage(command,p1,p2));
 	}
 
+	public CompletableFuture<Acknowledge> controllerCommandAsync(CommandMessage cmd){
+		return sendAsync(cmd, Acknowledge.class, Message.MESG_TYPE_ACK);
+	}
+	public CompletableFuture<Acknowledge> controllerCommandAsync(int command, int p1, int p2){
+		return controllerCommandAsync(new CommandMessage(command,p1,p2));
+	}
+
 	public void setTimeCommand(int year, int month, int day, int dayOfWeek,
 			int hour, int minute, boolean daylightSavings) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new SetTimeCommand(year, month, day, dayOfWeek,
@@ -753,12 +1331,22 @@ public class Connection extends Thread {
 			throw new OmniInvalidResponseException(msg);
 	}
 
+	public CompletableFuture<Acknowledge> setTimeCommandAsync(int year, int month, int day, int dayOfWeek,
+			int hour, int minute, boolean daylightSavings){
+		return sendAsync(new SetTimeCommand(year, month, day, dayOfWeek,
+				hour, minute, daylightSavings), Acknowledge.class, Message.MESG_TYPE_ACK);
+	}
+
 	public  void activateKeypadEmergency(int area,int emergencyType) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ActivateKeypadEmergency(area,emergencyType));
 		if(msg.getMessageType() != Message.MESG_TYPE_ACK)
 			throw new OmniInvalidResponseException(msg);
 	}
 
+	public CompletableFuture<Acknowledge> activateKeypadEmergencyAsync(int area,int emergencyType){
+		return sendAsync(new ActivateKeypadEmergency(area,emergencyType), Acknowledge.class, Message.MESG_TYPE_ACK);
+	}
+
 	public SecurityCodeValidation reqSecurityCodeValidation(int area, int digit1,
 			int digit2,int digit3,int digit4) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		Message msg = sendAndReceive(new ReqSecurityCodeValidation(area, digit1,
@@ -768,6 +1356,115 @@ public class Connection extends Thread {
 		return (SecurityCodeValidation)msg;
 	}
 
+	public CompletableFuture<SecurityCodeValidation> reqSecurityCodeValidationAsync(int area, int digit1,
+			int digit2,int digit3,int digit4){
+		return sendAsync(new ReqSecurityCodeValidation(area, digit1,
+				digit2,digit3,digit4), SecurityCodeValidation.class, Message.MESG_TYPE_SEC_CODE_VALID);
+	}
+
+	/*
+	 * Non blocking write, whatever the socket will not take now is queued
+	 * and written by the event loop when the channel becomes writable.
+	 * Called holding writeLock.
+	 */
+	private void writeChannel() throws IOException {
+		if(txQueue.isEmpty())
+			channel.write(txBuffers);
+		if(txBody.hasRemaining()){
+			//scratch buffers get reused, keep a copy of what is left
+			ByteBuffer buf = ByteBuffer.allocate(txHeader.remaining() + txBody.remaining());
+			buf.put(txHeader);
+			buf.put(txBody);
+			buf.flip();
+			txQueue.add(buf);
+			//not registered yet, registered() will pick it up
+			if(selectionKey != null)
+				loop.interestOps(selectionKey, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	SocketChannel channel(){
+		return channel;
+	}
+
+	void registered(SelectionKey key){
+		synchronized (writeLock) {
+			selectionKey = key;
+			if(!txQueue.isEmpty())
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/*
+	 * Called by the event loop when the channel is readable
+	 */
+	void channelReadable(){
+		if(!connected)
+			return;
+		try {
+			if(channel.read(rxBuffer) < 0)
+				throw new IOException("Connection closed by controller");
+			rxBuffer.flip();
+			boolean read = true;
+			while(connected && read){
+				try {
+					read = readBytesEncrypted2(rxBuffer);
+					if(read)
+						lastRXMessageTime = System.currentTimeMillis();
+				} catch(OmniUnknownMessageTypeException e){
+					//ignored
+					if(debug){
+						e.printStackTrace();
+						System.out.println("channelReadable: Uknown Messgage type " + e.getUnknowMessageType() + " Continuing");
+					}
+				}
+			}
+			rxBuffer.compact();
+		} catch(Exception e){
+			notify_disconnect(e);
+		}
+	}
+
+	/*
+	 * Called by the event loop when the channel can take more of txQueue
+	 */
+	void channelWritable(){
+		try {
+			synchronized (writeLock) {
+				while(!txQueue.isEmpty()){
+					ByteBuffer buf = txQueue.getFirst();
+					channel.write(buf);
+					if(buf.hasRemaining())
+						return;
+					txQueue.removeFirst();
+				}
+				loop.interestOps(selectionKey, SelectionKey.OP_READ);
+			}
+		} catch(Exception e){
+			notify_disconnect(e);
+		}
+	}
+
+	/*
+	 * Called by the event loop about once a second, does the work of the
+	 * ConnectionWatchdog and the socket read timeout.
+	 */
+	void checkTimeouts(long now){
+		if(!connected)
+			return;
+		if(now >= OMNI_TO + lastRXMessageTime){
+			notify_disconnect(new SocketTimeoutException("Nothing received from controller for " + (OMNI_TO / 1000) + "s"));
+			return;
+		}
+		if(ping && now >= PING_TO + lastTXMessageTime){
+			if(debug){
+				System.out.println("Pinging Server");
+			}
+			//reply, or its absence, is handled by the timeouts above
+			reqSystemStatusAsync();
+		}
+	}
+
 	private static byte[] hexStringToByteArray(String s) {
 		int len = s.length();
 		byte[] data = new byte[len / 2];
@@ -779,8 +1476,12 @@ public class Connection extends Thread {
 	}
 
 	private String bytesToString(byte[] bytes){
+		return bytesToString(bytes, 0, bytes.length);
+	}
+
+	private String bytesToString(byte[] bytes, int offset, int length){
 		StringBuffer buff = new StringBuffer();
-		for(int i=0;i<bytes.length;i++){
+		for(int i=offset;i<offset + length;i++){
 			buff.append("0x");
 			buff.append(Integer.toString( ( bytes[i] & 0xff ) + 0x100, 16).substring( 1 ));
 			buff.append(" ");
@@ -809,6 +1510,60 @@ public class Connection extends Thread {
 		public byte[] data(){return data;}
 	}
 
+	private static class OmniRequest extends CompletableFuture<Message> {
+		private Message message;
+		//replies are passed to this as a view rather than decoded
+		private ObjectStatusViewListener viewListener;
+
+		public OmniRequest(Message message) {
+			this.message = message;
+		}
+
+		public void complete(Message response, Exception error){
+			if(error != null)
+				completeExceptionally(error);
+			else
+				complete(response);
+		}
+
+		public Message await() throws IOException, OmniNotConnectedException, OmniUnknownMessageTypeException {
+			try {
+				return join();
+			} catch (CompletionException e){
+				Throwable error = e.getCause();
+				if(error instanceof OmniNotConnectedException)
+					throw (OmniNotConnectedException)error;
+				if(error instanceof OmniUnknownMessageTypeException)
+					throw (OmniUnknownMessageTypeException)error;
+				if(error instanceof IOException)
+					throw (IOException)error;
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * Async equivalent of the message type checks done by the blocking
+	 * methods, fails the future with OmniInvalidResponseException.
+	 */
+	private static class ResponseCheck<T extends Message> implements Function<Message, T> {
+		private Class<T> responseClass;
+		private int [] responseTypes;
+
+		public ResponseCheck(Class<T> responseClass, int... responseTypes) {
+			this.responseClass = responseClass;
+			this.responseTypes = responseTypes;
+		}
+
+		public T apply(Message msg) {
+			for(int type : responseTypes){
+				if(msg.getMessageType() == type)
+					return responseClass.cast(msg);
+			}
+			throw new CompletionException(new OmniInvalidResponseException(msg));
+		}
+	}
+
 	private void notifyDisconnectHandlers(Exception e){
 		synchronized (disconnectListeners) {	
 			for (DisconnectListener l : disconnectListeners) {
@@ -844,36 +1599,38 @@ public class Connection extends Thread {
 		}
 	}
 	
+	private void dispatchNotification(Message m){
+		//iterates a snapshot, listeners may add or remove listeners
+		for (NotificationListener l : notificationListeners) {
+			if(m instanceof ObjectStatus){
+				l.objectStausNotification((ObjectStatus)m);
+			} else {
+				l.otherEventNotification((OtherEventNotifications)m);
+			}
+		}
+		if(m instanceof ObjectStatus){
+			if(statusPublisher.hasSubscribers())
+				statusPublisher.submit((ObjectStatus)m);
+		} else if(eventPublisher.hasSubscribers()){
+			for (OtherEvent event : ((OtherEventNotifications)m).getNotifications()) {
+				if(event != null)
+					eventPublisher.submit(event);
+			}
+		}
+	}
+
 	private class NotificationHandler extends Thread{
-		@SuppressWarnings("unchecked")
 		public void run(){
-			while(connected){
-				synchronized (notifyLock) {
-					while(notifications.size() == 0 && connected){
-						try { notifyLock.wait(1000);} catch (InterruptedException ignored){}
-					}
-				}
-				if(connected){
-					LinkedList<Message> messages;
-					synchronized (notifications) {
-						messages = (LinkedList<Message>)notifications.clone();
-						notifications.clear();
-					}
-					synchronized (notificationListeners) {
-						for(Message m : messages){
-							for (NotificationListener l : notificationListeners) {
-								if(m instanceof ObjectStatus){
-									l.objectStausNotification((ObjectStatus)m);
-								} else {
-									l.otherEventNotification((OtherEventNotifications)m);
-								}
-							}
-						}
-					}
+			try {
+				Message m;
+				while((m = notifications.take()) != null && connected){
+					dispatchNotification(m);
 				}
+			} catch (InterruptedException ignored){
 			}
 		}
 	}
 
+
 }
 // vim: syntax=java.doxygen ts=4 sw=4 noet
@@ -0,0 +1,229 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.digitaldan.jomnilinkII.MessageTypes.EventLogData;
+import com.digitaldan.jomnilinkII.MessageTypes.UploadEventRecord;
+
+/**
+ * Brings a copy of the controller's event log up to date, fetching only
+ * the events after the last one it was given.
+ * <p>
+ * Events are asked for by number, a window of them at a time, so up to
+ * the connection's pipeline depth of them are on the wire at once.  The
+ * window starts small and doubles while it comes back full, so a sync
+ * with little to fetch asks for little more than that.  The
+ * number after 65535 is 1.  Each window is handed to the
+ * {@link EventLogListener} and only then saved as the {@link Checkpoint},
+ * so after a failure or a reconnect the next {@link #sync(Connection)}
+ * carries on after the last window the listener took.  If the checkpoint
+ * has gone from the controller's log, the log is read again from its
+ * oldest event.
+ * <pre>
+ * EventLogSync sync = new EventLogSync(new EventLogSync.FileCheckpoint(file), listener);
+ * c.setPipelineDepth(8);
+ * sync.sync(c);
+ * </pre>
+ */
+public class EventLogSync {
+
+	public static int DEFAULT_WINDOW = 16;
+
+	public interface EventLogListener {
+		/**
+		 * Called on the syncing thread with events in log order, an
+		 * exception stops the sync without moving the checkpoint.
+		 */
+		public void eventLogRecords(List<EventLogData> records);
+	}
+
+	/**
+	 * Where the number of the last event handed over is kept
+	 */
+	public interface Checkpoint {
+		/**
+		 * @return the event number, 0 if nothing has been synced
+		 */
+		public int load() throws IOException;
+
+		public void save(int eventNumber) throws IOException;
+	}
+
+	/**
+	 * A checkpoint in a file of its own, replaced whole on each save
+	 */
+	public static class FileCheckpoint implements Checkpoint {
+		private File file;
+
+		public FileCheckpoint(File file){
+			this.file = file;
+		}
+
+		public int load() throws IOException {
+			DataInputStream in;
+			try {
+				in = new DataInputStream(new FileInputStream(file));
+			} catch (FileNotFoundException e){
+				return 0;
+			}
+			try {
+				return in.readInt();
+			} finally {
+				in.close();
+			}
+		}
+
+		public void save(int eventNumber) throws IOException {
+			File tmp = new File(file.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+			try {
+				out.writeInt(eventNumber);
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(file)){
+				file.delete();
+				if(!tmp.renameTo(file))
+					throw new IOException("Could not replace " + file);
+			}
+		}
+	}
+
+	private Checkpoint checkpoint;
+	private EventLogListener listener;
+	private int window;
+	private int last;
+	private boolean loaded;
+
+	public EventLogSync(Checkpoint checkpoint, EventLogListener listener){
+		this(checkpoint, listener, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window events asked for at a time, the most a listener is given
+	 */
+	public EventLogSync(Checkpoint checkpoint, EventLogListener listener, int window){
+		if(window < 1)
+			throw new IllegalArgumentException("invalid window (" + window + ")");
+		this.checkpoint = checkpoint;
+		this.listener = listener;
+		this.window = window;
+	}
+
+	/**
+	 * The number of the last event handed to the listener, 0 before any
+	 */
+	public synchronized int getLastEventNumber() throws IOException {
+		load();
+		return last;
+	}
+
+	/**
+	 * The event number after another, the controller's counter goes from
+	 * 65535 back to 1
+	 */
+	public static int nextEventNumber(int eventNumber){
+		return eventNumber >= 65535 ? 1 : eventNumber + 1;
+	}
+
+	/**
+	 * Fetch the events after the checkpoint, blocks until the controller
+	 * has no more.
+	 * @return the number of events handed to the listener
+	 */
+	public synchronized int sync(Connection c) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
+		load();
+		int count = 0;
+		//the first window also checks the checkpoint is still in the log
+		boolean check = last != 0;
+		int size = Math.min(2, window);
+		for(;;){
+			if(last == 0){
+				Message m = c.uploadEventLogData(0, 1);
+				if(m.getMessageType() != Message.MESG_TYPE_EVENT_LOG_DATA)
+					return count;
+				List<EventLogData> oldest = new ArrayList<EventLogData>(1);
+				oldest.add((EventLogData)m);
+				count += handOver(oldest);
+			}
+			int first = check ? 1 : 0;
+			Message[] requests = new Message[first + size];
+			if(check)
+				requests[0] = new UploadEventRecord(last, 0);
+			int number = last;
+			for(int i = first; i < requests.length; i++){
+				number = nextEventNumber(number);
+				requests[i] = new UploadEventRecord(number, 0);
+			}
+			Message[] replies = c.sendAndReceive(requests);
+			if(check){
+				check = false;
+				if(!isEvent(replies[0], last)){
+					//the log has moved past us, start again at its oldest
+					last = 0;
+					continue;
+				}
+			}
+			List<EventLogData> records = new ArrayList<EventLogData>(size);
+			number = last;
+			for(int i = first; i < replies.length; i++){
+				number = nextEventNumber(number);
+				//anything else is the end, or the log changed under us and the next sync picks it up
+				if(!isEvent(replies[i], number))
+					break;
+				records.add((EventLogData)replies[i]);
+			}
+			count += handOver(records);
+			if(records.size() < size)
+				return count;
+			size = Math.min(size * 2, window);
+		}
+	}
+
+	private static boolean isEvent(Message m, int number){
+		return m.getMessageType() == Message.MESG_TYPE_EVENT_LOG_DATA
+				&& ((EventLogData)m).getEventNumber() == number;
+	}
+
+	private int handOver(List<EventLogData> records) throws IOException {
+		if(records.isEmpty())
+			return 0;
+		listener.eventLogRecords(records);
+		last = records.get(records.size() - 1).getEventNumber();
+		checkpoint.save(last);
+		return records.size();
+	}
+
+	private void load() throws IOException {
+		if(!loaded){
+			last = checkpoint.load();
+			loaded = true;
+		}
+	}
+}
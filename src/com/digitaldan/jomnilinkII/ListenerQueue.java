@@ -0,0 +1,228 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue and a thread of its own for one listener, so a slow
+ * listener only holds up itself.  Calls are made in the order they were
+ * queued.  When the queue is full the caller either waits or the oldest
+ * call is dropped.
+ * <p>
+ * A call that takes longer than the slow threshold is counted and passed
+ * to the {@link SlowListenerHandler}, {@link #isSlow()} also reports a call
+ * that is still running past the threshold.
+ */
+public class ListenerQueue {
+
+	public static int DEFAULT_CAPACITY = 1024;
+	public static long DEFAULT_SLOW_MILLIS = 100;
+
+	public interface SlowListenerHandler {
+		/**
+		 * Called on the listener's thread after a slow call
+		 * @param nanos how long the call took
+		 */
+		public void slowListener(ListenerQueue queue, long nanos);
+	}
+
+	private final String name;
+	private final int capacity;
+	private final boolean dropOldest;
+	private final ThreadPoolExecutor executor;
+	private volatile long slowNanos;
+	private volatile SlowListenerHandler slowHandler;
+	private volatile long runningSince;
+	private volatile long lastNanos;
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong slow = new AtomicLong();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+
+	/**
+	 * A queue of the default capacity that drops the oldest call when full,
+	 * so the listener can never hold up the caller.
+	 */
+	public ListenerQueue(String name){
+		this(name, DEFAULT_CAPACITY, true);
+	}
+
+	/**
+	 * @param name used to name the thread
+	 * @param capacity calls that may wait
+	 * @param dropOldest true to drop the oldest call when full, false to
+	 * make the caller wait
+	 */
+	public ListenerQueue(final String name, int capacity, boolean dropOldest){
+		if(capacity < 1)
+			throw new IllegalArgumentException("invalid capacity (" + capacity + ")");
+		this.name = name;
+		this.capacity = capacity;
+		this.dropOldest = dropOldest;
+		this.slowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_MILLIS);
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Listener-" + name);
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+						full(r);
+					}
+				});
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * Queue a call to the listener.
+	 */
+	public void execute(final Runnable call){
+		executor.execute(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				runningSince = start;
+				try {
+					call.run();
+				} catch (RuntimeException e){
+					failed.incrementAndGet();
+				} finally {
+					long nanos = System.nanoTime() - start;
+					runningSince = 0;
+					lastNanos = nanos;
+					delivered.incrementAndGet();
+					if(nanos > slowNanos){
+						slow.incrementAndGet();
+						SlowListenerHandler h = slowHandler;
+						if(h != null)
+							h.slowListener(ListenerQueue.this, nanos);
+					}
+				}
+			}
+		});
+		int depth = executor.getQueue().size();
+		int max;
+		while(depth > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, depth));
+	}
+
+	private void full(Runnable r){
+		if(executor.isShutdown())
+			return;
+		if(dropOldest){
+			if(executor.getQueue().poll() != null)
+				dropped.incrementAndGet();
+			executor.execute(r);
+			return;
+		}
+		try {
+			executor.getQueue().put(r);
+		} catch (InterruptedException e){
+			dropped.incrementAndGet();
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("interrupted waiting for " + name);
+		}
+	}
+
+	/**
+	 * Stop the listener's thread once the current call is done, calls still
+	 * queued are dropped.
+	 */
+	public void shutdown(){
+		executor.shutdown();
+		dropped.addAndGet(executor.getQueue().size());
+		executor.getQueue().clear();
+	}
+
+	/** Calls waiting */
+	public int getDepth(){
+		return executor.getQueue().size();
+	}
+
+	/** Most calls seen waiting at once */
+	public int getMaxDepth(){
+		return maxDepth.get();
+	}
+
+	public long getDelivered(){
+		return delivered.get();
+	}
+
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	/** Calls that threw a runtime exception */
+	public long getFailed(){
+		return failed.get();
+	}
+
+	/** Calls that took longer than the slow threshold */
+	public long getSlowCount(){
+		return slow.get();
+	}
+
+	/** How long the last call took */
+	public long getLastNanos(){
+		return lastNanos;
+	}
+
+	public long getSlowThresholdMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(slowNanos);
+	}
+
+	public void setSlowThresholdMillis(long millis){
+		slowNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	public void setSlowListenerHandler(SlowListenerHandler handler){
+		slowHandler = handler;
+	}
+
+	/**
+	 * True if a call has been running for longer than the slow threshold
+	 */
+	public boolean isSlow(){
+		long since = runningSince;
+		return since != 0 && System.nanoTime() - since > slowNanos;
+	}
+
+	public String toString(){
+		return String.format("ListenerQueue [name=%s, depth=%d, maxDepth=%d, delivered=%d, dropped=%d, slow=%d]",
+				name, getDepth(), getMaxDepth(), getDelivered(), getDropped(), getSlowCount());
+	}
+}
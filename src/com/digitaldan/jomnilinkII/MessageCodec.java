@@ -0,0 +1,45 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham                                         
+*                                                                             
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the data of one message type, the bytes after the
+ * type byte and before the CRC.  Codecs are registered with
+ * {@link MessageFactory#registerCodec(int, MessageCodec)} by message type.
+ * A codec only needs to support the direction its type travels, decode
+ * may return null and encode throw OmniUnknownMessageTypeException for
+ * the other.
+ */
+public interface MessageCodec {
+
+	/**
+	 * @param in buffer positioned at the message data, limited to its end
+	 * @param length number of data bytes
+	 * @return the message, or null if this type can not be decoded
+	 */
+	public Message decode(ByteBuffer in, int length) throws IOException, OmniUnknownMessageTypeException;
+
+	/**
+	 * Writes the message data at the buffer's position
+	 */
+	public void encode(Message msg, ByteBuffer out) throws IOException, OmniUnknownMessageTypeException;
+}
@@ -19,11 +19,12 @@ package com.digitaldan.jomnilinkII;
 */
 
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 //import java.security.AccessController;
 import java.util.HashMap;
 
@@ -44,6 +45,7 @@ import com.digitaldan.jomnilinkII.MessageTypes.ObjectProperties;
 import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.ObjectTypeCapacities;
 import com.digitaldan.jomnilinkII.MessageTypes.OtherEventNotifications;
+import com.digitaldan.jomnilinkII.MessageTypes.RawMessage;
 import com.digitaldan.jomnilinkII.MessageTypes.ReqAudioSourceStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectProperties;
 import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectStatus;
@@ -85,215 +87,655 @@ import com.digitaldan.jomnilinkII.MessageTypes.statuses.ZoneStatus;
 
 public class MessageFactory {
 
+	//indexed by message type and object type
+	private static MessageCodec[] codecs = new MessageCodec[256];
+	private static StatusCodec[] statusCodecs = new StatusCodec[256];
+	private static StatusCodec[] extendedStatusCodecs = new StatusCodec[256];
+	private static PropertiesCodec[] propertiesCodecs = new PropertiesCodec[256];
+	private static volatile boolean validateCrc = false;
+
+	/**
+	 * Turns checking the CRC of received messages on or off, it is off by
+	 * default.  When on fromBytes throws OmniCrcException for a bad frame.
+	 */
+	public static void setValidateCrc(boolean validate){
+		validateCrc = validate;
+	}
+
+	public static boolean isValidateCrc(){
+		return validateCrc;
+	}
+
+	/**
+	 * Adds or replaces the codec for a message type, this is how message
+	 * types the factory does not know about (voice download/upload for
+	 * example) can be supported.
+	 */
+	public static void registerCodec(int messageType, MessageCodec codec){
+		codecs[messageType] = codec;
+	}
+
+	/**
+	 * Adds or replaces the status record codec for an object type
+	 * @param extended true if the codec is only for extended status
+	 * messages, extended messages fall back to the normal codec
+	 */
+	public static void registerStatusCodec(int objectType, boolean extended, StatusCodec codec){
+		if(extended)
+			extendedStatusCodecs[objectType] = codec;
+		else
+			statusCodecs[objectType] = codec;
+	}
+
+	public static void registerPropertiesCodec(int objectType, PropertiesCodec codec){
+		propertiesCodecs[objectType] = codec;
+	}
+
+	/*
+	 * Built in codecs only go one way, requests are encoded and replies
+	 * decoded.
+	 */
+	private static abstract class Decoder implements MessageCodec {
+		public void encode(Message msg, ByteBuffer out) throws OmniUnknownMessageTypeException{
+			throw new OmniUnknownMessageTypeException(msg.getMessageType());
+		}
+	}
+
+	private static abstract class Encoder implements MessageCodec {
+		public Message decode(ByteBuffer in, int length){
+			return null;
+		}
+	}
+
+	static {
+		registerCodec(Message.MESG_TYPE_ACK, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return acknowledge();
+			}
+		});
+		registerCodec(Message.MESG_TYPE_NEG_ACK, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return negativeAcknowledge();
+			}
+		});
+		registerCodec(Message.MESG_TYPE_END_OF_DATA, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return endOfData();
+			}
+		});
+		registerCodec(Message.MESG_TYPE_SYS_INFO, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return systemInformation(in);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_SYS_STATUS, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return systemStatus(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_SYS_TROUBLES, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return systemTroubles(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_SYS_FEATURES, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return systemFeatures(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_SYS_FORMATS, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return systemFormats(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_OBJ_CAPACITY, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return objectTypeCapacities(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_OBJ_PROP, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return objectProperties(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_OBJ_STATUS, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return objectStatus(in, length, false);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_EXT_OBJ_STATUS, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return (ExtendedObjectStatus)objectStatus(in, length, true);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_AUDIO_SOURCE_STATUS, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return audioSourceStatus(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_ZONE_READY, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return zoneReadyStatus(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_CONN_SEC_STATUS, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return connectedSecurityStatus(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_OTHER_EVENT_NOTIFY, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return otherEventNotification(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_EVENT_LOG_DATA, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return eventLogData(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_NAME_DATA, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return nameData(in, length);
+			}
+		});
+		registerCodec(Message.MESG_TYPE_SEC_CODE_VALID, new Decoder(){
+			public Message decode(ByteBuffer in, int length) throws IOException{
+				return securityCodeValidation(in, length);
+			}
+		});
+
+		//requests without any data
+		MessageCodec noData = new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+			}
+		};
+		registerCodec(Message.MESG_TYPE_REQ_SYS_INFO, noData);
+		registerCodec(Message.MESG_TYPE_REQ_SYS_STATUS, noData);
+		registerCodec(Message.MESG_TYPE_REQ_SYS_TROUBLES, noData);
+		registerCodec(Message.MESG_TYPE_REQ_SYS_FEATURES, noData);
+		registerCodec(Message.MESG_TYPE_REQ_SYS_FORMATS, noData);
+		registerCodec(Message.MESG_TYPE_CLEAR_NAMES, noData);
+		registerCodec(Message.MESG_TYPE_CLEAR_VOICES, noData);
+		registerCodec(Message.MESG_TYPE_REQ_ZONE_READY, noData);
+		registerCodec(Message.MESG_TYPE_REQ_CONN_SEC_STATUS, noData);
+		registerCodec(Message.MESG_TYPE_ENABLE_NOTIFICATIONS, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				out.put((byte)(((EnableNotifications)msg).isEnabled() ? 1 : 0));
+			}
+		});
+		registerCodec(Message.MESG_TYPE_REQ_OBJ_CAPACITY, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				ReqObjectTypeCapacities m = (ReqObjectTypeCapacities)msg;
+				out.put((byte)m.objectType());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_REQ_OBJ_PROP, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				ReqObjectProperties m = (ReqObjectProperties)msg;
+				out.put((byte)m.objectType());
+				out.putShort((short)m.objectNum());
+				out.put((byte)m.direction());
+				out.put((byte)m.filter1());
+				out.put((byte)m.filter2());
+				out.put((byte)m.filter3());
+			}
+		});
+		MessageCodec objectStatusRequest = new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				ReqObjectStatus m = (ReqObjectStatus)msg;
+				out.put((byte)m.objectType());
+				out.putShort((short)m.objectStart());
+				out.putShort((short)m.objectEnd());
+			}
+		};
+		registerCodec(Message.MESG_TYPE_REQ_EXT_OBJ_STATUS, objectStatusRequest);
+		registerCodec(Message.MESG_TYPE_REQ_OBJ_STATUS, objectStatusRequest);
+		registerCodec(Message.MESG_TYPE_REQ_AUDIO_SOURCE_STATUS, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				ReqAudioSourceStatus m = (ReqAudioSourceStatus)msg;
+				out.putShort((short)m.source());
+				out.put((byte)m.position());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_COMMAND, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				CommandMessage m = (CommandMessage)msg;
+				out.put((byte)m.getCommand());
+				out.put((byte)m.getParameter1());
+				out.putShort((short)m.getParameter2());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_UPLOAD_EVENT_LOG, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				UploadEventRecord m = (UploadEventRecord)msg;
+				out.putShort((short)m.getEventNumber());
+				out.put((byte)m.getDirection());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_UPLOAD_NAMES, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				UploadNames m = (UploadNames)msg;
+				out.put((byte)m.getObjectType());
+				out.putShort((short)m.getObjectNumber());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_CONN_SEC_COMMAND, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				ConnectedSecurityCommand m = (ConnectedSecurityCommand)msg;
+				out.put((byte)m.getCommand());
+				out.put((byte)m.getPartition());
+				out.put((byte)m.getDigit1());
+				out.put((byte)m.getDigit2());
+				out.put((byte)m.getDigit3());
+				out.put((byte)m.getDigit4());
+				out.put((byte)m.getDigit5());
+				out.put((byte)m.getDigit6());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_SET_TIME, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				SetTimeCommand m = (SetTimeCommand)msg;
+				out.put((byte)m.getYear());
+				out.put((byte)m.getMonth());
+				out.put((byte)m.getDay());
+				out.put((byte)m.getDayOfWeek());
+				out.put((byte)m.getHour());
+				out.put((byte)m.getMinute());
+				out.put((byte)(m.isDaylightSavings() ? 1 : 0));
+			}
+		});
+		registerCodec(Message.MESG_TYPE_ACT_KEYPAD_EMERGENCY, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				ActivateKeypadEmergency m = (ActivateKeypadEmergency)msg;
+				out.put((byte)m.getArea());
+				out.put((byte)m.getEmergencyType());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_REQ_SEC_CODE_VALID, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				ReqSecurityCodeValidation m = (ReqSecurityCodeValidation)msg;
+				out.put((byte)m.getArea());
+				out.put((byte)m.getDigit1());
+				out.put((byte)m.getDigit2());
+				out.put((byte)m.getDigit3());
+				out.put((byte)m.getDigit4());
+			}
+		});
+		registerCodec(Message.MESG_TYPE_DOWNLOAD_NAMES, new Encoder(){
+			public void encode(Message msg, ByteBuffer out){
+				DownloadNames m = (DownloadNames)msg;
+				int t = m.getObjectType();
+				out.put((byte)t);
+				out.putShort((short)m.getObjectNumber());
+				int width;
+				if(t == Message.OBJ_TYPE_ZONE || t == Message.OBJ_TYPE_MESG ||
+						t == Message.OBJ_TYPE_AUX_SENSOR)
+					width = 15;
+				else
+					width = 12;
+				byte[] s = m.getName().getBytes();
+				int cnt = s.length;
+				if(s.length > width)
+					cnt = width;
+				out.put(s, 0, cnt);
+				//null pad to the field width
+				for(int i = cnt; i < width; i++)
+					out.put((byte)0);
+			}
+		});
+
+		registerStatusCodec(Message.OBJ_TYPE_ZONE, false, new StatusCodec(4){
+			public Status[] newArray(int size){
+				return new ZoneStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new ZoneStatus(u16(in),
+						u8(in),u8(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_UNIT, false, new StatusCodec(5){
+			public Status[] newArray(int size){
+				return new UnitStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new UnitStatus(u16(in),
+						u8(in),u16(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_AREA, false, new StatusCodec(6){
+			public Status[] newArray(int size){
+				return new AreaStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new AreaStatus(u16(in),
+						u8(in),u8(in),
+						u8(in),u8(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_THERMO, false, new StatusCodec(9){
+			public Status[] newArray(int size){
+				return new ThermostatStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new ThermostatStatus(u16(in),
+						u8(in),u8(in),
+						u8(in),u8(in),
+						u8(in),bool(in),
+						bool(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_THERMO, true, new StatusCodec(14){
+			public Status[] newArray(int size){
+				return new ExtendedThermostatStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new ExtendedThermostatStatus(u16(in),
+						u8(in),u8(in),
+						u8(in),u8(in),
+						u8(in),bool(in),
+						bool(in),u8(in),
+						u8(in), u8(in),
+						u8(in),u8(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_MESG, false, new StatusCodec(3){
+			public Status[] newArray(int size){
+				return new MessageStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new MessageStatus(u16(in),
+						u8(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_AUX_SENSOR, false, new StatusCodec(6){
+			public Status[] newArray(int size){
+				return new AuxSensorStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new AuxSensorStatus(u16(in),
+						u8(in),u8(in),
+						u8(in),u8(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_AUDIO_ZONE, false, new StatusCodec(6){
+			public Status[] newArray(int size){
+				return new AudioZoneStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new AudioZoneStatus(u16(in),
+						bool(in),u8(in),
+						u8(in),bool(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_EXP, false, new StatusCodec(4){
+			public Status[] newArray(int size){
+				return new ExpansionStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new ExpansionStatus(u16(in),
+						u8(in),u8(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_USER_SETTING, false, new StatusCodec(4){
+			public Status[] newArray(int size){
+				return new UserSettingStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new UserSettingStatus(u16(in),
+						u8(in),u8(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_CONTROL_READER, false, new StatusCodec(5){
+			public Status[] newArray(int size){
+				return new AccessControlReaderStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new AccessControlReaderStatus(u16(in),
+						bool(in),u16(in));
+			}
+		});
+		registerStatusCodec(Message.OBJ_TYPE_CONTROL_LOCK, false, new StatusCodec(5){
+			public Status[] newArray(int size){
+				return new AccessControlReaderLockStatus[size];
+			}
+			public Status decode(ByteBuffer in){
+				return new AccessControlReaderLockStatus(u16(in),
+						bool(in),u16(in));
+			}
+		});
+
+		registerPropertiesCodec(Message.OBJ_TYPE_ZONE, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				int status = u8(in);
+				int loop = u8(in);
+				int type = u8(in);
+				int area = u8(in);
+				int options = u8(in);
+				String name = readName(in, 15);
+				return new ZoneProperties(number,status,loop,type,area,options,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_UNIT, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				int state = u8(in);
+				int time = u16(in);
+				int type = u8(in);
+				String name = readName(in, 12);
+				return new UnitProperties(number,state,time,type,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_BUTTON, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				String name = readName(in, 12);
+				return new ButtonProperties(number,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_CODE, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				String name = readName(in, 15);
+				return new CodeProperties(number,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_AREA, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				int mode = u8(in);
+				int alarms = u8(in);
+				int entryTimer = u8(in);
+				int exitTimer = u8(in);
+				boolean enabled = bool(in);
+				int exitDelay = u8(in);
+				int entryDelay = u8(in);
+				String name = readName(in, 12);
+				return new AreaProperties(number,mode,alarms,entryTimer,exitTimer,enabled,exitDelay,entryDelay,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_THERMO, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				int status = u8(in);
+				int temperature = u8(in);
+				int heatSetpoint = u8(in);
+				int coolSetpoint = u8(in);
+				int mode = u8(in);
+				boolean fan = bool(in);
+				boolean hold = bool(in);
+				int thermostatType = u8(in);
+				String name = readName(in, 12);
+				return new ThermostatProperties(number,status,temperature,heatSetpoint,coolSetpoint,mode,fan,hold,thermostatType,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_MESG, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				String name = readName(in, 15);
+				return new MessageProperties(number,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_AUX_SENSOR, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				int status = u8(in);
+				int current = u8(in);
+				int lowSetpoint = u8(in);
+				int highSetpoint = u8(in);
+				int sensorType = u8(in);
+				String name = readName(in, 15);
+				return new AuxSensorProperties(number,status,current,lowSetpoint,highSetpoint,sensorType,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_AUDIO_SOURCE, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				String name = readName(in, 12);
+				return new AudioSourceProperties(number,name);
+			}
+		});
+		registerPropertiesCodec(Message.OBJ_TYPE_AUDIO_ZONE, new PropertiesCodec(){
+			public ObjectProperties decode(ByteBuffer in, int number){
+				boolean on = bool(in);
+				int source = u8(in);
+				int volume = u8(in);
+				boolean mute = bool(in);
+				String name = readName(in, 12);
+				return new AudioZoneProperties(number,on,source,volume,mute,name);
+			}
+		});
+	}
+
 	public static Message fromBytes(byte [] bytes) throws IOException, OmniUnknownMessageTypeException{
-		ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
-		
-		/*int start = */in.readUnsignedByte();
-		int length = in.readUnsignedByte();
-		int type = in.readUnsignedByte();
-		//System.out.println("Start " + start + " length " + length + " type " + type);
-		
-		int len = length -1;
-		byte [] data = new byte[len];
-		in.readFully(data);
-		
-		//int crc1 = in.readUnsignedByte();
-		//int crc2 = in.readUnsignedByte();
-		
-		bis = new ByteArrayInputStream(data);
-		in = new DataInputStream(bis);
-		
-		switch (type) {
-		case Message.MESG_TYPE_ACK:
-			return acknowledge();
-		case Message.MESG_TYPE_NEG_ACK:
-			return negativeAcknowledge();
-		case Message.MESG_TYPE_END_OF_DATA:
-			return endOfData();
-		case Message.MESG_TYPE_SYS_INFO:
-			return systemInformation(in);
-		case Message.MESG_TYPE_SYS_STATUS:
-			return systemStatus(in, len);
-		case Message.MESG_TYPE_SYS_TROUBLES:
-			return systemTroubles(in, len);
-		case Message.MESG_TYPE_SYS_FEATURES:
-			return systemFeatures(in,len);
-		case Message.MESG_TYPE_SYS_FORMATS:
-			return systemFormats(in, len);
-		case Message.MESG_TYPE_OBJ_CAPACITY:
-			return objectTypeCapacities(in, len);
-		case Message.MESG_TYPE_OBJ_PROP:
-			return objectProperties(in,len);
-		case Message.MESG_TYPE_OBJ_STATUS:
-			return objectStatus(in,len,false);
-		case Message.MESG_TYPE_EXT_OBJ_STATUS:
-			return (ExtendedObjectStatus)objectStatus(in,len,true);
-		case Message.MESG_TYPE_AUDIO_SOURCE_STATUS:
-			return audioSourceStatus(in,len);
-		case Message.MESG_TYPE_ZONE_READY:
-			return zoneReadyStatus(in,len);
-		case Message.MESG_TYPE_OTHER_EVENT_NOTIFY:
-			return otherEventNotification(in,len);
-		case Message.MESG_TYPE_EVENT_LOG_DATA:
-			return eventLogData(in,len);
-		case Message.MESG_TYPE_NAME_DATA:
-			return nameData(in,len);
-		case Message.MESG_TYPE_SEC_CODE_VALID:
-			return securityCodeValidation(in,len);
-		default:
-			throw new OmniUnknownMessageTypeException(type);
+		return fromBytes(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Decodes the message frame starting at the buffer's position, on return
+	 * the position is just past the frame's CRC (or the limit if the CRC
+	 * was not included).  The buffer may be direct or heap and is not copied.
+	 */
+	public static Message fromBytes(ByteBuffer buf) throws IOException, OmniUnknownMessageTypeException{
+		return fromBytes(buf, validateCrc);
+	}
+
+	/*
+	 * For callers that have already checked the CRC
+	 */
+	static Message fromBytes(ByteBuffer buf, boolean validate) throws IOException, OmniUnknownMessageTypeException{
+		ByteBuffer in = buf;
+		if(in.order() != ByteOrder.BIG_ENDIAN)
+			in = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int limit = in.limit();
+		int start = in.position();
+		try {
+			/*int start = */u8(in);
+			int length = u8(in);
+			int type = u8(in);
+			//System.out.println("Start " + start + " length " + length + " type " + type);
+			
+			int len = length -1;
+			int end = in.position() + len;
+			if(end > limit)
+				throw new EOFException("message length " + length + " exceeds buffer");
+			if(validate)
+				checkCrc(in, start);
+			//keep decoders inside the message data
+			in.limit(end);
+			Message m = decode(in, type, len);
+			//skip any data the decoder did not use and the crc
+			in.limit(limit);
+			in.position(Math.min(end + 2, limit));
+			if(in != buf)
+				buf.position(in.position());
+			return m;
+		} catch (BufferUnderflowException e){
+			throw new EOFException("message truncated");
+		} finally {
+			in.limit(limit);
 		}
 	}
+
+	/**
+	 * Checks the CRC of the message frame at the buffer's position if CRC
+	 * validation is on, lets a caller reject a frame before looking at it.
+	 * Does not move the position.
+	 */
+	public static void checkCrc(ByteBuffer frame) throws OmniCrcException{
+		if(validateCrc && frame.remaining() >= 2)
+			checkCrc(frame, frame.position());
+	}
+
+	private static void checkCrc(ByteBuffer in, int start) throws OmniCrcException{
+		int length = in.get(start + 1) & 0xFF;
+		int end = start + 2 + length;
+		//skipped if the crc was not included
+		if(end + 2 > in.limit())
+			return;
+		//crc of length, type and data, LSB then MSB
+		int crc = MessageUtils.crc16(in, start + 1, length + 1);
+		int received = (in.get(end) & 0xFF) | ((in.get(end + 1) & 0xFF) << 8);
+		if(crc != received)
+			throw new OmniCrcException(received, crc);
+	}
+
+	private static Message decode(ByteBuffer in, int type, int len) throws IOException, OmniUnknownMessageTypeException{
+		MessageCodec codec = codecs[type];
+		Message m = null;
+		if(codec != null)
+			m = codec.decode(in, len);
+		if(m == null)
+			throw new OmniUnknownMessageTypeException(type);
+		return m;
+	}
 	
 	public static byte[] toBytes(Message msg) throws IOException, OmniUnknownMessageTypeException{
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		DataOutputStream os = new DataOutputStream(bos);
-		
-		os.writeByte(msg.getMessageType());
-		
-		switch (msg.getMessageType()) {
-		case Message.MESG_TYPE_REQ_SYS_INFO:
-		case Message.MESG_TYPE_REQ_SYS_STATUS:
-		case Message.MESG_TYPE_REQ_SYS_TROUBLES:
-		case Message.MESG_TYPE_REQ_SYS_FEATURES:
-		case Message.MESG_TYPE_REQ_SYS_FORMATS:
-		case Message.MESG_TYPE_CLEAR_NAMES:
-		case Message.MESG_TYPE_CLEAR_VOICES:
-			break;
-		case Message.MESG_TYPE_ENABLE_NOTIFICATIONS:{
-			os.writeBoolean(((EnableNotifications)msg).isEnabled());
-		}
-			break;
-		case Message.MESG_TYPE_REQ_OBJ_CAPACITY:{
-			ReqObjectTypeCapacities m = (ReqObjectTypeCapacities)msg;
-			os.writeByte(m.objectType());
-		}
-			break;
-		case Message.MESG_TYPE_REQ_OBJ_PROP:{
-			ReqObjectProperties m = (ReqObjectProperties)msg;
-			os.writeByte(m.objectType());
-			os.writeShort(m.objectNum());
-			os.writeByte(m.direction());
-			os.writeByte(m.filter1());
-			os.writeByte(m.filter2());
-			os.writeByte(m.filter3());
-		}
-			break;
-		case Message.MESG_TYPE_REQ_EXT_OBJ_STATUS:
-		case Message.MESG_TYPE_REQ_OBJ_STATUS:{
-			ReqObjectStatus m = (ReqObjectStatus)msg;
-			os.writeByte(m.objectType());
-			os.writeShort(m.objectStart());
-			os.writeShort(m.objectEnd());
-		}
-			break;
-		case Message.MESG_TYPE_REQ_AUDIO_SOURCE_STATUS:{
-			ReqAudioSourceStatus m = (ReqAudioSourceStatus)msg;
-			os.writeShort(m.source());
-			os.writeByte(m.position());
-		}
-			break;
-		case Message.MESG_TYPE_REQ_ZONE_READY:
-		case Message.MESG_TYPE_REQ_CONN_SEC_STATUS:
-			break;
-		case Message.MESG_TYPE_COMMAND:{
-			CommandMessage m = (CommandMessage)msg;
-			os.writeByte(m.getCommand());
-			os.writeByte(m.getParameter1());
-			os.writeShort(m.getParameter2());
-		}
-			break;
-		case Message.MESG_TYPE_UPLOAD_EVENT_LOG:{
-			UploadEventRecord m = (UploadEventRecord)msg;
-			os.writeShort(m.getEventNumber());
-			os.writeByte(m.getDirection());
-		}
-			break;
-		case Message.MESG_TYPE_UPLOAD_NAMES:{
-			UploadNames m = (UploadNames)msg;
-			os.writeByte(m.getObjectType());
-			os.writeShort(m.getObjectNumber());
-		}
-			break;
-		case Message.MESG_TYPE_CONN_SEC_COMMAND:{
-			ConnectedSecurityCommand m = (ConnectedSecurityCommand)msg;
-			os.writeByte(m.getCommand());
-			os.writeByte(m.getPartition());
-			os.writeByte(m.getDigit1());
-			os.writeByte(m.getDigit2());
-			os.writeByte(m.getDigit3());
-			os.writeByte(m.getDigit4());
-			os.writeByte(m.getDigit5());
-			os.writeByte(m.getDigit6());
-		}
-			break;
-		case Message.MESG_TYPE_SET_TIME:{
-			SetTimeCommand m = (SetTimeCommand)msg;
-			os.writeByte(m.getYear());
-			os.writeByte(m.getMonth());
-			os.writeByte(m.getDay());
-			os.writeByte(m.getDayOfWeek());
-			os.writeByte(m.getHour());
-			os.writeByte(m.getMinute());
-			os.writeBoolean(m.isDaylightSavings());
-		}
-			break;
-		case Message.MESG_TYPE_ACT_KEYPAD_EMERGENCY:{
-			ActivateKeypadEmergency m = (ActivateKeypadEmergency)msg;
-			os.writeByte(m.getArea());
-			os.writeByte(m.getEmergencyType());
-		}
-			break;
-		case Message.MESG_TYPE_REQ_SEC_CODE_VALID:{
-			ReqSecurityCodeValidation m = (ReqSecurityCodeValidation)msg;
-			os.writeByte(m.getArea());
-			os.writeByte(m.getDigit1());
-			os.writeByte(m.getDigit2());
-			os.writeByte(m.getDigit3());
-			os.writeByte(m.getDigit4());
-		}
-			break;
-		case Message.MESG_TYPE_DOWNLOAD_NAMES:{
-			DownloadNames m = (DownloadNames)msg;
-			int t = m.getObjectType();
-			os.writeByte(t);
-			os.writeShort(m.getObjectNumber());
-			byte[] d;
-			if(t == Message.OBJ_TYPE_ZONE || t == Message.OBJ_TYPE_MESG ||
-					t == Message.OBJ_TYPE_AUX_SENSOR)
-				d = new byte[15];
-			else
-				d = new byte[12];
-			byte[] s = m.getName().getBytes();
-			int cnt = s.length;
-			if(s.length > d.length)
-				cnt = d.length;
-			System.arraycopy(s, 0, d, 0, cnt);
-			os.write(d);
-		}
-			break;
-		default:
-			throw new OmniUnknownMessageTypeException(msg.getMessageType());
-		}
-		byte [] data = bos.toByteArray();
-		bos.reset();
-		
-		os.writeByte(Message.MESG_START);
-		os.writeByte(data.length);
-		os.write(data);
-		
-		//calc crc bytes of data, type and length
-		byte [] crcBytes = new byte[data.length + 1];
-		System.arraycopy(data, 0, crcBytes, 1, data.length);
-		crcBytes[0] = (byte)data.length;
-		int crc = MessageUtils.crc16(crcBytes);
-		
-		//LSB then MSB
-		os.writeByte(( byte )crc);
-		os.writeByte(( byte ) ( crc >> 8 ));
-		
-		return bos.toByteArray();
+		ByteBuffer out = ByteBuffer.allocate(Connection.MAX_PACKET_SIZE + 4);
+		toBytes(msg, out);
+		out.flip();
+		byte [] bytes = new byte[out.remaining()];
+		out.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Encodes a complete message frame, start through CRC, at the buffer's
+	 * position.  The CRC is computed over the buffer in place.  A
+	 * RawMessage is copied as it is.
+	 */
+	public static void toBytes(Message msg, ByteBuffer buf) throws IOException, OmniUnknownMessageTypeException{
+		if(msg instanceof RawMessage){
+			byte[] frame = ((RawMessage)msg).getFrame();
+			if(buf.remaining() < frame.length)
+				throw new IOException("buffer too small for message type " + msg.getMessageType());
+			buf.put(frame);
+			return;
+		}
+		ByteBuffer out = buf;
+		if(out.order() != ByteOrder.BIG_ENDIAN)
+			out = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int start = out.position();
+		try {
+			out.put((byte)Message.MESG_START);
+			//length is filled in once we know it
+			out.put((byte)0);
+			out.put((byte)msg.getMessageType());
+			encode(msg, out);
+			int length = out.position() - start - 2;
+			out.put(start + 1, (byte)length);
+
+			//calc crc bytes of data, type and length
+			int crc = MessageUtils.crc16(out, start + 1, length + 1);
+
+			//LSB then MSB
+			out.put(( byte )crc);
+			out.put(( byte ) ( crc >> 8 ));
+		} catch (BufferOverflowException e){
+			out.position(start);
+			throw new IOException("buffer too small for message type " + msg.getMessageType());
+		}
+		if(out != buf)
+			buf.position(out.position());
+	}
+
+	private static void encode(Message msg, ByteBuffer out) throws IOException, OmniUnknownMessageTypeException{
+		int type = msg.getMessageType();
+		MessageCodec codec = type >= 0 && type < codecs.length ? codecs[type] : null;
+		if(codec == null)
+			throw new OmniUnknownMessageTypeException(type);
+		codec.encode(msg, out);
 	}
 	
 	protected static Acknowledge acknowledge(){
@@ -305,362 +747,203 @@ public class MessageFactory {
 	protected static EndOfData endOfData(){
 		return new EndOfData();
 	}
-	protected static SystemInformation systemInformation(DataInputStream in) throws IOException{
-		int model = in.readUnsignedByte();
-		int major = in.readUnsignedByte();
-		int minor = in.readUnsignedByte();
-		int revision = in.readUnsignedByte();
-		byte[] phoneBytes = new  byte[15];
-		in.readFully(phoneBytes);
-		String phone = readName(phoneBytes);
+	protected static SystemInformation systemInformation(ByteBuffer in) throws IOException{
+		int model = u8(in);
+		int major = u8(in);
+		int minor = u8(in);
+		int revision = u8(in);
+		String phone = readName(in, 15);
 		return new SystemInformation(model,major,minor,revision,phone);
 	}
 	
-	protected static SystemStatus systemStatus(DataInputStream in, int len) throws IOException{
-		boolean timeDateValid = in.readBoolean();
-		int year = in.readUnsignedByte();
-		int month = in.readUnsignedByte();
-		int day = in.readUnsignedByte();
-		int dayOfWeek = in.readUnsignedByte();
-		int hour = in.readUnsignedByte();
-		int minute = in.readUnsignedByte();
-		int second = in.readUnsignedByte();
-		boolean daylightSavings = in.readBoolean();
-		int sunriseHour = in.readUnsignedByte();
-		int sunriseMinute = in.readUnsignedByte();
-		int sunsetHour = in.readUnsignedByte();
-		int sunsetMinute = in.readUnsignedByte();
-		int batteryReading =in.readUnsignedByte();
+	protected static SystemStatus systemStatus(ByteBuffer in, int len) throws IOException{
+		boolean timeDateValid = bool(in);
+		int year = u8(in);
+		int month = u8(in);
+		int day = u8(in);
+		int dayOfWeek = u8(in);
+		int hour = u8(in);
+		int minute = u8(in);
+		int second = u8(in);
+		boolean daylightSavings = bool(in);
+		int sunriseHour = u8(in);
+		int sunriseMinute = u8(in);
+		int sunsetHour = u8(in);
+		int sunsetMinute = u8(in);
+		int batteryReading =u8(in);
 		HashMap<Integer,Integer> alarms = new HashMap<Integer, Integer>();
 		for(int i=16; i < len; i = i + 2){
-			alarms.put(new Integer(in.readUnsignedByte()), new Integer(in.readUnsignedByte()));
+			alarms.put(new Integer(u8(in)), new Integer(u8(in)));
 		}
 		return new SystemStatus(timeDateValid,year,month,day,dayOfWeek,hour,
 				minute,second,daylightSavings,sunriseHour,sunriseMinute,
 				sunsetHour,sunsetMinute,batteryReading,alarms);
 	}
 	
-	protected static SystemTroubles systemTroubles(DataInputStream in, int length) throws IOException{
+	protected static SystemTroubles systemTroubles(ByteBuffer in, int length) throws IOException{
 		int [] troubles = new int[length];
 		for(int i=0;i<length;i++){
-			troubles[i] = in.readUnsignedByte();
+			troubles[i] = u8(in);
 		}
 		return new SystemTroubles(troubles);
 	}
 	
 	
-	protected static SystemFeatures systemFeatures(DataInputStream in, int length) throws IOException{
+	protected static SystemFeatures systemFeatures(ByteBuffer in, int length) throws IOException{
 		int [] features = new int[length];
 		for(int i=0;i<length;i++){
-			features[i] = in.readUnsignedByte();
+			features[i] = u8(in);
 		}
 		return new SystemFeatures(features);
 	}
 	
-	protected static SystemFormats systemFormats(DataInputStream in, int length) throws IOException{
-		int tempFormat = in.readUnsignedByte();
-		int timeformat = in.readUnsignedByte();
-		int dateFormat = in.readUnsignedByte();
+	protected static SystemFormats systemFormats(ByteBuffer in, int length) throws IOException{
+		int tempFormat = u8(in);
+		int timeformat = u8(in);
+		int dateFormat = u8(in);
 		return new SystemFormats(tempFormat,timeformat,dateFormat);
 	}
 	
-	protected static ObjectTypeCapacities objectTypeCapacities(DataInputStream in, int length) throws IOException{
-		int objectType = in.readUnsignedByte();
-		int capacity = in.readUnsignedShort();
+	protected static ObjectTypeCapacities objectTypeCapacities(ByteBuffer in, int length) throws IOException{
+		int objectType = u8(in);
+		int capacity = u16(in);
 		return new ObjectTypeCapacities(objectType,capacity);
 	}
 	
-	protected static ObjectStatus objectStatus(DataInputStream in, int length, boolean extended) throws IOException{
-		int statusType = in.readUnsignedByte();
+	protected static ObjectStatus objectStatus(ByteBuffer in, int length, boolean extended) throws IOException{
+		int statusType = u8(in);
 		
 		int recordLength = 0;
 		if(extended)
-			recordLength = in.readUnsignedByte();
+			recordLength = u8(in);
 		
-		Status[] status;
-		switch (statusType) {
-		case Message.OBJ_TYPE_ZONE:{
-			status = new ZoneStatus[(length -1)/4];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new ZoneStatus(in.readUnsignedShort(),
-						in.readUnsignedByte(),in.readUnsignedByte());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_UNIT:{
-			status = new UnitStatus[(length-1)/5];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new UnitStatus(in.readUnsignedShort(),
-						in.readUnsignedByte(),in.readUnsignedShort());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_AREA:{
-			status = new AreaStatus[(length-1)/6];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new AreaStatus(in.readUnsignedShort(),
-						in.readUnsignedByte(),in.readUnsignedByte(),
-						in.readUnsignedByte(),in.readUnsignedByte());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_THERMO:{
-			if(!extended){
-				status = new ThermostatStatus[(length-1)/9];
-				for(int i=0;i<status.length;i++){
-					status[i] =  new ThermostatStatus(in.readUnsignedShort(),
-							in.readUnsignedByte(),in.readUnsignedByte(),
-							in.readUnsignedByte(),in.readUnsignedByte(),
-							in.readUnsignedByte(),in.readBoolean(),
-							in.readBoolean());
-				}
-			} else {
-				status = new ExtendedThermostatStatus [(length-1)/14];
-				for(int i=0;i<status.length;i++){
-					status[i] =  new ExtendedThermostatStatus(in.readUnsignedShort(),
-							in.readUnsignedByte(),in.readUnsignedByte(),
-							in.readUnsignedByte(),in.readUnsignedByte(),
-							in.readUnsignedByte(),in.readBoolean(),
-							in.readBoolean(),in.readUnsignedByte(),
-							in.readUnsignedByte(), in.readUnsignedByte(),
-							in.readUnsignedByte(),in.readUnsignedByte());
-				}
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_MESG:{
-			status = new MessageStatus[(length-1)/3];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new MessageStatus(in.readUnsignedShort(),
-						in.readUnsignedByte());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_AUX_SENSOR:{
-			status = new AuxSensorStatus[(length-1)/6];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new AuxSensorStatus(in.readUnsignedShort(),
-						in.readUnsignedByte(),in.readUnsignedByte(),
-						in.readUnsignedByte(),in.readUnsignedByte());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_AUDIO_ZONE:{
-			status = new AudioZoneStatus[(length-1)/6];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new AudioZoneStatus(in.readUnsignedShort(),
-						in.readBoolean(),in.readUnsignedByte(),
-						in.readUnsignedByte(),in.readBoolean());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_EXP:{
-			status = new ExpansionStatus[(length -1)/4];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new ExpansionStatus(in.readUnsignedShort(),
-						in.readUnsignedByte(),in.readUnsignedByte());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_USER_SETTING:{
-			status = new UserSettingStatus[(length -1)/4];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new UserSettingStatus(in.readUnsignedShort(),
-						in.readUnsignedByte(),in.readUnsignedByte());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_CONTROL_READER:{
-			status = new AccessControlReaderStatus[(length -1)/5];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new AccessControlReaderStatus(in.readUnsignedShort(),
-						in.readBoolean(),in.readUnsignedShort());
-			}
-		}
-		break;
-		case Message.OBJ_TYPE_CONTROL_LOCK:{
-			status = new AccessControlReaderLockStatus [(length -1)/5];
-			for(int i=0;i<status.length;i++){
-				status[i] =  new AccessControlReaderLockStatus(in.readUnsignedShort(),
-						in.readBoolean(),in.readUnsignedShort());
-			}
-		}
-		break;
-		default:
+		StatusCodec codec = statusCodec(statusType, extended);
+		if(codec == null)
 			throw new IOException("Unknown status type " + statusType);
+		Status[] status = codec.newArray((length-1)/codec.getRecordLength());
+		for(int i=0;i<status.length;i++){
+			status[i] = codec.decode(in);
 		}
 		if(extended)
 			return new ExtendedObjectStatus(statusType,recordLength,status);
 		else
 			return new ObjectStatus(statusType,status);
 	}
+
+	/*
+	 * Extended messages use the extended codec for the type if there is one
+	 */
+	static StatusCodec statusCodec(int objectType, boolean extended){
+		if(extended && extendedStatusCodecs[objectType] != null)
+			return extendedStatusCodecs[objectType];
+		return statusCodecs[objectType];
+	}
 	
-	private static String readName(byte [] nameBytes){
+	/*
+	 * Reads a fixed width, null padded name, the buffer is always advanced
+	 * by the full width.
+	 */
+	private static String readName(ByteBuffer in, int width){
+		int start = in.position();
 		int len=0;
-		while (len < nameBytes.length && nameBytes[len] != 0)
+		while (len < width && in.get(start + len) != 0)
 			++len;
-		return new String(nameBytes,0,len);
-	}
-	protected static ObjectProperties objectProperties(DataInputStream in, int length) throws IOException{
-		int objectType = in.readUnsignedByte();
-		int number = in.readUnsignedShort();
-		byte[] nameShort = new byte[12];
-		byte[] nameLong = new byte[15];
-		switch (objectType) {
-		case Message.OBJ_TYPE_ZONE:{
-			 int status = in.readUnsignedByte();
-			 int loop = in.readUnsignedByte();
-			 int type = in.readUnsignedByte();
-			 int area = in.readUnsignedByte();
-			 int options = in.readUnsignedByte();
-			 in.readFully(nameLong);
-			 String name = readName(nameLong);
-			 return new ZoneProperties(number,status,loop,type,area,options,name);
-		}
-		case Message.OBJ_TYPE_UNIT: {
-			int state = in.readUnsignedByte();
-			int time = in.readUnsignedShort();
-			int type = in.readUnsignedByte();
-			in.readFully(nameShort);
-			String name = readName(nameShort);
-			return new UnitProperties(number,state,time,type,name);
-		}
-		case Message.OBJ_TYPE_BUTTON:{
-			in.readFully(nameShort);
-			String name = readName(nameShort);
-			return new ButtonProperties(number,name);
-		}
-		case Message.OBJ_TYPE_CODE:{
-			in.readFully(nameLong);
-			String name = readName(nameLong);
-			return new CodeProperties(number,name);
-		}
-		case Message.OBJ_TYPE_AREA:{
-			int mode = in.readUnsignedByte();
-			int alarms = in.readUnsignedByte();
-			int entryTimer = in.readUnsignedByte();
-			int exitTimer = in.readUnsignedByte();
-			boolean enabled = in.readBoolean();
-			int exitDelay = in.readUnsignedByte();
-			int entryDelay = in.readUnsignedByte();
-			in.readFully(nameShort);
-			String name = readName(nameShort);
-			return new AreaProperties(number,mode,alarms,entryTimer,exitTimer,enabled,exitDelay,entryDelay,name);
-		}
-		case Message.OBJ_TYPE_THERMO:{
-			int status = in.readUnsignedByte();
-			int temperature = in.readUnsignedByte();
-			int heatSetpoint = in.readUnsignedByte();
-			int coolSetpoint = in.readUnsignedByte();
-			int mode = in.readUnsignedByte();
-			boolean fan = in.readBoolean();
-			boolean hold = in.readBoolean();
-			int thermostatType = in.readUnsignedByte();
-			in.readFully(nameShort);
-			String name = readName(nameShort);
-			return new ThermostatProperties(number,status,temperature,heatSetpoint,coolSetpoint,mode,fan,hold,thermostatType,name);
-		}
-		case Message.OBJ_TYPE_MESG:{
-			in.readFully(nameLong);
-			String name = readName(nameLong);
-			return new MessageProperties(number,name);
-		}	
-		case Message.OBJ_TYPE_AUX_SENSOR:{
-			int status = in.readUnsignedByte();
-			int current = in.readUnsignedByte();
-			int lowSetpoint = in.readUnsignedByte();
-			int highSetpoint = in.readUnsignedByte();
-			int sensorType = in.readUnsignedByte();
-			in.readFully(nameLong);
-			String name = readName(nameLong);
-			return new AuxSensorProperties(number,status,current,lowSetpoint,highSetpoint,sensorType,name);
-		}
-		case Message.OBJ_TYPE_AUDIO_SOURCE:{
-			in.readFully(nameShort);
-			String name = readName(nameShort);
-			return new AudioSourceProperties(number,name);
-		}
-		case Message.OBJ_TYPE_AUDIO_ZONE:{
-			boolean on = in.readBoolean();
-			int source = in.readUnsignedByte();
-			int volume = in.readUnsignedByte();
-			boolean mute = in.readBoolean();
-			in.readFully(nameShort);
-			String name = readName(nameShort);
-			return new AudioZoneProperties(number,on,source,volume,mute,name);
-		}			
-		default:
+		String name;
+		if(in.hasArray()){
+			name = new String(in.array(),in.arrayOffset() + start,len);
+		} else {
+			byte [] nameBytes = new byte[len];
+			in.get(nameBytes);
+			name = new String(nameBytes);
+		}
+		in.position(start + width);
+		return name;
+	}
+
+	private static int u8(ByteBuffer in){
+		return in.get() & 0xFF;
+	}
+
+	private static int u16(ByteBuffer in){
+		return in.getShort() & 0xFFFF;
+	}
+
+	private static boolean bool(ByteBuffer in){
+		return in.get() != 0;
+	}
+	protected static ObjectProperties objectProperties(ByteBuffer in, int length) throws IOException{
+		int objectType = u8(in);
+		int number = u16(in);
+		PropertiesCodec codec = propertiesCodecs[objectType];
+		if(codec == null)
 			throw new IOException("Unknown property type " + objectType);
-		}
+		return codec.decode(in, number);
 	}
 	
-	protected static String readString(DataInputStream in, int length) throws IOException {
-		
-		byte [] data = new byte[length];
-		in.readFully(data);
+	protected static String readString(ByteBuffer in, int length) throws IOException {
 		// Stop at first null
-		return readName(data);
+		return readName(in, length);
 	}
 	
-	protected static AudioSourceStatus audioSourceStatus(DataInputStream in, int length) throws IOException{
+	protected static AudioSourceStatus audioSourceStatus(ByteBuffer in, int length) throws IOException{
 		
-		int srcNumber = in.readUnsignedShort();
-		int seqNumber = in.readUnsignedByte();
-		int pos = in.readUnsignedByte();
-		int fieldId = in.readUnsignedByte();
+		int srcNumber = u16(in);
+		int seqNumber = u8(in);
+		int pos = u8(in);
+		int fieldId = u8(in);
 		
 		String sourceData = readString(in, length-5);
 		return new AudioSourceStatus(srcNumber,seqNumber,pos,fieldId,sourceData);
 	}
 	
-	protected static ZoneReadyStatus zoneReadyStatus(DataInputStream in, int length) throws IOException{
+	protected static ZoneReadyStatus zoneReadyStatus(ByteBuffer in, int length) throws IOException{
 		int[] zones = new int[length];
 		for(int i=0;i<length;i++){
-			zones[i] = in.readUnsignedByte();
+			zones[i] = u8(in);
 		}
 		return new ZoneReadyStatus(zones);
 	}
 	
-	protected static ConnectedSecurityStatus connectedSecurityStatus(DataInputStream in, int length) throws IOException{
+	protected static ConnectedSecurityStatus connectedSecurityStatus(ByteBuffer in, int length) throws IOException{
 		int[]parts = new int[length];
 		for(int i=0;i<length;i++){
-			parts[i] = in.readUnsignedByte();
+			parts[i] = u8(in);
 		}
 		return new ConnectedSecurityStatus(parts);
 	}
 	
-	protected static OtherEventNotifications otherEventNotification(DataInputStream in, int length) throws IOException{
+	protected static OtherEventNotifications otherEventNotification(ByteBuffer in, int length) throws IOException{
 		int[]notifications = new int[length/2];
 		for(int i=0;i<notifications.length;i++){
-			notifications[i] = in.readUnsignedShort();
+			notifications[i] = u16(in);
 		}
 		return new OtherEventNotifications(notifications);
 	}
 	
-	protected static EventLogData eventLogData(DataInputStream in, int length) throws IOException{
-		int eventNumber = in.readUnsignedShort();
-		boolean timeDataValid = in.readBoolean();
-		int month = in.readUnsignedByte();
-		int day = in.readUnsignedByte();
-		int hour = in.readUnsignedByte();
-		int minute = in.readUnsignedByte();
-		int eventType = in.readUnsignedByte();
-		int parameter1 = in.readUnsignedByte();
-		int parameter2 = in.readUnsignedShort();
+	protected static EventLogData eventLogData(ByteBuffer in, int length) throws IOException{
+		int eventNumber = u16(in);
+		boolean timeDataValid = bool(in);
+		int month = u8(in);
+		int day = u8(in);
+		int hour = u8(in);
+		int minute = u8(in);
+		int eventType = u8(in);
+		int parameter1 = u8(in);
+		int parameter2 = u16(in);
 		return new EventLogData(eventNumber,timeDataValid,month,day,hour,minute,eventType,parameter1,parameter2);
 	}
 	
-	protected static NameData nameData(DataInputStream in, int length) throws IOException{
+	protected static NameData nameData(ByteBuffer in, int length) throws IOException{
 		
-		int objectType = in.readUnsignedByte();
-		int objectNumber = in.readUnsignedShort();
+		int objectType = u8(in);
+		int objectNumber = u16(in);
 		String name = readString(in, length-3);
 		return new NameData(objectType,objectNumber, name);
 	}
 	
-	protected static SecurityCodeValidation securityCodeValidation(DataInputStream in, int length) throws IOException{
-		int code = in.readUnsignedByte();
-		int level = in.readUnsignedByte();
+	protected static SecurityCodeValidation securityCodeValidation(ByteBuffer in, int length) throws IOException{
+		int code = u8(in);
+		int level = u8(in);
 		return new SecurityCodeValidation(code,level);
 	}
 }
@@ -44,9 +44,9 @@ This message is sent in response to a REQUEST CONNECTED SECURITY SYSTEM STATUS m
 	public ConnectedSecurityStatus(int[] partsModeStatus) {
 		super();
 		Partition[]parts = new Partition[partsModeStatus.length/2];
-		for(int i=0;i<partsModeStatus.length;i++){
+		for(int i=0;i<parts.length;i++){
 			parts[i] = new ConnectedSecurityStatus.Partition(
-					partsModeStatus[i],partsModeStatus[i++]);
+					partsModeStatus[i*2],partsModeStatus[i*2+1]);
 		}
 		this.partitions = parts;
 	}
@@ -56,7 +56,7 @@ This message is sent in response to a REQUEST CONNECTED SECURITY SYSTEM STATUS m
 	}
 	
 	public int getMessageType() {
-		return MESG_TYPE_SYS_STATUS;
+		return MESG_TYPE_CONN_SEC_STATUS;
 	}
 
 
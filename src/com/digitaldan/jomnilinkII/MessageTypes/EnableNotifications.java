@@ -50,6 +50,7 @@ NOTE notifiations that come back have a SEQ of 00
 	
 	public EnableNotifications(boolean enabled){
 		super();
+		this.enabled = enabled;
 	}
 	
 	public int getMessageType() {
@@ -0,0 +1,44 @@
+package com.digitaldan.jomnilinkII.MessageTypes;
+
+import java.nio.ByteBuffer;
+
+import com.digitaldan.jomnilinkII.Message;
+
+/**
+ * A message kept as its frame, start character through CRC, so it can be
+ * passed on without knowing its type.  A RawMessage sent on a Connection
+ * is written as it is and its reply is returned as a RawMessage too.
+ */
+public class RawMessage implements Message {
+
+	private byte[] frame;
+
+	/**
+	 * @param frame the frame, start character through CRC, not copied
+	 */
+	public RawMessage(byte[] frame) {
+		if(frame.length < 3)
+			throw new IllegalArgumentException("frame too short (" + frame.length + ")");
+		this.frame = frame;
+	}
+
+	/**
+	 * Copies the frame at the buffer's position, the buffer is not moved
+	 */
+	public static RawMessage copyOf(ByteBuffer buf) {
+		int length = buf.get(buf.position() + 1) & 0xFF;
+		//start, length, type and data plus the crc if it is there
+		byte[] frame = new byte[Math.min(length + 4, buf.remaining())];
+		buf.duplicate().get(frame);
+		return new RawMessage(frame);
+	}
+
+	public int getMessageType() {
+		return frame[2] & 0xFF;
+	}
+
+	public byte[] getFrame() {
+		return frame;
+	}
+
+}
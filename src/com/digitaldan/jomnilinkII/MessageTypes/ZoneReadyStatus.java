@@ -71,7 +71,7 @@ zone is not ready.
 	}
 	
 	public int getMessageType() {
-		return MESG_TYPE_SYS_STATUS;
+		return MESG_TYPE_ZONE_READY;
 	}
 
 	public String toString() {
@@ -19,6 +19,7 @@ package com.digitaldan.jomnilinkII;
 * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
 */
 
+import java.nio.ByteBuffer;
 
 public class MessageUtils {
 
@@ -57,14 +58,70 @@ public class MessageUtils {
             0x8201, 0x42C0, 0x4380, 0x8341, 0x4100, 0x81C1, 0x8081, 0x4040,
         };
 
+		//slice by 8 tables, slices[0] is table, slices[k][i] is the crc of i followed by k zero bytes
+		private static int[][] slices = new int[8][];
+		static {
+			slices[0] = table;
+			for(int k = 1; k < 8; k++){
+				slices[k] = new int[256];
+				for(int i = 0; i < 256; i++){
+					int c = slices[k - 1][i];
+					slices[k][i] = (c >>> 8) ^ table[c & 0xff];
+				}
+			}
+		}
+
 		public static int crc16(byte [] bytes){
+			return crc16(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * CRC of len bytes starting at offset, 8 bytes are processed per step
+		 */
+		public static int crc16(byte [] bytes, int offset, int len){
+			int[] t0 = slices[0], t1 = slices[1], t2 = slices[2], t3 = slices[3];
+			int[] t4 = slices[4], t5 = slices[5], t6 = slices[6], t7 = slices[7];
 	        int crc = 0x0000;
-	        for (byte b : bytes) {
-	            crc = (crc >>> 8) ^ table[(crc ^ b) & 0xff];
+	        int i = offset;
+	        int end = offset + len;
+	        for (; i + 8 <= end; i += 8) {
+	        	crc ^= (bytes[i] & 0xff) | ((bytes[i + 1] & 0xff) << 8);
+	        	crc = t7[crc & 0xff] ^ t6[crc >>> 8] ^
+	        			t5[bytes[i + 2] & 0xff] ^ t4[bytes[i + 3] & 0xff] ^
+	        			t3[bytes[i + 4] & 0xff] ^ t2[bytes[i + 5] & 0xff] ^
+	        			t1[bytes[i + 6] & 0xff] ^ t0[bytes[i + 7] & 0xff];
+	        }
+	        for (; i < end; i++) {
+	            crc = (crc >>> 8) ^ t0[(crc ^ bytes[i]) & 0xff];
 	        }
 	
 	        return crc;
 		}	
+
+		/**
+		 * CRC of len bytes starting at offset, does not move the buffer's position
+		 */
+		public static int crc16(ByteBuffer buf, int offset, int len){
+			if(buf.hasArray())
+				return crc16(buf.array(), buf.arrayOffset() + offset, len);
+			int[] t0 = slices[0], t1 = slices[1], t2 = slices[2], t3 = slices[3];
+			int[] t4 = slices[4], t5 = slices[5], t6 = slices[6], t7 = slices[7];
+	        int crc = 0x0000;
+	        int i = offset;
+	        int end = offset + len;
+	        for (; i + 8 <= end; i += 8) {
+	        	crc ^= (buf.get(i) & 0xff) | ((buf.get(i + 1) & 0xff) << 8);
+	        	crc = t7[crc & 0xff] ^ t6[crc >>> 8] ^
+	        			t5[buf.get(i + 2) & 0xff] ^ t4[buf.get(i + 3) & 0xff] ^
+	        			t3[buf.get(i + 4) & 0xff] ^ t2[buf.get(i + 5) & 0xff] ^
+	        			t1[buf.get(i + 6) & 0xff] ^ t0[buf.get(i + 7) & 0xff];
+	        }
+	        for (; i < end; i++) {
+	            crc = (crc >>> 8) ^ t0[(crc ^ buf.get(i)) & 0xff];
+	        }
+	
+	        return crc;
+		}
 	
 		public static String getBits( int value ){
 	        int displayMask = 1 << 31;
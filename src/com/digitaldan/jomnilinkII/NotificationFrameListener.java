@@ -0,0 +1,35 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives notification messages undecoded, for passing them on.
+ * Called on the thread reading from the controller, the frame is only
+ * valid for the duration of the call and must not block.
+ */
+public interface NotificationFrameListener {
+
+	/**
+	 * @param frame positioned at the start character, the limit is past
+	 * the CRC rounded up to the cipher block
+	 */
+	public void notificationFrame(ByteBuffer frame);
+}
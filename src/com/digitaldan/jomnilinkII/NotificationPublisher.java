@@ -0,0 +1,228 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} for notifications that never makes the thread
+ * submitting them wait and uses no threads of its own.
+ * <p>
+ * Items are handed to a subscriber on the submitting thread while it has
+ * demand.  Without demand they wait in a bounded buffer per subscriber,
+ * the oldest being dropped when it is full, and are handed over by the
+ * subscriber's next {@link Flow.Subscription#request(long)}.  A subscriber
+ * whose onNext throws is cancelled.
+ */
+public class NotificationPublisher<T> implements Flow.Publisher<T> {
+
+	public static int DEFAULT_BUFFER_SIZE = 1024;
+
+	private final int bufferSize;
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean closed;
+	private volatile Throwable closedError;
+
+	public NotificationPublisher(){
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize items kept per subscriber that has no demand
+	 */
+	public NotificationPublisher(int bufferSize){
+		if(bufferSize < 1)
+			throw new IllegalArgumentException("invalid buffer size (" + bufferSize + ")");
+		this.bufferSize = bufferSize;
+	}
+
+	public void subscribe(Flow.Subscriber<? super T> subscriber){
+		if(subscriber == null)
+			throw new NullPointerException("subscriber");
+		Subscription s = new Subscription(subscriber);
+		for (Subscription other : subscriptions) {
+			if(other.subscriber == subscriber){
+				subscriber.onSubscribe(s);
+				s.cancel();
+				subscriber.onError(new IllegalStateException("already subscribed"));
+				return;
+			}
+		}
+		//onSubscribe comes before any onNext, so it is only listed after
+		subscriber.onSubscribe(s);
+		subscriptions.add(s);
+		if(s.cancelled)
+			subscriptions.remove(s);
+		else if(closed)
+			s.close(closedError);
+	}
+
+	/**
+	 * Hand an item to every subscriber.
+	 */
+	public void submit(T item){
+		if(item == null)
+			throw new NullPointerException("item");
+		if(closed)
+			return;
+		for (Subscription s : subscriptions) {
+			s.offer(item);
+		}
+	}
+
+	/**
+	 * Subscribers get onComplete once they have taken what is buffered for
+	 * them, later subscribers get it straight away.
+	 */
+	public void close(){
+		closeExceptionally(null);
+	}
+
+	/**
+	 * Like {@link #close()} but subscribers get onError instead.
+	 * @param error the error, or null to complete
+	 */
+	public void closeExceptionally(Throwable error){
+		if(closed)
+			return;
+		closedError = error;
+		closed = true;
+		for (Subscription s : subscriptions) {
+			s.close(error);
+		}
+	}
+
+	public boolean isClosed(){
+		return closed;
+	}
+
+	public boolean hasSubscribers(){
+		return !subscriptions.isEmpty();
+	}
+
+	public int getNumberOfSubscribers(){
+		return subscriptions.size();
+	}
+
+	/** Items thrown away for all subscribers because their buffer was full */
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	private class Subscription implements Flow.Subscription {
+		final Flow.Subscriber<? super T> subscriber;
+		//guarded by itself
+		final ArrayDeque<T> buffer = new ArrayDeque<T>();
+		final AtomicLong requested = new AtomicLong();
+		//only one thread delivers at a time, the others leave work for it
+		final AtomicInteger wip = new AtomicInteger();
+		volatile boolean cancelled;
+		volatile boolean done;
+		volatile Throwable error;
+
+		Subscription(Flow.Subscriber<? super T> subscriber){
+			this.subscriber = subscriber;
+		}
+
+		void offer(T item){
+			synchronized (buffer) {
+				if(buffer.size() == bufferSize){
+					buffer.poll();
+					dropped.incrementAndGet();
+				}
+				buffer.add(item);
+			}
+			drain();
+		}
+
+		void close(Throwable error){
+			this.error = error;
+			done = true;
+			drain();
+		}
+
+		public void request(long n){
+			if(cancelled)
+				return;
+			if(n <= 0){
+				cancel();
+				subscriber.onError(new IllegalArgumentException("non-positive request (" + n + ")"));
+				return;
+			}
+			long r, u;
+			do {
+				r = requested.get();
+				u = r + n;
+				if(u < 0)
+					u = Long.MAX_VALUE;
+			} while(!requested.compareAndSet(r, u));
+			drain();
+		}
+
+		public void cancel(){
+			cancelled = true;
+			subscriptions.remove(this);
+			synchronized (buffer) {
+				buffer.clear();
+			}
+		}
+
+		private void drain(){
+			if(wip.getAndIncrement() != 0)
+				return;
+			int missed = 1;
+			do {
+				while(!cancelled && requested.get() > 0){
+					T item;
+					synchronized (buffer) {
+						item = buffer.poll();
+					}
+					if(item == null)
+						break;
+					if(requested.get() != Long.MAX_VALUE)
+						requested.decrementAndGet();
+					try {
+						subscriber.onNext(item);
+					} catch (RuntimeException e){
+						cancel();
+					}
+				}
+				if(!cancelled && done){
+					boolean empty;
+					synchronized (buffer) {
+						empty = buffer.isEmpty();
+					}
+					if(empty){
+						cancel();
+						if(error != null)
+							subscriber.onError(error);
+						else
+							subscriber.onComplete();
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while(missed != 0);
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.statuses.Status;
+
+/**
+ * Bounded hand off of notifications from the reader thread to the thread
+ * that dispatches them.  There is one producer and one consumer, the ring
+ * is lock free and the consumer sleeps until the producer wakes it.
+ * <p>
+ * What happens when the ring is full is up to the {@link OverflowPolicy}.
+ * With COALESCE the overflow is kept per object, only the latest status of
+ * each object is delivered (once the ring has drained) and other events are
+ * kept up to the ring capacity, so memory stays bounded by the number of
+ * objects the controller has.
+ */
+public class NotificationQueue {
+
+	public enum OverflowPolicy {
+		/** The reader waits for room, nothing is lost but replies wait too,
+		 * so listeners must not make requests */
+		BLOCK,
+		/** The oldest notification is thrown away */
+		DROP_OLDEST,
+		/** Statuses for the same object are merged while the ring is full */
+		COALESCE
+	}
+
+	private final AtomicReferenceArray<Message> ring;
+	private final int capacity;
+	private final int mask;
+	//next slot to take, moved by the consumer and by DROP_OLDEST
+	private final AtomicLong head = new AtomicLong();
+	//next slot to fill, only written by the producer
+	private volatile long tail;
+	private volatile OverflowPolicy policy;
+	private volatile boolean closed;
+	//set while the thread is parked
+	private volatile Thread consumer;
+	private volatile Thread producer;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	//COALESCE overflow, keyed by status type << 16 | object number
+	private final Object overflowLock = new Object();
+	private volatile boolean overflowPending;
+	private final LinkedHashMap<Integer, Status> overflowStatus = new LinkedHashMap<Integer, Status>();
+	private final Map<Integer, Class<? extends Status[]>> overflowTypes = new HashMap<Integer, Class<? extends Status[]>>();
+	private final LinkedList<Message> overflowEvents = new LinkedList<Message>();
+	//consumer only, overflow taken but not yet handed out
+	private final LinkedList<Message> drained = new LinkedList<Message>();
+
+	/**
+	 * @param capacity ring size, rounded up to a power of two
+	 * @param policy what to do when the ring is full
+	 */
+	public NotificationQueue(int capacity, OverflowPolicy policy){
+		if(capacity < 1 || capacity > (1 << 20))
+			throw new IllegalArgumentException("invalid capacity (" + capacity + ")");
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity)
+			size <<= 1;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.ring = new AtomicReferenceArray<Message>(size);
+		setOverflowPolicy(policy);
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	public OverflowPolicy getOverflowPolicy(){
+		return policy;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy policy){
+		if(policy == null)
+			throw new NullPointerException("policy");
+		this.policy = policy;
+		wakeProducer();
+	}
+
+	/**
+	 * Notifications thrown away, by DROP_OLDEST or by COALESCE once its
+	 * event overflow is full.
+	 */
+	public long getDropped(){
+		return dropped.get();
+	}
+
+	/**
+	 * Statuses replaced by a newer status for the same object.
+	 */
+	public long getCoalesced(){
+		return coalesced.get();
+	}
+
+	/**
+	 * Notifications waiting, not counting coalesced overflow.
+	 */
+	public int size(){
+		return (int)(tail - head.get());
+	}
+
+	/**
+	 * Called by the producer.  Under BLOCK this waits until there is room
+	 * or the queue is closed.
+	 */
+	public void offer(Message m){
+		if(overflowPending && coalesce(m, false))
+			return;
+		while(!closed){
+			long t = tail;
+			long h = head.get();
+			if(t - h < capacity){
+				ring.set((int)t & mask, m);
+				tail = t + 1;
+				wakeConsumer();
+				return;
+			}
+			switch(policy){
+			case DROP_OLDEST:
+				if(head.compareAndSet(h, h + 1))
+					dropped.incrementAndGet();
+				break;
+			case COALESCE:
+				coalesce(m, true);
+				return;
+			default:
+				producer = Thread.currentThread();
+				if(tail - head.get() >= capacity && policy == OverflowPolicy.BLOCK && !closed)
+					LockSupport.park(this);
+				producer = null;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Called by the consumer.
+	 * @return the next notification or null if there is none
+	 */
+	public Message poll(){
+		for(;;){
+			long h = head.get();
+			if(h == tail)
+				return null;
+			int slot = (int)h & mask;
+			Message m = ring.get(slot);
+			//fails if DROP_OLDEST moved past this slot while we read it
+			if(head.compareAndSet(h, h + 1)){
+				ring.compareAndSet(slot, m, null);
+				wakeProducer();
+				return m;
+			}
+		}
+	}
+
+	/**
+	 * Called by the consumer, waits for a notification.
+	 * @return the next notification, or null once the queue is closed
+	 */
+	public Message take() throws InterruptedException {
+		for(;;){
+			Message m = drained.poll();
+			if(m != null)
+				return m;
+			m = poll();
+			if(m != null)
+				return m;
+			//only once the ring is empty, anything in it is older
+			if(overflowPending){
+				drainOverflow();
+				continue;
+			}
+			if(closed)
+				return null;
+			consumer = Thread.currentThread();
+			if(head.get() == tail && !overflowPending && !closed)
+				LockSupport.park(this);
+			consumer = null;
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Wakes both sides, take returns null once the queue is empty.
+	 */
+	public void close(){
+		closed = true;
+		wakeConsumer();
+		wakeProducer();
+	}
+
+	private void wakeConsumer(){
+		Thread t = consumer;
+		if(t != null)
+			LockSupport.unpark(t);
+	}
+
+	private void wakeProducer(){
+		Thread t = producer;
+		if(t != null)
+			LockSupport.unpark(t);
+	}
+
+	/*
+	 * While overflow is pending everything goes to the overflow, so it is
+	 * always newer than what is left in the ring.
+	 */
+	private boolean coalesce(Message m, boolean full){
+		synchronized (overflowLock) {
+			if(!full && !overflowPending)
+				return false;
+			if(m.getClass() == ObjectStatus.class){
+				ObjectStatus s = (ObjectStatus)m;
+				int type = s.getStatusType();
+				if(!overflowTypes.containsKey(type))
+					overflowTypes.put(type, s.getStatuses().getClass());
+				for(Status status : s.getStatuses()){
+					if(overflowStatus.put((type << 16) | status.getNumber(), status) != null)
+						coalesced.incrementAndGet();
+				}
+			} else {
+				overflowEvents.add(m);
+				if(overflowEvents.size() > capacity){
+					overflowEvents.removeFirst();
+					dropped.incrementAndGet();
+				}
+			}
+			overflowPending = true;
+		}
+		wakeConsumer();
+		return true;
+	}
+
+	private void drainOverflow(){
+		synchronized (overflowLock) {
+			drained.addAll(overflowEvents);
+			overflowEvents.clear();
+			Map<Integer, List<Status>> byType = new LinkedHashMap<Integer, List<Status>>();
+			for(Map.Entry<Integer, Status> e : overflowStatus.entrySet()){
+				int type = e.getKey() >>> 16;
+				List<Status> list = byType.get(type);
+				if(list == null){
+					list = new ArrayList<Status>();
+					byType.put(type, list);
+				}
+				list.add(e.getValue());
+			}
+			for(Map.Entry<Integer, List<Status>> e : byType.entrySet()){
+				Object[] records = e.getValue().toArray();
+				drained.add(new ObjectStatus(e.getKey(),
+						Arrays.copyOf(records, records.length, overflowTypes.get(e.getKey()))));
+			}
+			overflowStatus.clear();
+			overflowTypes.clear();
+			overflowPending = false;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham                                         
+*                                                                             
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.digitaldan.jomnilinkII.MessageTypes.statuses.Status;
+
+/**
+ * Reads the records of an object status or extended object status message
+ * straight out of the frame buffer without creating a Status per record.
+ * A view is reusable, wrap a new frame and walk it with the cursor:
+ * <pre>
+ * view.wrap(frame);
+ * while(view.next()){
+ *   int zone = view.getNumber();
+ *   int status = view.getStatus();
+ *   ...
+ * }
+ * </pre>
+ * Field offsets are counted from the start of a record, the object number
+ * takes offsets 0 and 1.  The view does not copy the buffer, so it is only
+ * valid until the buffer is reused.
+ */
+public class ObjectStatusView {
+
+	private ByteBuffer buf;
+	private int statusType;
+	private boolean extended;
+	private int first;
+	private int recordLength;
+	private int size;
+	private int index;
+	private int record;
+
+	/**
+	 * @param frame buffer positioned at a message frame (the start byte),
+	 * the buffer's position is not changed
+	 * @return this view with the cursor before the first record
+	 */
+	public ObjectStatusView wrap(ByteBuffer frame) throws IOException {
+		int start = frame.position();
+		if(frame.remaining() < 4)
+			throw new IOException("message truncated");
+		int length = frame.get(start + 1) & 0xFF;
+		int type = frame.get(start + 2) & 0xFF;
+		if(type != Message.MESG_TYPE_OBJ_STATUS && type != Message.MESG_TYPE_EXT_OBJ_STATUS)
+			throw new IOException("Not an object status message " + type);
+		if(frame.remaining() < length + 2)
+			throw new IOException("message truncated");
+		buf = frame;
+		extended = type == Message.MESG_TYPE_EXT_OBJ_STATUS;
+		statusType = frame.get(start + 3) & 0xFF;
+		if(extended){
+			recordLength = frame.get(start + 4) & 0xFF;
+			first = start + 5;
+			size = recordLength == 0 ? 0 : (length - 2) / recordLength;
+		} else {
+			StatusCodec codec = MessageFactory.statusCodec(statusType, false);
+			if(codec == null)
+				throw new IOException("Unknown status type " + statusType);
+			recordLength = codec.getRecordLength();
+			first = start + 4;
+			size = (length - 1) / recordLength;
+		}
+		index = -1;
+		record = first - recordLength;
+		return this;
+	}
+
+	public int getStatusType(){
+		return statusType;
+	}
+
+	public boolean isExtended(){
+		return extended;
+	}
+
+	public int getRecordLength(){
+		return recordLength;
+	}
+
+	/**
+	 * @return number of records
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Moves the cursor to the next record
+	 * @return false if there are no more records
+	 */
+	public boolean next(){
+		if(index + 1 >= size)
+			return false;
+		index++;
+		record += recordLength;
+		return true;
+	}
+
+	/**
+	 * Moves the cursor to a record
+	 */
+	public void moveTo(int index){
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("record " + index + " of " + size);
+		this.index = index;
+		record = first + (index * recordLength);
+	}
+
+	public int index(){
+		return index;
+	}
+
+	public int getNumber(){
+		return getShort(0);
+	}
+
+	/**
+	 * The first field after the number, the status for zones, units,
+	 * thermostats, messages, aux sensors and expansions, the mode for areas
+	 */
+	public int getStatus(){
+		return getByte(2);
+	}
+
+	/**
+	 * Zone loop reading
+	 */
+	public int getLoop(){
+		return getByte(3);
+	}
+
+	/**
+	 * Unit time remaining
+	 */
+	public int getTime(){
+		return getShort(3);
+	}
+
+	/**
+	 * Thermostat or aux sensor temperature
+	 */
+	public int getTemperature(){
+		return getByte(3);
+	}
+
+	public int getByte(int offset){
+		return buf.get(record + offset) & 0xFF;
+	}
+
+	public int getShort(int offset){
+		return ((buf.get(record + offset) & 0xFF) << 8) | (buf.get(record + offset + 1) & 0xFF);
+	}
+
+	public boolean getBoolean(int offset){
+		return buf.get(record + offset) != 0;
+	}
+
+	/**
+	 * Creates the Status object for the current record, the same one
+	 * ObjectStatus.getStatuses() would hold
+	 */
+	public Status toStatus() throws IOException {
+		StatusCodec codec = MessageFactory.statusCodec(statusType, extended);
+		if(codec == null)
+			throw new IOException("Unknown status type " + statusType);
+		ByteBuffer in = buf.duplicate();
+		in.position(record);
+		return codec.decode(in);
+	}
+}
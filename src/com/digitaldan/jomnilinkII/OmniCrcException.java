@@ -0,0 +1,31 @@
+package com.digitaldan.jomnilinkII;
+
+import java.io.IOException;
+
+/**
+ * Thrown when CRC validation is on and a received message fails it
+ */
+public class OmniCrcException extends IOException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 6148225306119424081L;
+
+	private int expected;
+	private int actual;
+
+	public OmniCrcException(int expected, int actual) {
+		super("CRC mismatch, expected 0x" + Integer.toHexString(expected) + " got 0x" + Integer.toHexString(actual));
+		this.expected = expected;
+		this.actual = actual;
+	}
+
+	public int getExpectedCrc(){
+		return expected;
+	}
+
+	public int getActualCrc(){
+		return actual;
+	}
+}
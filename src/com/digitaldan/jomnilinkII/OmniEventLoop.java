@@ -0,0 +1,184 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham                                         
+*                                                                             
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A single thread that services any number of connections with a NIO
+ * selector, instead of the reader, notification and watchdog threads
+ * each Connection starts on its own.  Notifications are handed to
+ * listeners on one shared dispatch thread so a slow listener does not
+ * stop the loop from reading.
+ * <pre>
+ * OmniEventLoop loop = new OmniEventLoop();
+ * Connection c1 = new Connection(host1, port, key1, loop);
+ * Connection c2 = new Connection(host2, port, key2, loop);
+ * ...
+ * loop.shutdown();
+ * </pre>
+ * Blocking request methods may not be called from a listener running on
+ * the loop thread (disconnect listeners are), use the async methods there.
+ */
+public class OmniEventLoop extends Thread {
+
+	//how often connections are checked for ping and read timeouts
+	private static final long TICK = 1000;
+
+	private Selector selector;
+	private volatile boolean running;
+	private LinkedList<Runnable> tasks;
+	private ExecutorService dispatcher;
+
+	public OmniEventLoop() throws IOException {
+		selector = Selector.open();
+		tasks = new LinkedList<Runnable>();
+		dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "OmniNotificationThread");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		running = true;
+		setName("OmniEventLoop");
+		setDaemon(true);
+		start();
+	}
+
+	/**
+	 * Stops the loop and disconnects every connection it serves
+	 */
+	public void shutdown(){
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * @return true if the calling thread is this loop
+	 */
+	public boolean inEventLoop(){
+		return Thread.currentThread() == this;
+	}
+
+	/**
+	 * Runs a notification callback on the shared dispatch thread
+	 */
+	void execute(Runnable r){
+		dispatcher.execute(r);
+	}
+
+	void register(final Connection c) throws IOException {
+		if(!running)
+			throw new IOException("Event loop has been shut down");
+		runInLoop(new Runnable() {
+			public void run() {
+				try {
+					c.registered(c.channel().register(selector, SelectionKey.OP_READ, c));
+				} catch (ClosedChannelException e) {
+					c.disconnect();
+				}
+			}
+		});
+	}
+
+	/*
+	 * Interest ops may only be changed safely from the loop thread on
+	 * some platforms, so changes from other threads are queued.
+	 */
+	void interestOps(final SelectionKey key, final int ops){
+		if(inEventLoop()){
+			if(key.isValid())
+				key.interestOps(ops);
+			return;
+		}
+		runInLoop(new Runnable() {
+			public void run() {
+				if(key.isValid())
+					key.interestOps(ops);
+			}
+		});
+	}
+
+	private void runInLoop(Runnable r){
+		synchronized (tasks) {
+			tasks.add(r);
+		}
+		selector.wakeup();
+	}
+
+	private void runTasks(){
+		while(true){
+			Runnable r;
+			synchronized (tasks) {
+				if(tasks.isEmpty())
+					return;
+				r = tasks.removeFirst();
+			}
+			r.run();
+		}
+	}
+
+	public void run(){
+		long lastTick = System.currentTimeMillis();
+		try {
+			while(running){
+				runTasks();
+				selector.select(TICK);
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()){
+					SelectionKey key = it.next();
+					it.remove();
+					Connection c = (Connection)key.attachment();
+					if(key.isValid() && key.isWritable())
+						c.channelWritable();
+					if(key.isValid() && key.isReadable())
+						c.channelReadable();
+				}
+				long now = System.currentTimeMillis();
+				if(now - lastTick >= TICK){
+					lastTick = now;
+					for(SelectionKey key : selector.keys()){
+						if(key.isValid())
+							((Connection)key.attachment()).checkTimeouts(now);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			running = false;
+			for(SelectionKey key : selector.keys()){
+				((Connection)key.attachment()).disconnect();
+			}
+			try {
+				selector.close();
+			} catch (IOException ignored) {}
+			dispatcher.shutdown();
+		}
+	}
+}
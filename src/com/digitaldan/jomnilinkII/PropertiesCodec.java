@@ -0,0 +1,37 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham                                         
+*                                                                             
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.digitaldan.jomnilinkII.MessageTypes.ObjectProperties;
+
+/**
+ * Decodes the properties of one object type, registered with
+ * {@link MessageFactory#registerPropertiesCodec(int, PropertiesCodec)}.
+ */
+public interface PropertiesCodec {
+
+	/**
+	 * @param in buffer positioned just after the object number
+	 * @param number object number
+	 */
+	public ObjectProperties decode(ByteBuffer in, int number) throws IOException;
+}
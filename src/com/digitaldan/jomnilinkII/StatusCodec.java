@@ -0,0 +1,54 @@
+package com.digitaldan.jomnilinkII;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham                                         
+*                                                                             
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.digitaldan.jomnilinkII.MessageTypes.statuses.Status;
+
+/**
+ * Decodes the fixed length status records of one object type in an
+ * object status or extended object status message.  Registered with
+ * {@link MessageFactory#registerStatusCodec(int, boolean, StatusCodec)}.
+ */
+public abstract class StatusCodec {
+
+	private int recordLength;
+
+	/**
+	 * @param recordLength bytes per record, used to work out how many
+	 * records are in a message
+	 */
+	protected StatusCodec(int recordLength){
+		this.recordLength = recordLength;
+	}
+
+	public int getRecordLength(){
+		return recordLength;
+	}
+
+	/**
+	 * @return an array of the concrete status class, callers cast
+	 * ObjectStatus.getStatuses() to it
+	 */
+	public abstract Status[] newArray(int size);
+
+	public abstract Status decode(ByteBuffer in) throws IOException;
+}
@@ -0,0 +1,424 @@
+package com.digitaldan.jomnilinkII.server;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitaldan.jomnilinkII.Connection;
+import com.digitaldan.jomnilinkII.DisconnectListener;
+import com.digitaldan.jomnilinkII.Message;
+import com.digitaldan.jomnilinkII.NotificationFrameListener;
+import com.digitaldan.jomnilinkII.ObjectStatusView;
+import com.digitaldan.jomnilinkII.MessageTypes.RawMessage;
+
+/**
+ * Lets many clients share one session with a controller.  Clients log in
+ * to the proxy as they would to the controller, with the same key, and
+ * the proxy answers system information, capacity, property, name and
+ * status requests from what it has already been told, passing on to the
+ * controller only commands, other requests and what it has not seen yet.
+ * <pre>
+ * Connection c = new Connection(host, 4369, key);
+ * c.setPipelineDepth(8);
+ * OmniProxy proxy = new OmniProxy(null, 4369, key, c);
+ * </pre>
+ * The controller's notifications keep the status records up to date and
+ * are passed on to every client that has enabled notifications.  Commands
+ * throw away the cached statuses and properties, name changes the cached
+ * names and properties.  When the controller connection is lost the
+ * proxy shuts down.
+ */
+public class OmniProxy extends OmniServer implements NotificationFrameListener, DisconnectListener {
+
+	private Connection upstream;
+	//replies that only change when the controller is set up again, keyed by request
+	private ConcurrentHashMap<ByteBuffer, byte[]> fixed;
+	//guards the caches below and version
+	private Object cacheLock = new Object();
+	private HashMap<ByteBuffer, byte[]> names;
+	private HashMap<ByteBuffer, byte[]> properties;
+	//requests whose properties reply is for an object, by object type << 16 | number
+	private HashMap<Integer, List<ByteBuffer>> propertiesByObject;
+	//records keyed by extended << 24 | object type << 16 | number
+	private HashMap<Integer, byte[]> statuses;
+	private int[] extendedLength;
+	//moved on by everything that can make a reply in flight stale
+	private long version;
+	//only used by the upstream reader
+	private ObjectStatusView notificationView = new ObjectStatusView();
+	private AtomicLong hits;
+	private AtomicLong forwarded;
+
+	/**
+	 * Starts listening, enables notifications on the upstream connection
+	 * and takes them over for its clients
+	 * @param address address to listen on, null for all of them
+	 * @param port port to listen on, 0 picks a free one
+	 * @param key key the clients log in with, in the same form Connection takes
+	 * @param upstream connection to the controller
+	 */
+	public OmniProxy(InetAddress address, int port, String key, Connection upstream) throws Exception {
+		super("OmniProxy", address, port, key);
+		this.upstream = upstream;
+		this.fixed = new ConcurrentHashMap<ByteBuffer, byte[]>();
+		this.names = new HashMap<ByteBuffer, byte[]>();
+		this.properties = new HashMap<ByteBuffer, byte[]>();
+		this.propertiesByObject = new HashMap<Integer, List<ByteBuffer>>();
+		this.statuses = new HashMap<Integer, byte[]>();
+		this.extendedLength = new int[256];
+		this.hits = new AtomicLong();
+		this.forwarded = new AtomicLong();
+		upstream.addNotificationFrameListener(this);
+		upstream.addDisconnectListener(this);
+		try {
+			upstream.enableNotifications();
+		} catch (Exception e){
+			upstream.removeDisconnecListener(this);
+			shutdown();
+			throw e;
+		}
+		start();
+	}
+
+	public Connection getUpstream(){
+		return upstream;
+	}
+
+	/**
+	 * Requests answered by the proxy
+	 */
+	public long getHitCount(){
+		return hits.get();
+	}
+
+	/**
+	 * Requests passed on to the controller
+	 */
+	public long getForwardedCount(){
+		return forwarded.get();
+	}
+
+	/**
+	 * Throws away everything cached
+	 */
+	public void clearCache(){
+		fixed.clear();
+		synchronized (cacheLock) {
+			version++;
+			names.clear();
+			properties.clear();
+			propertiesByObject.clear();
+			statuses.clear();
+		}
+	}
+
+	protected void reply(ByteBuffer request, ByteBuffer reply) throws Exception {
+		int start = request.position();
+		int length = request.get(start + 1) & 0xFF;
+		int messageType = request.get(start + 2) & 0xFF;
+		switch(messageType){
+		case Message.MESG_TYPE_ENABLE_NOTIFICATIONS:
+			//the server keeps track of who wants them, upstream always has them on
+			end(reply, begin(reply, Message.MESG_TYPE_ACK));
+			hits.incrementAndGet();
+			return;
+		case Message.MESG_TYPE_REQ_SYS_INFO:
+		case Message.MESG_TYPE_REQ_SYS_FEATURES:
+		case Message.MESG_TYPE_REQ_SYS_FORMATS:
+		case Message.MESG_TYPE_REQ_OBJ_CAPACITY: {
+			ByteBuffer key = key(request, length);
+			byte[] cached = fixed.get(key);
+			if(cached == null){
+				cached = forward(request);
+				//a NAK or other error is passed on but not kept
+				if(replyType(cached) == fixedReplyType(messageType))
+					fixed.put(key, cached);
+			} else {
+				hits.incrementAndGet();
+			}
+			reply.put(cached);
+			return;
+		}
+		case Message.MESG_TYPE_UPLOAD_NAMES:
+			reply.put(cachedReply(names, request, length, Message.MESG_TYPE_NAME_DATA, false));
+			return;
+		case Message.MESG_TYPE_REQ_OBJ_PROP:
+			reply.put(cachedReply(properties, request, length, Message.MESG_TYPE_OBJ_PROP, true));
+			return;
+		case Message.MESG_TYPE_REQ_OBJ_STATUS:
+		case Message.MESG_TYPE_REQ_EXT_OBJ_STATUS:
+			status(request, reply, messageType == Message.MESG_TYPE_REQ_EXT_OBJ_STATUS);
+			return;
+		case Message.MESG_TYPE_COMMAND:
+		case Message.MESG_TYPE_ACT_KEYPAD_EMERGENCY:
+		case Message.MESG_TYPE_CONN_SEC_COMMAND: {
+			byte[] frame = forward(request);
+			synchronized (cacheLock) {
+				version++;
+				statuses.clear();
+				properties.clear();
+				propertiesByObject.clear();
+			}
+			reply.put(frame);
+			return;
+		}
+		case Message.MESG_TYPE_CLEAR_NAMES:
+		case Message.MESG_TYPE_DOWNLOAD_NAMES: {
+			byte[] frame = forward(request);
+			synchronized (cacheLock) {
+				version++;
+				names.clear();
+				properties.clear();
+				propertiesByObject.clear();
+			}
+			reply.put(frame);
+			return;
+		}
+		default:
+			reply.put(forward(request));
+		}
+	}
+
+	/*
+	 * Type and data of a request, as a cache key
+	 */
+	private static ByteBuffer key(ByteBuffer request, int length){
+		byte[] key = new byte[length];
+		for(int i = 0; i < length; i++)
+			key[i] = request.get(request.position() + 2 + i);
+		return ByteBuffer.wrap(key);
+	}
+
+	private static int replyType(byte[] frame){
+		return frame[2] & 0xFF;
+	}
+
+	/*
+	 * The reply kept for a request in the fixed cache
+	 */
+	private static int fixedReplyType(int requestType){
+		switch(requestType){
+		case Message.MESG_TYPE_REQ_SYS_INFO:
+			return Message.MESG_TYPE_SYS_INFO;
+		case Message.MESG_TYPE_REQ_SYS_FEATURES:
+			return Message.MESG_TYPE_SYS_FEATURES;
+		case Message.MESG_TYPE_REQ_SYS_FORMATS:
+			return Message.MESG_TYPE_SYS_FORMATS;
+		case Message.MESG_TYPE_REQ_OBJ_CAPACITY:
+			return Message.MESG_TYPE_OBJ_CAPACITY;
+		default:
+			return -1;
+		}
+	}
+
+	private byte[] forward(ByteBuffer request) throws Exception {
+		byte[] frame = new byte[request.remaining()];
+		request.duplicate().get(frame);
+		forwarded.incrementAndGet();
+		Message m = upstream.sendAndReceive(new RawMessage(frame));
+		return ((RawMessage)m).getFrame();
+	}
+
+	/*
+	 * A reply from a cache that notifications or writes clear, one that
+	 * may have gone stale while it was being fetched is not kept, nor is
+	 * anything other than the expected type or end of data
+	 */
+	private byte[] cachedReply(HashMap<ByteBuffer, byte[]> cache, ByteBuffer request, int length, int expected, boolean byObject) throws Exception {
+		ByteBuffer key = key(request, length);
+		long v;
+		synchronized (cacheLock) {
+			byte[] cached = cache.get(key);
+			if(cached != null){
+				hits.incrementAndGet();
+				return cached;
+			}
+			v = version;
+		}
+		byte[] frame = forward(request);
+		int type = replyType(frame);
+		if(type != expected && type != Message.MESG_TYPE_END_OF_DATA)
+			return frame;
+		synchronized (cacheLock) {
+			if(version == v){
+				cache.put(key, frame);
+				if(byObject && type == Message.MESG_TYPE_OBJ_PROP){
+					int object = ((frame[3] & 0xFF) << 16) | ((frame[4] & 0xFF) << 8) | (frame[5] & 0xFF);
+					List<ByteBuffer> keys = propertiesByObject.get(object);
+					if(keys == null){
+						keys = new ArrayList<ByteBuffer>(2);
+						propertiesByObject.put(object, keys);
+					}
+					keys.add(key);
+				}
+			}
+		}
+		return frame;
+	}
+
+	/*
+	 * Answers from the status records if all of the range is there
+	 */
+	private void status(ByteBuffer request, ByteBuffer reply, boolean extended) throws Exception {
+		int start = request.position();
+		int objectType = request.get(start + 3) & 0xFF;
+		int first = request.getShort(start + 4) & 0xFFFF;
+		int last = request.getShort(start + 6) & 0xFFFF;
+		int prefix = (extended ? 1 << 24 : 0) | (objectType << 16);
+		long v;
+		synchronized (cacheLock) {
+			if(first > 0 && last >= first && cached(prefix, first, last, reply, extended)){
+				hits.incrementAndGet();
+				return;
+			}
+			v = version;
+		}
+		byte[] frame = forward(request);
+		int type = frame[2] & 0xFF;
+		if(type == Message.MESG_TYPE_OBJ_STATUS || type == Message.MESG_TYPE_EXT_OBJ_STATUS){
+			ObjectStatusView view = new ObjectStatusView().wrap(ByteBuffer.wrap(frame));
+			synchronized (cacheLock) {
+				if(version == v)
+					putRecords(view, false);
+			}
+		}
+		reply.put(frame);
+	}
+
+	/*
+	 * Writes the reply for a range if every record is cached, called
+	 * holding cacheLock
+	 */
+	private boolean cached(int prefix, int first, int last, ByteBuffer out, boolean extended){
+		int objectType = (prefix >> 16) & 0xFF;
+		int recordLength = 0;
+		for(int n = first; n <= last; n++){
+			byte[] record = statuses.get(prefix | n);
+			if(record == null)
+				return false;
+			recordLength = record.length;
+		}
+		//type, object type and record length must fit with the records
+		if(3 + (last - first + 1) * recordLength > Connection.MAX_PACKET_SIZE - 4)
+			return false;
+		int start = begin(out, extended ? Message.MESG_TYPE_EXT_OBJ_STATUS : Message.MESG_TYPE_OBJ_STATUS);
+		out.put((byte)objectType);
+		if(extended)
+			out.put((byte)extendedLength[objectType]);
+		for(int n = first; n <= last; n++)
+			out.put(statuses.get(prefix | n));
+		end(out, start);
+		return true;
+	}
+
+	/*
+	 * Keeps the records of a status message and drops what they make
+	 * stale, a notification also makes the objects' properties stale as
+	 * they hold the status too.  Called holding cacheLock.
+	 */
+	private void putRecords(ObjectStatusView view, boolean notification){
+		int objectType = view.getStatusType();
+		int prefix = objectType << 16;
+		if(view.isExtended())
+			extendedLength[objectType] = view.getRecordLength();
+		while(view.next()){
+			int number = view.getNumber();
+			byte[] record = new byte[view.getRecordLength()];
+			for(int i = 0; i < record.length; i++)
+				record[i] = (byte)view.getByte(i);
+			if(notification){
+				List<ByteBuffer> keys = propertiesByObject.remove(prefix | number);
+				if(keys != null)
+					for(Iterator<ByteBuffer> it = keys.iterator(); it.hasNext();)
+						properties.remove(it.next());
+			}
+			int extended = view.isExtended() ? 1 << 24 : 0;
+			statuses.put(extended | prefix | number, record);
+			//a change makes the other form of the record stale
+			if(notification)
+				statuses.remove(((1 << 24) ^ extended) | prefix | number);
+		}
+	}
+
+	public void notificationFrame(ByteBuffer frame){
+		int start = frame.position();
+		int length = frame.get(start + 1) & 0xFF;
+		int type = frame.get(start + 2) & 0xFF;
+		if(type == Message.MESG_TYPE_OBJ_STATUS || type == Message.MESG_TYPE_EXT_OBJ_STATUS){
+			try {
+				ObjectStatusView view = notificationView.wrap(frame);
+				synchronized (cacheLock) {
+					version++;
+					putRecords(view, true);
+				}
+			} catch (IOException e){
+				//an unknown status type, passed on all the same
+				synchronized (cacheLock) {
+					version++;
+				}
+			}
+		}
+		frame.limit(Math.min(frame.limit(), start + length + 4));
+		broadcast(frame);
+	}
+
+	public void notConnectedEvent(Exception e){
+		shutdown();
+	}
+
+	/**
+	 * Stops accepting clients and disconnects the ones connected, the
+	 * upstream connection is left to its owner
+	 */
+	public void shutdown(){
+		upstream.removeNotificationFrameListener(this);
+		super.shutdown();
+	}
+
+	/**
+	 * Runs a proxy until the controller connection is lost.
+	 * <pre>
+	 * java com.digitaldan.jomnilinkII.server.OmniProxy host port key [listen port]
+	 * </pre>
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 3){
+			System.out.println("Usage:com.digitaldan.jomnilinkII.server.OmniProxy host port key [listen port]");
+			System.exit(-1);
+		}
+		Connection c = new Connection(args[0], Integer.parseInt(args[1]), args[2]);
+		c.setPipelineDepth(8);
+		int port = args.length > 3 ? Integer.parseInt(args[3]) : Integer.parseInt(args[1]);
+		OmniProxy proxy = new OmniProxy(null, port, args[2], c);
+		System.out.println("Proxy for " + args[0] + " listening on port " + proxy.getPort());
+		while(proxy.isRunning()){
+			Thread.sleep(10000);
+			System.out.println(proxy.getSessionCount() + " clients, " + proxy.getRequestCount() + " requests, "
+					+ proxy.getHitCount() + " answered, " + proxy.getForwardedCount() + " forwarded");
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package com.digitaldan.jomnilinkII.server;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitaldan.jomnilinkII.Aes;
+import com.digitaldan.jomnilinkII.Connection;
+import com.digitaldan.jomnilinkII.Message;
+import com.digitaldan.jomnilinkII.MessageUtils;
+
+/**
+ * The controller side of the Omni-Link II protocol.  Each client gets its
+ * own session thread doing the new session / secure connection handshake
+ * and then passing every message to {@link #reply(ByteBuffer, ByteBuffer)}
+ * and sending back what it writes.  A client that sends enable
+ * notifications is sent whatever is given to {@link #broadcast(ByteBuffer)}.
+ * <p>
+ * Subclasses start the thread once they are constructed.  Notifications
+ * are queued for each client and written by a thread of its own, so
+ * broadcasting never waits on a client socket.  A client that falls
+ * {@link #NOTIFICATION_QUEUE_SIZE} notifications behind is disconnected,
+ * and it catches up by reading the state again once it reconnects, unless
+ * the subclass has chosen to wait for it with {@link #setWaitForClients(boolean)}.
+ */
+public abstract class OmniServer extends Thread {
+
+	private static final int PACKET_TYPE_CLIENT_REQUEST_NEW_SESSION = 1;
+	private static final int PACKET_TYPE_CONTROLLER_ACKNOWLEDGE_NEW_SESSION = 2;
+	private static final int PACKET_TYPE_CLIENT_REQUEST_SECURE_CONNECTION = 3;
+	private static final int PACKET_TYPE_CONTROLLER_ACKNOWLEDGE_SECURE_CONNECTION = 4;
+	private static final int PACKET_TYPE_CLIENT_SESSION_TERMINATED = 5;
+	private static final int PACKET_TYPE_OMNI_LINK_MESSAGE = 32;
+
+	//plain text frame, padded to whole blocks
+	protected static final int FRAME_SIZE = ((Connection.MAX_PACKET_SIZE + 4 + 15) / 16) * 16;
+
+	public static boolean debug = false;
+	// Notifications a client may have waiting to be written before it is dropped
+	public static int NOTIFICATION_QUEUE_SIZE = 1024;
+
+	private ServerSocket server;
+	private byte[] key;
+	private Vector<Session> sessions;
+	private volatile boolean running;
+	private volatile boolean waitForClients;
+	private Random random;
+	private AtomicLong requests;
+	private AtomicLong notifications;
+
+	/**
+	 * Starts listening, the thread is not started
+	 * @param name thread name, the sessions are named after it
+	 * @param address address to listen on, null for all of them
+	 * @param port port to listen on, 0 picks a free one
+	 * @param key controller key in the same form Connection takes
+	 */
+	protected OmniServer(String name, InetAddress address, int port, String key) throws IOException {
+		this.server = new ServerSocket(port, 50, address);
+		this.key = hexStringToByteArray(key.replaceAll("\\W", ""));
+		this.sessions = new Vector<Session>();
+		this.random = new Random();
+		this.requests = new AtomicLong();
+		this.notifications = new AtomicLong();
+		running = true;
+		setName(name);
+		setDaemon(true);
+	}
+
+	/**
+	 * Writes the reply to a message as a complete frame, start character
+	 * through CRC.  Called on the client's session thread, an exception
+	 * disconnects the client.
+	 * @param request the message frame, positioned at the start character
+	 * with the limit just past the CRC
+	 * @param reply where to write the reply
+	 */
+	protected abstract void reply(ByteBuffer request, ByteBuffer reply) throws Exception;
+
+	public int getPort(){
+		return server.getLocalPort();
+	}
+
+	public int getSessionCount(){
+		return sessions.size();
+	}
+
+	/**
+	 * Messages answered since the server started
+	 */
+	public long getRequestCount(){
+		return requests.get();
+	}
+
+	/**
+	 * Notification messages written since the server started, one per
+	 * client per broadcast written to it
+	 */
+	public long getNotificationCount(){
+		return notifications.get();
+	}
+
+	protected boolean isRunning(){
+		return running;
+	}
+
+	/**
+	 * Have broadcast wait for room in a client's queue instead of
+	 * disconnecting it, for servers that would rather be slowed down by
+	 * their clients
+	 */
+	protected void setWaitForClients(boolean wait){
+		waitForClients = wait;
+	}
+
+	/**
+	 * Queues a notification frame for every client that has enabled
+	 * notifications, without waiting for any of them unless
+	 * {@link #setWaitForClients(boolean)} says to
+	 * @param frame start character through CRC, not moved
+	 */
+	protected void broadcast(ByteBuffer frame){
+		Session[] current;
+		synchronized (sessions) {
+			current = sessions.toArray(new Session[sessions.size()]);
+		}
+		byte[] copy = null;
+		for(Session s : current){
+			if(!s.notify)
+				continue;
+			//one copy shared by every client, the writers only read it
+			if(copy == null){
+				copy = new byte[frame.remaining()];
+				frame.duplicate().get(copy);
+			}
+			if(s.outbound.offer(copy))
+				continue;
+			if(waitForClients){
+				try {
+					s.outbound.put(copy);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			} else {
+				if(debug)
+					System.out.println(s.getName() + " fell behind on notifications, disconnecting");
+				s.close();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting clients and disconnects the ones connected
+	 */
+	public void shutdown(){
+		running = false;
+		try {
+			server.close();
+		} catch (IOException e) {
+		}
+		Session[] current;
+		synchronized (sessions) {
+			current = sessions.toArray(new Session[sessions.size()]);
+		}
+		for(Session s : current)
+			s.close();
+	}
+
+	public void run(){
+		while(running){
+			try {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				Session s = new Session(socket);
+				sessions.add(s);
+				s.start();
+			} catch (IOException e) {
+				if(running && debug)
+					e.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * Starts a reply frame, returns where it starts
+	 */
+	protected static int begin(ByteBuffer out, int type){
+		int start = out.position();
+		out.put((byte)Message.MESG_START);
+		//length is filled in by end
+		out.put((byte)0);
+		out.put((byte)type);
+		return start;
+	}
+
+	/*
+	 * Fills in the length and appends the CRC
+	 */
+	protected static void end(ByteBuffer out, int start){
+		int length = out.position() - start - 2;
+		out.put(start + 1, (byte)length);
+		int crc = MessageUtils.crc16(out, start + 1, length + 1);
+		out.put((byte)crc);
+		out.put((byte)(crc >> 8));
+	}
+
+	/**
+	 * One client connection
+	 */
+	private class Session extends Thread {
+		private Socket socket;
+		private DataInputStream in;
+		private OutputStream out;
+		private Aes aes;
+		private volatile boolean notify;
+		private ArrayBlockingQueue<byte[]> outbound = new ArrayBlockingQueue<byte[]>(NOTIFICATION_QUEUE_SIZE);
+		private volatile Thread writer;
+		private byte[] rxFrame = new byte[4 + FRAME_SIZE];
+		private ByteBuffer rxView = ByteBuffer.wrap(rxFrame);
+		//replies are built here, notifications are built by the thread that sends them
+		private ByteBuffer reply = ByteBuffer.allocate(FRAME_SIZE);
+		private byte[] txFrame = new byte[4 + FRAME_SIZE];
+
+		Session(Socket socket) throws IOException {
+			super(OmniServer.this.getName() + "Session");
+			setDaemon(true);
+			this.socket = socket;
+			in = new DataInputStream(socket.getInputStream());
+			out = socket.getOutputStream();
+		}
+
+		public void run(){
+			try {
+				handshake();
+				writer = new Thread(getName() + "Writer"){
+					public void run(){
+						writeNotifications();
+					}
+				};
+				writer.setDaemon(true);
+				writer.start();
+				while(running){
+					in.readFully(rxFrame, 0, 4 + 16);
+					int seq = ((rxFrame[0] & 0xFF) << 8) | (rxFrame[1] & 0xFF);
+					int type = rxFrame[2] & 0xFF;
+					if(type == PACKET_TYPE_CLIENT_SESSION_TERMINATED)
+						break;
+					if(type != PACKET_TYPE_OMNI_LINK_MESSAGE)
+						throw new IOException("Unexpected packet type " + type);
+					decrypt(seq, 4, 16);
+					//start character, length, then type and data plus the crc
+					int length = rxFrame[4 + 1] & 0xFF;
+					int blocks = ((length + 4) + 15) / 16;
+					if(blocks > 1){
+						in.readFully(rxFrame, 4 + 16, (blocks - 1) * 16);
+						decrypt(seq, 4 + 16, (blocks - 1) * 16);
+					}
+					int messageType = rxFrame[4 + 2] & 0xFF;
+					if(messageType == Message.MESG_TYPE_ENABLE_NOTIFICATIONS)
+						notify = rxFrame[4 + 3] != 0;
+					rxView.limit(4 + length + 4);
+					rxView.position(4);
+
+					reply.clear();
+					OmniServer.this.reply(rxView, reply);
+					reply.flip();
+					requests.incrementAndGet();
+					send(seq, PACKET_TYPE_OMNI_LINK_MESSAGE, reply);
+				}
+			} catch (Exception e) {
+				if(running && debug)
+					e.printStackTrace();
+			}
+			close();
+		}
+
+		/*
+		 * Writes queued notifications until the session closes
+		 */
+		private void writeNotifications(){
+			try {
+				for(;;){
+					byte[] frame = outbound.take();
+					send(0, PACKET_TYPE_OMNI_LINK_MESSAGE, ByteBuffer.wrap(frame));
+					notifications.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+			} catch (IOException e) {
+				if(running && debug)
+					e.printStackTrace();
+			}
+			close();
+		}
+
+		private void handshake() throws IOException {
+			in.readFully(rxFrame, 0, 4);
+			if((rxFrame[2] & 0xFF) != PACKET_TYPE_CLIENT_REQUEST_NEW_SESSION)
+				throw new IOException("Expected new session request");
+			byte[] sessionId = new byte[5];
+			random.nextBytes(sessionId);
+			//sent in one write, the client reads it with a single read
+			byte[] ack = new byte[4 + 7];
+			ack[0] = rxFrame[0];
+			ack[1] = rxFrame[1];
+			ack[2] = PACKET_TYPE_CONTROLLER_ACKNOWLEDGE_NEW_SESSION;
+			//protocol version 1
+			ack[5] = 1;
+			System.arraycopy(sessionId, 0, ack, 6, 5);
+			synchronized (this) {
+				out.write(ack);
+				out.flush();
+			}
+
+			byte[] sessionKey = key.clone();
+			for(int i = 0; i < 5; i++)
+				sessionKey[i + 11] ^= sessionId[i];
+			aes = new Aes(sessionKey);
+
+			in.readFully(rxFrame, 0, 4 + 16);
+			int seq = ((rxFrame[0] & 0xFF) << 8) | (rxFrame[1] & 0xFF);
+			if((rxFrame[2] & 0xFF) != PACKET_TYPE_CLIENT_REQUEST_SECURE_CONNECTION)
+				throw new IOException("Expected secure connection request");
+			decrypt(seq, 4, 16);
+			for(int i = 0; i < 5; i++)
+				if(rxFrame[4 + i] != sessionId[i])
+					throw new IOException("Client sent the wrong session id");
+			send(seq, PACKET_TYPE_CONTROLLER_ACKNOWLEDGE_SECURE_CONNECTION, ByteBuffer.wrap(sessionId));
+		}
+
+		/*
+		 * Pads the data to whole blocks and encrypts it in place in txFrame
+		 */
+		synchronized void send(int seq, int type, ByteBuffer data) throws IOException {
+			int length = data.remaining();
+			int padded = ((length + 15) / 16) * 16;
+			data.get(txFrame, 4, length);
+			for(int i = 4 + length; i < 4 + padded; i++)
+				txFrame[i] = 0;
+			for(int i = 0; i < padded / 16; i++){
+				txFrame[4 + 16 * i] ^= (seq >> 8) & 0xFF;
+				txFrame[4 + 1 + 16 * i] ^= seq & 0xFF;
+			}
+			aes.encrypt(txFrame, 4, padded, txFrame, 4);
+			txFrame[0] = (byte)(seq >> 8);
+			txFrame[1] = (byte)seq;
+			txFrame[2] = (byte)type;
+			txFrame[3] = 0;
+			if(debug)
+				System.out.println(getName() + " TX seq " + seq + " " + length + " bytes");
+			out.write(txFrame, 0, 4 + padded);
+			out.flush();
+		}
+
+		private void decrypt(int seq, int offset, int length) throws IOException {
+			aes.decrypt(rxFrame, offset, length, rxFrame, offset);
+			for(int i = 0; i < length / 16; i++){
+				rxFrame[offset + 16 * i] ^= (seq >> 8) & 0xFF;
+				rxFrame[offset + 1 + 16 * i] ^= seq & 0xFF;
+			}
+		}
+
+		void close(){
+			sessions.remove(this);
+			notify = false;
+			Thread w = writer;
+			if(w != null)
+				w.interrupt();
+			outbound.clear();
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static byte[] hexStringToByteArray(String s) {
+		byte[] b = new byte[s.length() / 2];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte)Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+		}
+		return b;
+	}
+}
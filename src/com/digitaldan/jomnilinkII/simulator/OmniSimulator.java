@@ -0,0 +1,181 @@
+package com.digitaldan.jomnilinkII.simulator;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.digitaldan.jomnilinkII.Message;
+import com.digitaldan.jomnilinkII.server.OmniServer;
+
+/**
+ * A controller on a local socket that a Connection can log in to, for load
+ * and latency testing without a panel.  Each client gets its own session
+ * thread doing the new session / secure connection handshake and then
+ * answering messages from a shared SimulatedPanel.  Status changes in the
+ * panel are sent to every client that has enabled notifications.
+ * <pre>
+ * OmniSimulator sim = new OmniSimulator(0, key, new SimulatedPanel());
+ * Connection c = new Connection("127.0.0.1", sim.getPort(), key);
+ * sim.startNotificationStorm(5000);
+ * ...
+ * sim.shutdown();
+ * </pre>
+ * The thread that made a change waits while a client's notification queue
+ * is full, so a client that reads slowly slows the storm down rather than
+ * being disconnected.
+ */
+public class OmniSimulator extends OmniServer implements SimulatedPanel.StatusListener {
+
+	private SimulatedPanel panel;
+	private volatile int replyDelay;
+	private Thread storm;
+	private Random random;
+
+	/**
+	 * Starts listening on the loopback address
+	 * @param port port to listen on, 0 picks a free one
+	 * @param key controller key in the same form Connection takes
+	 * @param panel panel to serve
+	 */
+	public OmniSimulator(int port, String key, SimulatedPanel panel) throws IOException {
+		super("OmniSimulator", InetAddress.getByName("127.0.0.1"), port, key);
+		this.panel = panel;
+		this.random = new Random();
+		panel.setStatusListener(this);
+		setWaitForClients(true);
+		start();
+	}
+
+	public SimulatedPanel getPanel(){
+		return panel;
+	}
+
+	/**
+	 * Makes every reply wait, to model the latency of a real panel
+	 */
+	public void setReplyDelay(int millis){
+		replyDelay = millis;
+	}
+
+	/**
+	 * Toggles randomly chosen zones at the given rate until stopped, each
+	 * toggle is a status notification to every listening client.
+	 */
+	public synchronized void startNotificationStorm(final int perSecond){
+		stopNotificationStorm();
+		if(panel.getObjectCount(Message.OBJ_TYPE_ZONE) == 0)
+			throw new IllegalStateException("Panel has no zones");
+		storm = new Thread("OmniSimulatorStorm") {
+			public void run(){
+				long start = System.nanoTime();
+				long sent = 0;
+				while(isRunning() && !isInterrupted()){
+					long due = (System.nanoTime() - start) * perSecond / 1000000000L;
+					//don't try to make up for more than a second we fell behind
+					if(due - sent > perSecond)
+						sent = due - perSecond;
+					for(; sent < due; sent++){
+						int zones = panel.getObjectCount(Message.OBJ_TYPE_ZONE);
+						if(zones > 0)
+							panel.toggleZone(1 + random.nextInt(zones));
+					}
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+		};
+		storm.setDaemon(true);
+		storm.start();
+	}
+
+	public synchronized void stopNotificationStorm(){
+		if(storm != null){
+			storm.interrupt();
+			storm = null;
+		}
+	}
+
+	/**
+	 * Sends an other event notification to every listening client
+	 */
+	public void sendOtherEvents(int[] events){
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+		SimulatedPanel.otherEventNotification(events, frame);
+		frame.flip();
+		broadcast(frame);
+	}
+
+	public void statusChanged(int objectType, int number){
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+		panel.statusNotification(objectType, number, frame);
+		frame.flip();
+		broadcast(frame);
+	}
+
+	protected void reply(ByteBuffer request, ByteBuffer reply) throws Exception {
+		int start = request.position();
+		int messageType = request.get(start + 2) & 0xFF;
+		//the panel is given the message data, after the type
+		request.limit(start + 2 + (request.get(start + 1) & 0xFF));
+		request.position(start + 3);
+		panel.reply(messageType, request, reply);
+		if(replyDelay > 0)
+			Thread.sleep(replyDelay);
+	}
+
+	/**
+	 * Stops accepting clients and disconnects the ones connected
+	 */
+	public void shutdown(){
+		stopNotificationStorm();
+		super.shutdown();
+	}
+
+	/**
+	 * Runs a simulator until killed.
+	 * <pre>
+	 * java com.digitaldan.jomnilinkII.simulator.OmniSimulator port key [objects] [notifications/s]
+	 * </pre>
+	 * objects sets every object type to that count (or its capacity)
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2){
+			System.out.println("Usage:com.digitaldan.jomnilinkII.simulator.OmniSimulator port key [objects] [notifications/s]");
+			System.exit(-1);
+		}
+		SimulatedPanel panel = new SimulatedPanel();
+		if(args.length > 2)
+			panel.setObjectCounts(Integer.parseInt(args[2]));
+		OmniSimulator sim = new OmniSimulator(Integer.parseInt(args[0]), args[1], panel);
+		if(args.length > 3)
+			sim.startNotificationStorm(Integer.parseInt(args[3]));
+		System.out.println("Simulator listening on 127.0.0.1:" + sim.getPort());
+		while(true){
+			Thread.sleep(10000);
+			System.out.println(sim.getSessionCount() + " clients, " + sim.getRequestCount() + " requests, "
+					+ sim.getNotificationCount() + " notifications");
+		}
+	}
+}
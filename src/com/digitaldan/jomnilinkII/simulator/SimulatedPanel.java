@@ -0,0 +1,719 @@
+package com.digitaldan.jomnilinkII.simulator;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+
+import com.digitaldan.jomnilinkII.Connection;
+import com.digitaldan.jomnilinkII.Message;
+import com.digitaldan.jomnilinkII.MessageUtils;
+import com.digitaldan.jomnilinkII.MessageTypes.CommandMessage;
+
+/**
+ * The objects, names, status and event log of a simulated controller, and
+ * the replies it makes to Omni-Link II messages.  Replies are built as raw
+ * frames laid out the way MessageFactory decodes them, so the library is
+ * tested against bytes rather than against its own encoders.
+ * <p>
+ * A new panel has every object type filled to the capacity of an OmniPro
+ * II, use setObjectCount to model a smaller install.
+ */
+public class SimulatedPanel {
+
+	/**
+	 * Told about every status change, whether made by a command from a
+	 * client or through the set methods.  Called without the panel locked.
+	 */
+	public interface StatusListener {
+		public void statusChanged(int objectType, int number);
+	}
+
+	//OmniPro II object capacities, indexed by object type
+	private static final int[] CAPACITY = new int[16];
+	//status record length less the object number, thermostats keep the extended record
+	private static final int[] STATUS_LENGTH = new int[16];
+	//width of the name field in property and name replies
+	private static final int[] NAME_WIDTH = new int[16];
+	private static final int THERMO_STATUS_LENGTH = 7;
+	private static final int EVENT_LENGTH = 9;
+	private static final int EVENT_CAPACITY = 250;
+
+	static {
+		CAPACITY[Message.OBJ_TYPE_ZONE] = 176;
+		CAPACITY[Message.OBJ_TYPE_UNIT] = 511;
+		CAPACITY[Message.OBJ_TYPE_BUTTON] = 128;
+		CAPACITY[Message.OBJ_TYPE_CODE] = 99;
+		CAPACITY[Message.OBJ_TYPE_AREA] = 8;
+		CAPACITY[Message.OBJ_TYPE_THERMO] = 64;
+		CAPACITY[Message.OBJ_TYPE_MESG] = 128;
+		CAPACITY[Message.OBJ_TYPE_AUX_SENSOR] = 176;
+		CAPACITY[Message.OBJ_TYPE_AUDIO_SOURCE] = 8;
+		CAPACITY[Message.OBJ_TYPE_AUDIO_ZONE] = 8;
+		CAPACITY[Message.OBJ_TYPE_EXP] = 8;
+		CAPACITY[Message.OBJ_TYPE_USER_SETTING] = 25;
+		CAPACITY[Message.OBJ_TYPE_CONTROL_READER] = 4;
+		CAPACITY[Message.OBJ_TYPE_CONTROL_LOCK] = 4;
+
+		STATUS_LENGTH[Message.OBJ_TYPE_ZONE] = 2;
+		STATUS_LENGTH[Message.OBJ_TYPE_UNIT] = 3;
+		STATUS_LENGTH[Message.OBJ_TYPE_AREA] = 4;
+		STATUS_LENGTH[Message.OBJ_TYPE_THERMO] = 12;
+		STATUS_LENGTH[Message.OBJ_TYPE_MESG] = 1;
+		STATUS_LENGTH[Message.OBJ_TYPE_AUX_SENSOR] = 4;
+		STATUS_LENGTH[Message.OBJ_TYPE_AUDIO_ZONE] = 4;
+		STATUS_LENGTH[Message.OBJ_TYPE_EXP] = 2;
+		STATUS_LENGTH[Message.OBJ_TYPE_USER_SETTING] = 2;
+		STATUS_LENGTH[Message.OBJ_TYPE_CONTROL_READER] = 3;
+		STATUS_LENGTH[Message.OBJ_TYPE_CONTROL_LOCK] = 3;
+
+		for(int i = 0; i < NAME_WIDTH.length; i++)
+			NAME_WIDTH[i] = 12;
+		NAME_WIDTH[Message.OBJ_TYPE_ZONE] = 15;
+		NAME_WIDTH[Message.OBJ_TYPE_CODE] = 15;
+		NAME_WIDTH[Message.OBJ_TYPE_MESG] = 15;
+		NAME_WIDTH[Message.OBJ_TYPE_AUX_SENSOR] = 15;
+	}
+
+	private int[] counts;
+	//status records by object type, STATUS_LENGTH bytes per object starting at object 1
+	private byte[][] status;
+	private String[][] names;
+	//the log is a ring, oldest entry at eventFirst
+	private byte[] events;
+	private int[] eventNumbers;
+	private int eventFirst;
+	private int eventCount;
+	//number of the newest event ever logged, 65535 is followed by 1
+	private int lastEventNumber;
+	private StatusListener listener;
+
+	public SimulatedPanel() {
+		counts = new int[CAPACITY.length];
+		status = new byte[CAPACITY.length][];
+		names = new String[CAPACITY.length][];
+		for(int t = 0; t < CAPACITY.length; t++){
+			status[t] = new byte[CAPACITY[t] * STATUS_LENGTH[t]];
+			names[t] = new String[CAPACITY[t]];
+			counts[t] = CAPACITY[t];
+			for(int i = 1; i <= CAPACITY[t]; i++){
+				names[t][i - 1] = defaultName(t, i);
+				defaultStatus(t, i);
+			}
+		}
+		events = new byte[EVENT_CAPACITY * EVENT_LENGTH];
+		eventNumbers = new int[EVENT_CAPACITY];
+	}
+
+	/**
+	 * The most objects of a type a panel can have
+	 */
+	public static int getCapacity(int objectType){
+		if(objectType < 0 || objectType >= CAPACITY.length)
+			return 0;
+		return CAPACITY[objectType];
+	}
+
+	public synchronized int getObjectCount(int objectType){
+		return counts[objectType];
+	}
+
+	/**
+	 * Sets how many objects of a type the panel has, objects 1 to count
+	 * exist and are named.
+	 * @throws IllegalArgumentException if count is more than the capacity
+	 */
+	public synchronized void setObjectCount(int objectType, int count){
+		if(count < 0 || count > getCapacity(objectType))
+			throw new IllegalArgumentException("Type " + objectType + " holds at most " + getCapacity(objectType) + " objects");
+		counts[objectType] = count;
+	}
+
+	/**
+	 * Sets every object type to the same count, or its capacity if that is less
+	 */
+	public synchronized void setObjectCounts(int count){
+		for(int t = 0; t < counts.length; t++)
+			counts[t] = Math.min(count, CAPACITY[t]);
+	}
+
+	public synchronized String getName(int objectType, int number){
+		if(!exists(objectType, number))
+			return null;
+		return names[objectType][number - 1];
+	}
+
+	/**
+	 * @param name the name, or null to leave the object unnamed
+	 */
+	public synchronized void setName(int objectType, int number, String name){
+		checkExists(objectType, number);
+		names[objectType][number - 1] = name;
+	}
+
+	public void setStatusListener(StatusListener listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the status record of an object (without the object number) as it
+	 * appears in an extended status reply, and tells the listener.
+	 */
+	public void setStatus(int objectType, int number, byte[] record){
+		synchronized (this) {
+			checkExists(objectType, number);
+			if(record.length != STATUS_LENGTH[objectType])
+				throw new IllegalArgumentException("Type " + objectType + " status is " + STATUS_LENGTH[objectType] + " bytes");
+			System.arraycopy(record, 0, status[objectType], (number - 1) * STATUS_LENGTH[objectType], record.length);
+		}
+		statusChanged(objectType, number);
+	}
+
+	public synchronized byte[] getStatus(int objectType, int number){
+		checkExists(objectType, number);
+		byte[] record = new byte[STATUS_LENGTH[objectType]];
+		System.arraycopy(status[objectType], (number - 1) * STATUS_LENGTH[objectType], record, 0, record.length);
+		return record;
+	}
+
+	public void setZoneStatus(int zone, int zoneStatus, int loop){
+		setStatus(Message.OBJ_TYPE_ZONE, zone, new byte[]{(byte)zoneStatus, (byte)loop});
+	}
+
+	public void setUnitStatus(int unit, int unitStatus, int time){
+		setStatus(Message.OBJ_TYPE_UNIT, unit, new byte[]{(byte)unitStatus, (byte)(time >> 8), (byte)time});
+	}
+
+	/**
+	 * Flips a zone between secure and not ready, used to generate
+	 * notification traffic.
+	 */
+	public void toggleZone(int zone){
+		synchronized (this) {
+			checkExists(Message.OBJ_TYPE_ZONE, zone);
+			status[Message.OBJ_TYPE_ZONE][(zone - 1) * 2] ^= 1;
+		}
+		statusChanged(Message.OBJ_TYPE_ZONE, zone);
+	}
+
+	/**
+	 * Adds an event log entry with the current time, the oldest entry is
+	 * dropped once the log is full.  Events are numbered as a panel does,
+	 * counting up from 1 and going from 65535 back to 1.
+	 */
+	public synchronized void addEvent(int eventType, int parameter1, int parameter2){
+		if(eventCount == EVENT_CAPACITY){
+			eventFirst = (eventFirst + 1) % EVENT_CAPACITY;
+			eventCount--;
+		}
+		lastEventNumber = lastEventNumber >= 65535 ? 1 : lastEventNumber + 1;
+		int slot = (eventFirst + eventCount) % EVENT_CAPACITY;
+		eventNumbers[slot] = lastEventNumber;
+		Calendar now = Calendar.getInstance();
+		int off = slot * EVENT_LENGTH;
+		events[off] = 1;
+		events[off + 1] = (byte)(now.get(Calendar.MONTH) + 1);
+		events[off + 2] = (byte)now.get(Calendar.DAY_OF_MONTH);
+		events[off + 3] = (byte)now.get(Calendar.HOUR_OF_DAY);
+		events[off + 4] = (byte)now.get(Calendar.MINUTE);
+		events[off + 5] = (byte)eventType;
+		events[off + 6] = (byte)parameter1;
+		events[off + 7] = (byte)(parameter2 >> 8);
+		events[off + 8] = (byte)parameter2;
+		eventCount++;
+	}
+
+	/**
+	 * Writes the reply to a message as a complete frame, start character
+	 * through CRC, at the position of out.
+	 * @param type message type
+	 * @param in the message data, after the type
+	 */
+	public void reply(int type, ByteBuffer in, ByteBuffer out){
+		int changed;
+		synchronized (this) {
+			changed = reply(type, in, out, out.position());
+		}
+		if(changed > 0)
+			statusChanged(changed >> 16, changed & 0xFFFF);
+	}
+
+	/**
+	 * Writes a status notification for one object, as the controller sends
+	 * when the object changes.
+	 */
+	public synchronized void statusNotification(int objectType, int number, ByteBuffer out){
+		int start = begin(out, Message.MESG_TYPE_OBJ_STATUS);
+		out.put((byte)objectType);
+		putStatus(out, objectType, number, false);
+		end(out, start);
+	}
+
+	/**
+	 * Writes an other event notification holding the given events
+	 */
+	public static void otherEventNotification(int[] events, ByteBuffer out){
+		int start = begin(out, Message.MESG_TYPE_OTHER_EVENT_NOTIFY);
+		for(int i = 0; i < events.length; i++)
+			out.putShort((short)events[i]);
+		end(out, start);
+	}
+
+	/*
+	 * Returns the object a command changed as type << 16 | number, or 0
+	 */
+	private int reply(int type, ByteBuffer in, ByteBuffer out, int start){
+		int changed = 0;
+		switch(type){
+		case Message.MESG_TYPE_REQ_SYS_INFO:
+			begin(out, Message.MESG_TYPE_SYS_INFO);
+			//OmniPro II 3.0
+			out.put((byte)16);
+			out.put((byte)3);
+			out.put((byte)0);
+			out.put((byte)0);
+			putName(out, "5555555555", 25);
+			break;
+		case Message.MESG_TYPE_REQ_SYS_STATUS:
+			begin(out, Message.MESG_TYPE_SYS_STATUS);
+			Calendar now = Calendar.getInstance();
+			out.put((byte)1);
+			out.put((byte)(now.get(Calendar.YEAR) - 2000));
+			out.put((byte)(now.get(Calendar.MONTH) + 1));
+			out.put((byte)now.get(Calendar.DAY_OF_MONTH));
+			//omni days of the week start at 1 for monday
+			out.put((byte)(((now.get(Calendar.DAY_OF_WEEK) + 5) % 7) + 1));
+			out.put((byte)now.get(Calendar.HOUR_OF_DAY));
+			out.put((byte)now.get(Calendar.MINUTE));
+			out.put((byte)now.get(Calendar.SECOND));
+			out.put((byte)(now.get(Calendar.DST_OFFSET) != 0 ? 1 : 0));
+			out.put((byte)6);
+			out.put((byte)30);
+			out.put((byte)18);
+			out.put((byte)45);
+			//battery reading
+			out.put((byte)200);
+			break;
+		case Message.MESG_TYPE_REQ_SYS_TROUBLES:
+			begin(out, Message.MESG_TYPE_SYS_TROUBLES);
+			break;
+		case Message.MESG_TYPE_REQ_SYS_FEATURES:
+			begin(out, Message.MESG_TYPE_SYS_FEATURES);
+			break;
+		case Message.MESG_TYPE_REQ_SYS_FORMATS:
+			begin(out, Message.MESG_TYPE_SYS_FORMATS);
+			out.put((byte)0);
+			out.put((byte)0);
+			out.put((byte)0);
+			break;
+		case Message.MESG_TYPE_REQ_OBJ_CAPACITY: {
+			int objectType = u8(in);
+			begin(out, Message.MESG_TYPE_OBJ_CAPACITY);
+			out.put((byte)objectType);
+			out.putShort((short)getCapacity(objectType));
+			break;
+		}
+		case Message.MESG_TYPE_REQ_OBJ_PROP:
+			objectProperties(in, out);
+			break;
+		case Message.MESG_TYPE_REQ_OBJ_STATUS:
+			objectStatus(in, out, false);
+			break;
+		case Message.MESG_TYPE_REQ_EXT_OBJ_STATUS:
+			objectStatus(in, out, true);
+			break;
+		case Message.MESG_TYPE_UPLOAD_NAMES:
+			uploadName(in, out);
+			break;
+		case Message.MESG_TYPE_UPLOAD_EVENT_LOG:
+			uploadEvent(in, out);
+			break;
+		case Message.MESG_TYPE_DOWNLOAD_NAMES: {
+			int objectType = u8(in);
+			int number = u16(in);
+			if(exists(objectType, number)){
+				byte[] name = new byte[in.remaining()];
+				in.get(name);
+				int len = 0;
+				while(len < name.length && name[len] != 0)
+					len++;
+				names[objectType][number - 1] = len == 0 ? null : new String(name, 0, len);
+				begin(out, Message.MESG_TYPE_ACK);
+			} else {
+				begin(out, Message.MESG_TYPE_NEG_ACK);
+			}
+			break;
+		}
+		case Message.MESG_TYPE_CLEAR_NAMES:
+			for(int t = 0; t < names.length; t++)
+				for(int i = 0; i < names[t].length; i++)
+					names[t][i] = null;
+			begin(out, Message.MESG_TYPE_ACK);
+			break;
+		case Message.MESG_TYPE_COMMAND:
+			changed = command(u8(in), u8(in), u16(in));
+			begin(out, changed >= 0 ? Message.MESG_TYPE_ACK : Message.MESG_TYPE_NEG_ACK);
+			break;
+		case Message.MESG_TYPE_REQ_ZONE_READY: {
+			begin(out, Message.MESG_TYPE_ZONE_READY);
+			//a bit set for each zone that is not ready, zone 1 is bit 7 of the first byte
+			int zones = counts[Message.OBJ_TYPE_ZONE];
+			byte[] zoneStatus = status[Message.OBJ_TYPE_ZONE];
+			for(int i = 0; i < (zones + 7) / 8; i++){
+				int bits = 0;
+				for(int b = 0; b < 8 && i * 8 + b < zones; b++)
+					if((zoneStatus[(i * 8 + b) * 2] & 0x03) != 0)
+						bits |= 0x80 >> b;
+				out.put((byte)bits);
+			}
+			break;
+		}
+		case Message.MESG_TYPE_REQ_CONN_SEC_STATUS:
+			begin(out, Message.MESG_TYPE_CONN_SEC_STATUS);
+			//mode and status of eight partitions
+			for(int i = 0; i < 16; i++)
+				out.put((byte)0);
+			break;
+		case Message.MESG_TYPE_REQ_AUDIO_SOURCE_STATUS: {
+			int source = u16(in);
+			int position = u8(in);
+			if(exists(Message.OBJ_TYPE_AUDIO_SOURCE, source) && position <= 1){
+				begin(out, Message.MESG_TYPE_AUDIO_SOURCE_STATUS);
+				out.putShort((short)source);
+				out.put((byte)0);
+				out.put((byte)1);
+				out.put((byte)1);
+				putName(out, "TRACK " + source, 16);
+			} else {
+				begin(out, Message.MESG_TYPE_END_OF_DATA);
+			}
+			break;
+		}
+		case Message.MESG_TYPE_REQ_SEC_CODE_VALID: {
+			/*int area = */u8(in);
+			int code = u8(in) * 1000 + u8(in) * 100 + u8(in) * 10 + u8(in);
+			begin(out, Message.MESG_TYPE_SEC_CODE_VALID);
+			//1234 is user 1 at master level, anything else is invalid
+			out.put((byte)(code == 1234 ? 1 : 0));
+			out.put((byte)(code == 1234 ? 3 : 0));
+			break;
+		}
+		case Message.MESG_TYPE_SET_TIME:
+		case Message.MESG_TYPE_ENABLE_NOTIFICATIONS:
+		case Message.MESG_TYPE_CLEAR_VOICES:
+		case Message.MESG_TYPE_ACT_KEYPAD_EMERGENCY:
+		case Message.MESG_TYPE_CONN_SEC_COMMAND:
+			begin(out, Message.MESG_TYPE_ACK);
+			break;
+		default:
+			begin(out, Message.MESG_TYPE_NEG_ACK);
+		}
+		end(out, start);
+		return changed;
+	}
+
+	private void objectProperties(ByteBuffer in, ByteBuffer out){
+		int objectType = u8(in);
+		int number = u16(in);
+		int direction = in.get();
+		int namedFilter = u8(in);
+		int count = objectType < counts.length ? counts[objectType] : 0;
+		//walk in the requested direction until an object passes the name filter
+		for(number += direction; ; number += direction){
+			//walking down from past the last object is fine
+			if(number > count && direction < 0)
+				continue;
+			if(number < 1 || number > count || !hasProperties(objectType)){
+				begin(out, Message.MESG_TYPE_END_OF_DATA);
+				return;
+			}
+			boolean named = names[objectType][number - 1] != null;
+			if(namedFilter == 0 || (namedFilter == 1) == named)
+				break;
+			if(direction == 0){
+				begin(out, Message.MESG_TYPE_END_OF_DATA);
+				return;
+			}
+		}
+
+		begin(out, Message.MESG_TYPE_OBJ_PROP);
+		out.put((byte)objectType);
+		out.putShort((short)number);
+		byte[] s = status[objectType];
+		int off = (number - 1) * STATUS_LENGTH[objectType];
+		switch(objectType){
+		case Message.OBJ_TYPE_ZONE:
+			out.put(s, off, 2);
+			//zone type, area and options
+			out.put((byte)(number % 4 == 0 ? 0x20 : 0x00));
+			out.put((byte)1);
+			out.put((byte)0);
+			break;
+		case Message.OBJ_TYPE_UNIT:
+			out.put(s, off, 3);
+			//standard unit
+			out.put((byte)1);
+			break;
+		case Message.OBJ_TYPE_AREA:
+			out.put(s, off, 4);
+			//enabled, exit delay and entry delay
+			out.put((byte)(number == 1 ? 1 : 0));
+			out.put((byte)60);
+			out.put((byte)30);
+			break;
+		case Message.OBJ_TYPE_THERMO:
+			out.put(s, off, THERMO_STATUS_LENGTH);
+			//auto heat/cool thermostat
+			out.put((byte)1);
+			break;
+		case Message.OBJ_TYPE_AUX_SENSOR:
+			out.put(s, off, 4);
+			//temperature sensor
+			out.put((byte)82);
+			break;
+		case Message.OBJ_TYPE_AUDIO_ZONE:
+			out.put(s, off, 4);
+			break;
+		}
+		putName(out, names[objectType][number - 1], NAME_WIDTH[objectType]);
+	}
+
+	private void objectStatus(ByteBuffer in, ByteBuffer out, boolean extended){
+		int objectType = u8(in);
+		int first = u16(in);
+		int last = u16(in);
+		if(objectType >= counts.length || STATUS_LENGTH[objectType] == 0){
+			begin(out, Message.MESG_TYPE_NEG_ACK);
+			return;
+		}
+		int recordLength = 2 + STATUS_LENGTH[objectType];
+		if(!extended && objectType == Message.OBJ_TYPE_THERMO)
+			recordLength = 2 + THERMO_STATUS_LENGTH;
+		//only as many records as fit in one message
+		int room = (Connection.MAX_PACKET_SIZE - 2 - (extended ? 1 : 0)) / recordLength;
+		last = Math.min(Math.min(last, counts[objectType]), first + room - 1);
+		first = Math.max(first, 1);
+
+		begin(out, extended ? Message.MESG_TYPE_EXT_OBJ_STATUS : Message.MESG_TYPE_OBJ_STATUS);
+		out.put((byte)objectType);
+		if(extended)
+			out.put((byte)recordLength);
+		for(int i = first; i <= last; i++)
+			putStatus(out, objectType, i, extended);
+	}
+
+	private void putStatus(ByteBuffer out, int objectType, int number, boolean extended){
+		int length = STATUS_LENGTH[objectType];
+		if(!extended && objectType == Message.OBJ_TYPE_THERMO)
+			length = THERMO_STATUS_LENGTH;
+		out.putShort((short)number);
+		out.put(status[objectType], (number - 1) * STATUS_LENGTH[objectType], length);
+	}
+
+	/*
+	 * Replies with the next named object after the one given
+	 */
+	private void uploadName(ByteBuffer in, ByteBuffer out){
+		int objectType = u8(in);
+		int number = u16(in);
+		int count = objectType < counts.length ? counts[objectType] : 0;
+		for(int i = number + 1; i <= count; i++){
+			String name = names[objectType][i - 1];
+			if(name != null){
+				begin(out, Message.MESG_TYPE_NAME_DATA);
+				out.put((byte)objectType);
+				out.putShort((short)i);
+				putName(out, name, NAME_WIDTH[objectType] + 1);
+				return;
+			}
+		}
+		begin(out, Message.MESG_TYPE_END_OF_DATA);
+	}
+
+	/*
+	 * Event 0 with direction -1 is the most recent, with direction 1 the
+	 * oldest, otherwise the event the direction is relative to must still
+	 * be in the log
+	 */
+	private void uploadEvent(ByteBuffer in, ByteBuffer out){
+		int number = u16(in);
+		int direction = in.get();
+		int position;
+		if(number == 0){
+			position = direction < 0 ? eventCount - 1 : 0;
+		} else if(eventCount == 0){
+			position = -1;
+		} else {
+			//how far after the oldest event, numbers run 1 to 65535
+			int distance = ((number - eventNumbers[eventFirst]) % 65535 + 65535) % 65535;
+			position = distance < eventCount ? distance + direction : -1;
+		}
+		if(position < 0 || position >= eventCount){
+			begin(out, Message.MESG_TYPE_END_OF_DATA);
+			return;
+		}
+		int slot = (eventFirst + position) % EVENT_CAPACITY;
+		begin(out, Message.MESG_TYPE_EVENT_LOG_DATA);
+		out.putShort((short)eventNumbers[slot]);
+		out.put(events, slot * EVENT_LENGTH, EVENT_LENGTH);
+	}
+
+	/*
+	 * Units and security modes change state and are logged with the command
+	 * as the event type, other commands are accepted and ignored.  Returns
+	 * -1 if the command names an object that does not exist.
+	 */
+	private int command(int command, int parameter1, int parameter2){
+		switch(command){
+		case CommandMessage.CMD_UNIT_OFF:
+		case CommandMessage.CMD_UNIT_ON:
+		case CommandMessage.CMD_UNIT_PERCENT: {
+			if(!exists(Message.OBJ_TYPE_UNIT, parameter2))
+				return -1;
+			int off = (parameter2 - 1) * STATUS_LENGTH[Message.OBJ_TYPE_UNIT];
+			byte[] s = status[Message.OBJ_TYPE_UNIT];
+			if(command == CommandMessage.CMD_UNIT_PERCENT)
+				s[off] = (byte)(100 + parameter1);
+			else
+				s[off] = (byte)command;
+			s[off + 1] = 0;
+			s[off + 2] = 0;
+			addEvent(command, parameter1, parameter2);
+			return (Message.OBJ_TYPE_UNIT << 16) | parameter2;
+		}
+		case CommandMessage.CMD_SECURITY_OMNI_DISARM:
+		case CommandMessage.CMD_SECURITY_OMNI_DAY_MODE:
+		case CommandMessage.CMD_SECURITY_OMNI_NIGHT_MODE:
+		case CommandMessage.CMD_SECURITY_OMNI_AWAY_MODE:
+		case CommandMessage.CMD_SECURITY_OMNI_VACATION_MODE:
+		case CommandMessage.CMD_SECURITY_OMNI_DAY_INSTANCE_MODE:
+		case CommandMessage.CMD_SECURITY_OMNI_NIGHT_DELAYED_MODE: {
+			int area = parameter2 == 0 ? 1 : parameter2;
+			if(!exists(Message.OBJ_TYPE_AREA, area))
+				return -1;
+			status[Message.OBJ_TYPE_AREA][(area - 1) * STATUS_LENGTH[Message.OBJ_TYPE_AREA]] =
+					(byte)(command - CommandMessage.CMD_SECURITY_OMNI_DISARM);
+			addEvent(command, parameter1, area);
+			return (Message.OBJ_TYPE_AREA << 16) | area;
+		}
+		default:
+			return 0;
+		}
+	}
+
+	private static int begin(ByteBuffer out, int type){
+		int start = out.position();
+		out.put((byte)Message.MESG_START);
+		//length is filled in by end
+		out.put((byte)0);
+		out.put((byte)type);
+		return start;
+	}
+
+	/*
+	 * Fills in the length and appends the CRC
+	 */
+	private static void end(ByteBuffer out, int start){
+		int length = out.position() - start - 2;
+		out.put(start + 1, (byte)length);
+		int crc = MessageUtils.crc16(out, start + 1, length + 1);
+		out.put((byte)crc);
+		out.put((byte)(crc >> 8));
+	}
+
+	private static void putName(ByteBuffer out, String name, int width){
+		byte[] b = name == null ? new byte[0] : name.getBytes();
+		int len = Math.min(b.length, width);
+		out.put(b, 0, len);
+		for(int i = len; i < width; i++)
+			out.put((byte)0);
+	}
+
+	private static boolean hasProperties(int objectType){
+		return objectType != Message.OBJ_TYPE_EXP && objectType != Message.OBJ_TYPE_USER_SETTING &&
+				objectType != Message.OBJ_TYPE_CONTROL_READER && objectType != Message.OBJ_TYPE_CONTROL_LOCK;
+	}
+
+	private boolean exists(int objectType, int number){
+		return objectType >= 0 && objectType < counts.length && number >= 1 && number <= counts[objectType];
+	}
+
+	private void checkExists(int objectType, int number){
+		if(!exists(objectType, number))
+			throw new IllegalArgumentException("No object " + number + " of type " + objectType);
+	}
+
+	private void statusChanged(int objectType, int number){
+		StatusListener l = listener;
+		if(l != null)
+			l.statusChanged(objectType, number);
+	}
+
+	private static String defaultName(int objectType, int number){
+		switch(objectType){
+		case Message.OBJ_TYPE_ZONE: return "ZONE " + number;
+		case Message.OBJ_TYPE_UNIT: return "UNIT " + number;
+		case Message.OBJ_TYPE_BUTTON: return "BUTTON " + number;
+		case Message.OBJ_TYPE_CODE: return "USER " + number;
+		case Message.OBJ_TYPE_AREA: return "AREA " + number;
+		case Message.OBJ_TYPE_THERMO: return "THERMO " + number;
+		case Message.OBJ_TYPE_MESG: return "MESSAGE " + number;
+		case Message.OBJ_TYPE_AUX_SENSOR: return "SENSOR " + number;
+		case Message.OBJ_TYPE_AUDIO_SOURCE: return "SOURCE " + number;
+		case Message.OBJ_TYPE_AUDIO_ZONE: return "AUDIO " + number;
+		default: return null;
+		}
+	}
+
+	private void defaultStatus(int objectType, int number){
+		byte[] s = status[objectType];
+		int off = (number - 1) * STATUS_LENGTH[objectType];
+		switch(objectType){
+		case Message.OBJ_TYPE_ZONE: //secure, loop reading normal
+			s[off + 1] = (byte)0xFD;
+			break;
+		case Message.OBJ_TYPE_THERMO: //70F, heat at 68F, cool at 74F, auto, 45% humidity
+			s[off] = 1;
+			s[off + 1] = (byte)MessageUtils.FtoOmni(70);
+			s[off + 2] = (byte)MessageUtils.FtoOmni(68);
+			s[off + 3] = (byte)MessageUtils.FtoOmni(74);
+			s[off + 4] = 3;
+			s[off + 7] = 45;
+			s[off + 8] = 30;
+			s[off + 9] = 60;
+			s[off + 10] = (byte)MessageUtils.FtoOmni(55);
+			break;
+		case Message.OBJ_TYPE_AUX_SENSOR: //70F
+			s[off + 1] = (byte)MessageUtils.FtoOmni(70);
+			break;
+		case Message.OBJ_TYPE_AUDIO_ZONE: //source 1 at 30%
+			s[off + 1] = 1;
+			s[off + 2] = 30;
+			break;
+		}
+	}
+
+	private static int u8(ByteBuffer in){
+		return in.get() & 0xFF;
+	}
+
+	private static int u16(ByteBuffer in){
+		return in.getShort() & 0xFFFF;
+	}
+}
@@ -0,0 +1,363 @@
+package com.digitaldan.jomnilinkII.store;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Indexes over an {@link EventStore} so queries only look at the records
+ * that can match.
+ * <p>
+ * Event log records are indexed by event type, by event type and
+ * parameter 1 (the user code for arming) and by event type and parameter
+ * 2 (the zone or area), and by either parameter alone for queries that
+ * give no type.  Statuses are indexed by object type and by
+ * object type and number, other events by the event.  Each index holds
+ * record numbers in the order they were appended, and the earliest and
+ * latest time of every block of records is kept so a time range skips
+ * whole blocks.
+ * <pre>
+ * //every arm or disarm by user 5 since the start of the quarter
+ * long[] records = index.query()
+ *     .types(EventIndex.EVENT_ARM_BASE, EventIndex.EVENT_ARM_BASE + 6)
+ *     .parameter1(5)
+ *     .between(quarterStart, now)
+ *     .find();
+ * </pre>
+ * The index is built when it is created and brought up to date with the
+ * store by {@link #refresh()}, which queries also call.
+ */
+public class EventIndex {
+
+	/** Area armed in mode m (0 is disarm) is this plus m, Lumina modes too */
+	public static final int EVENT_ARM_BASE = 48;
+	public static final int EVENT_ZONE_BYPASSED = 4;
+	public static final int EVENT_ZONE_RESTORED = 5;
+	public static final int EVENT_ZONE_TRIPPED = 128;
+	public static final int EVENT_ZONE_TROUBLE = 129;
+	public static final int EVENT_ZONE_TROUBLE_CLEARED = 133;
+	public static final int EVENT_ALARM_ACTIVATED = 135;
+	public static final int EVENT_ALARM_RESET = 136;
+
+	public static int BLOCK_SHIFT = 12;
+
+	/**
+	 * Record numbers in the order they were added
+	 */
+	private static class Postings {
+		long[] records = new long[4];
+		int size;
+
+		void add(long record){
+			if(size == records.length)
+				records = Arrays.copyOf(records, size * 2);
+			records[size++] = record;
+		}
+	}
+
+	private EventStore store;
+	private int blockShift;
+	private long indexed;
+	//keyed by kind << 16 | type
+	private HashMap<Integer, Postings> byType = new HashMap<Integer, Postings>();
+	//keyed by (kind << 16 | type) << 16 | parameter
+	private HashMap<Long, Postings> byParameter1 = new HashMap<Long, Postings>();
+	private HashMap<Long, Postings> byParameter2 = new HashMap<Long, Postings>();
+	private HashMap<Long, Postings> byNumber = new HashMap<Long, Postings>();
+	//keyed by kind << 16 | parameter, whatever the type
+	private HashMap<Integer, Postings> byParameter1Only = new HashMap<Integer, Postings>();
+	private HashMap<Integer, Postings> byParameter2Only = new HashMap<Integer, Postings>();
+	//earliest and latest time in each block of records
+	private long[] blockMin = new long[16];
+	private long[] blockMax = new long[16];
+
+	public EventIndex(EventStore store){
+		this.store = store;
+		this.blockShift = BLOCK_SHIFT;
+		refresh();
+	}
+
+	public EventStore getStore(){
+		return store;
+	}
+
+	/**
+	 * Indexes what has been appended to the store since the last refresh
+	 */
+	public synchronized void refresh(){
+		long size = store.size();
+		for(long r = indexed; r < size; r++){
+			int kind = store.getKind(r);
+			int type = store.getType(r);
+			int key = (kind << 16) | type;
+			postings(byType, key).add(r);
+			switch(kind){
+			case EventStore.KIND_EVENT_LOG:
+				postings(byParameter1, ((long)key << 16) | store.getParameter1(r)).add(r);
+				postings(byParameter2, ((long)key << 16) | store.getParameter2(r)).add(r);
+				postings(byParameter1Only, (kind << 16) | store.getParameter1(r)).add(r);
+				postings(byParameter2Only, (kind << 16) | store.getParameter2(r)).add(r);
+				break;
+			case EventStore.KIND_STATUS:
+			case EventStore.KIND_EXTENDED_STATUS:
+				postings(byNumber, ((long)key << 16) | store.getNumber(r)).add(r);
+				break;
+			}
+			int block = (int)(r >>> blockShift);
+			if(block >= blockMin.length){
+				blockMin = Arrays.copyOf(blockMin, block * 2);
+				blockMax = Arrays.copyOf(blockMax, block * 2);
+			}
+			long time = store.getTime(r);
+			if((r & ((1 << blockShift) - 1)) == 0){
+				blockMin[block] = time;
+				blockMax[block] = time;
+			} else if(time < blockMin[block]){
+				blockMin[block] = time;
+			} else if(time > blockMax[block]){
+				blockMax[block] = time;
+			}
+		}
+		indexed = size;
+	}
+
+	private static <K> Postings postings(HashMap<K, Postings> map, K key){
+		Postings p = map.get(key);
+		if(p == null){
+			p = new Postings();
+			map.put(key, p);
+		}
+		return p;
+	}
+
+	/**
+	 * A query over event log records, change the kind for other records
+	 */
+	public Query query(){
+		return new Query();
+	}
+
+	/**
+	 * What to look for, every condition given must hold
+	 */
+	public class Query {
+		private int kind = EventStore.KIND_EVENT_LOG;
+		private int fromType = -1;
+		private int toType = -1;
+		private int parameter1 = -1;
+		private int parameter2 = -1;
+		private int number = -1;
+		private long from = Long.MIN_VALUE;
+		private long to = Long.MAX_VALUE;
+
+		public Query kind(int kind){
+			this.kind = kind;
+			return this;
+		}
+
+		/** Event type, object type or other event */
+		public Query type(int type){
+			return types(type, type);
+		}
+
+		/** Event types from one to another, both included */
+		public Query types(int from, int to){
+			if(from < 0 || to < from || to > 0xFFFF)
+				throw new IllegalArgumentException("invalid types " + from + "-" + to);
+			fromType = from;
+			toType = to;
+			return this;
+		}
+
+		/** Event log parameter 1, the user code for arming */
+		public Query parameter1(int parameter1){
+			this.parameter1 = parameter1;
+			return this;
+		}
+
+		/** Event log parameter 2, the zone or area */
+		public Query parameter2(int parameter2){
+			this.parameter2 = parameter2;
+			return this;
+		}
+
+		/** Status object number */
+		public Query number(int number){
+			this.number = number;
+			return this;
+		}
+
+		/**
+		 * Records timed from one time to another, both included
+		 */
+		public Query between(long from, long to){
+			this.from = from;
+			this.to = to;
+			return this;
+		}
+
+		/**
+		 * The matching record numbers, in the order they were appended
+		 */
+		public long[] find(){
+			synchronized (EventIndex.this) {
+				refresh();
+				List<Postings> lists = candidates();
+				long[] found = new long[16];
+				int count = 0;
+				if(lists == null){
+					//nothing narrows it down but time
+					for(long r = 0; r < indexed; r++){
+						if((r & ((1 << blockShift) - 1)) == 0 && !inTime((int)(r >>> blockShift))){
+							r += (1 << blockShift) - 1;
+							continue;
+						}
+						if(matches(r)){
+							if(count == found.length)
+								found = Arrays.copyOf(found, count * 2);
+							found[count++] = r;
+						}
+					}
+					return Arrays.copyOf(found, count);
+				}
+				for(Postings p : lists){
+					for(int i = 0; i < p.size; i++){
+						long r = p.records[i];
+						int block = (int)(r >>> blockShift);
+						if(!inTime(block)){
+							//on to the first record of the next block
+							i = after(p, i, (long)(block + 1) << blockShift) - 1;
+							continue;
+						}
+						if(!matches(r))
+							continue;
+						if(count == found.length)
+							found = Arrays.copyOf(found, count * 2);
+						found[count++] = r;
+					}
+				}
+				found = Arrays.copyOf(found, count);
+				//several lists each hold part of the answer
+				if(lists.size() > 1)
+					Arrays.sort(found);
+				return found;
+			}
+		}
+
+		public int count(){
+			return find().length;
+		}
+
+		/*
+		 * The most selective lists that together hold every match, null
+		 * if no index helps
+		 */
+		private List<Postings> candidates(){
+			if(fromType < 0)
+				return parameterCandidates();
+			boolean statuses = kind == EventStore.KIND_STATUS || kind == EventStore.KIND_EXTENDED_STATUS;
+			HashMap<Long, Postings> map = null;
+			int parameter = -1;
+			if(statuses && number >= 0){
+				map = byNumber;
+				parameter = number;
+			} else if(kind == EventStore.KIND_EVENT_LOG && parameter1 >= 0){
+				map = byParameter1;
+				parameter = parameter1;
+			} else if(kind == EventStore.KIND_EVENT_LOG && parameter2 >= 0){
+				map = byParameter2;
+				parameter = parameter2;
+			}
+			List<Postings> lists = new ArrayList<Postings>();
+			for(int type = fromType; type <= toType; type++){
+				int key = (kind << 16) | type;
+				Postings p = map == null ? byType.get(key) : map.get(((long)key << 16) | parameter);
+				if(p != null)
+					lists.add(p);
+			}
+			return lists;
+		}
+
+		/*
+		 * The shorter list for a parameter given without a type, null if
+		 * no parameter is given either
+		 */
+		private List<Postings> parameterCandidates(){
+			if(kind != EventStore.KIND_EVENT_LOG || (parameter1 < 0 && parameter2 < 0))
+				return null;
+			List<Postings> lists = new ArrayList<Postings>(1);
+			Postings best = null;
+			if(parameter1 >= 0){
+				best = byParameter1Only.get((kind << 16) | parameter1);
+				if(best == null)
+					return lists;
+			}
+			if(parameter2 >= 0){
+				Postings p = byParameter2Only.get((kind << 16) | parameter2);
+				if(p == null)
+					return lists;
+				if(best == null || p.size < best.size)
+					best = p;
+			}
+			lists.add(best);
+			return lists;
+		}
+
+		/*
+		 * Index of the first posting after i that is at or past a record
+		 */
+		private int after(Postings p, int i, long record){
+			int lo = i + 1;
+			int hi = p.size;
+			while(lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if(p.records[mid] < record)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		private boolean inTime(int block){
+			return blockMax[block] >= from && blockMin[block] <= to;
+		}
+
+		private boolean matches(long r){
+			if(store.getKind(r) != kind)
+				return false;
+			if(fromType >= 0){
+				int type = store.getType(r);
+				if(type < fromType || type > toType)
+					return false;
+			}
+			if(parameter1 >= 0 && store.getParameter1(r) != parameter1)
+				return false;
+			if(parameter2 >= 0 && store.getParameter2(r) != parameter2)
+				return false;
+			if(number >= 0 && store.getNumber(r) != number)
+				return false;
+			long time = store.getTime(r);
+			return time >= from && time <= to;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package com.digitaldan.jomnilinkII.store;
+
+/**
+*  Copyright (C) 2009  Dan Cunningham
+*
+* This program is free software; you can redistribute it and/or
+* modify it under the terms of the GNU General Public License
+* as published by the Free Software Foundation, version 2
+* of the License, or (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitaldan.jomnilinkII.Connection;
+import com.digitaldan.jomnilinkII.NotificationListener;
+import com.digitaldan.jomnilinkII.ObjectStatusView;
+import com.digitaldan.jomnilinkII.ObjectStatusViewListener;
+import com.digitaldan.jomnilinkII.MessageTypes.EventLogData;
+import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.OtherEventNotifications;
+import com.digitaldan.jomnilinkII.MessageTypes.events.OtherEvent;
+
+/**
+ * An append only history of event log records and notifications, kept in
+ * fixed size records in memory mapped segment files in a directory.
+ * <p>
+ * Records are numbered from 0 in the order they were appended and are
+ * read by number straight out of the mapped files, nothing is decoded or
+ * copied.  Appends come from one writer at a time, readers on any thread
+ * see every record below {@link #size()}.  A record is only counted once
+ * it is completely written, so reopening the store after a crash finds
+ * every record that was counted.
+ * <p>
+ * A record is {@link #RECORD_SIZE} bytes:
+ * <pre>
+ *  0  time, milliseconds since the epoch
+ *  8  kind
+ *  9  flags
+ * 10  number      event number, object number or 0
+ * 12  type        event type, object type or the other event
+ * 14  parameter 1 event parameter 1 or the object's status
+ * 16  parameter 2 event parameter 2 or the second field of a status
+ * 18  data length
+ * 19  data        the rest of a status record after its number, at most
+ *                 DATA_SIZE bytes, longer ones are cut and flagged
+ *                 FLAG_TRUNCATED
+ * </pre>
+ * The event log only gives the month, day, hour and minute of an event,
+ * the year is the latest one that does not put the event after the time
+ * it was received.
+ */
+public class EventStore {
+
+	public static final int RECORD_SIZE = 32;
+	public static final int DATA_SIZE = RECORD_SIZE - 19;
+	public static int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+	public static final int KIND_EVENT_LOG = 1;
+	public static final int KIND_OTHER_EVENT = 2;
+	public static final int KIND_STATUS = 3;
+	public static final int KIND_EXTENDED_STATUS = 4;
+
+	/** The time came from the controller rather than when it was received */
+	public static final int FLAG_CONTROLLER_TIME = 0x01;
+	/** The status record was longer than DATA_SIZE, the rest was not kept */
+	public static final int FLAG_TRUNCATED = 0x02;
+
+	private static final int TIME = 0;
+	private static final int KIND = 8;
+	private static final int FLAGS = 9;
+	private static final int NUMBER = 10;
+	private static final int TYPE = 12;
+	private static final int PARAMETER1 = 14;
+	private static final int PARAMETER2 = 16;
+	private static final int LENGTH = 18;
+	private static final int DATA = 19;
+
+	private File directory;
+	private int segmentRecords;
+	private int segmentShift;
+	private TimeZone timeZone;
+	//only used by the writer
+	private Calendar calendar;
+	//replaced whole when a segment is added, so readers need no lock
+	private volatile MappedByteBuffer[] segments;
+	private volatile long size;
+	private boolean closed;
+	private final AtomicLong failedAppends = new AtomicLong();
+	private volatile IOException lastAppendFailure;
+
+	/**
+	 * Opens the store in a directory with the default segment size, in
+	 * the local time zone
+	 */
+	public EventStore(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_RECORDS, TimeZone.getDefault());
+	}
+
+	/**
+	 * Opens the store in a directory, creating it if need be.
+	 * @param segmentRecords records per segment file, rounded up to a
+	 * power of two, must be the same every time the store is opened
+	 * @param timeZone the controller's time zone
+	 */
+	public EventStore(File directory, int segmentRecords, TimeZone timeZone) throws IOException {
+		if(segmentRecords < 1 || segmentRecords > (Integer.MAX_VALUE / RECORD_SIZE))
+			throw new IllegalArgumentException("invalid segment size (" + segmentRecords + ")");
+		int records = Integer.highestOneBit(segmentRecords);
+		if(records < segmentRecords)
+			records <<= 1;
+		this.directory = directory;
+		this.segmentRecords = records;
+		this.segmentShift = Integer.numberOfTrailingZeros(records);
+		this.timeZone = timeZone;
+		this.calendar = Calendar.getInstance(timeZone);
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create " + directory);
+		open();
+	}
+
+	/*
+	 * Maps the existing segments and finds the end, the first record
+	 * without a kind
+	 */
+	private void open() throws IOException {
+		int count = 0;
+		while(segmentFile(count).exists())
+			count++;
+		segments = new MappedByteBuffer[0];
+		for(int i = 0; i < count; i++)
+			addSegment();
+		if(count == 0){
+			size = 0;
+			return;
+		}
+		MappedByteBuffer last = segments[count - 1];
+		int lo = 0;
+		int hi = segmentRecords;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(last.get(mid * RECORD_SIZE + KIND) != 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		size = ((long)(count - 1) << segmentShift) + lo;
+	}
+
+	private File segmentFile(int segment){
+		return new File(directory, String.format("events-%06d.seg", segment));
+	}
+
+	private void addSegment() throws IOException {
+		int segment = segments.length;
+		RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+		try {
+			//the mapping stays valid once the file is closed
+			MappedByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long)segmentRecords * RECORD_SIZE);
+			MappedByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+			grown[segment] = buf;
+			segments = grown;
+		} finally {
+			file.close();
+		}
+	}
+
+	public File getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Records in the store
+	 */
+	public long size(){
+		return size;
+	}
+
+	/**
+	 * Appends an event log record.
+	 * @param received when the record was read from the controller
+	 * @return the record number
+	 */
+	public synchronized long append(EventLogData event, long received) throws IOException {
+		int flags = 0;
+		long time = received;
+		if(event.isTimeDataValid()){
+			time = eventTime(event, received, calendar);
+			flags = FLAG_CONTROLLER_TIME;
+		}
+		MappedByteBuffer buf = next();
+		int at = position(size);
+		buf.putLong(at + TIME, time);
+		buf.put(at + FLAGS, (byte)flags);
+		buf.putShort(at + NUMBER, (short)event.getEventNumber());
+		buf.putShort(at + TYPE, (short)event.getEventType());
+		buf.putShort(at + PARAMETER1, (short)event.getParameter1());
+		buf.putShort(at + PARAMETER2, (short)event.getParameter2());
+		return commit(buf, at, KIND_EVENT_LOG);
+	}
+
+	/**
+	 * Appends an other event notification
+	 * @return the record number
+	 */
+	public synchronized long append(OtherEvent event, long received) throws IOException {
+		MappedByteBuffer buf = next();
+		int at = position(size);
+		buf.putLong(at + TIME, received);
+		buf.putShort(at + TYPE, (short)event.getRawMessage());
+		return commit(buf, at, KIND_OTHER_EVENT);
+	}
+
+	/**
+	 * Appends a record for each object in a status message
+	 * @return the number of the first record
+	 */
+	public synchronized long append(ObjectStatusView view, long received) throws IOException {
+		long first = size;
+		int kind = view.isExtended() ? KIND_EXTENDED_STATUS : KIND_STATUS;
+		int length = Math.min(view.getRecordLength() - 2, DATA_SIZE);
+		int flags = view.getRecordLength() - 2 > DATA_SIZE ? FLAG_TRUNCATED : 0;
+		while(view.next()){
+			MappedByteBuffer buf = next();
+			int at = position(size);
+			buf.putLong(at + TIME, received);
+			buf.putShort(at + NUMBER, (short)view.getNumber());
+			buf.putShort(at + TYPE, (short)view.getStatusType());
+			buf.put(at + FLAGS, (byte)flags);
+			if(length > 0)
+				buf.putShort(at + PARAMETER1, (short)view.getByte(2));
+			if(length > 1)
+				buf.putShort(at + PARAMETER2, (short)view.getByte(3));
+			buf.put(at + LENGTH, (byte)length);
+			for(int i = 0; i < length; i++)
+				buf.put(at + DATA + i, (byte)view.getByte(2 + i));
+			commit(buf, at, kind);
+		}
+		return first;
+	}
+
+	/*
+	 * The segment the next record goes in, added if need be
+	 */
+	private MappedByteBuffer next() throws IOException {
+		if(closed)
+			throw new IOException("Store closed");
+		int segment = (int)(size >>> segmentShift);
+		if(segment == segments.length)
+			addSegment();
+		return segments[segment];
+	}
+
+	/*
+	 * The kind is written last, it is what marks a record as there
+	 */
+	private long commit(MappedByteBuffer buf, int at, int kind){
+		buf.put(at + KIND, (byte)kind);
+		return size++;
+	}
+
+	private int position(long record){
+		return (int)(record & (segmentRecords - 1)) * RECORD_SIZE;
+	}
+
+	private MappedByteBuffer segment(long record){
+		if(record < 0 || record >= size)
+			throw new IndexOutOfBoundsException("record " + record + " of " + size);
+		return segments[(int)(record >>> segmentShift)];
+	}
+
+	public long getTime(long record){
+		return segment(record).getLong(position(record) + TIME);
+	}
+
+	public int getKind(long record){
+		return segment(record).get(position(record) + KIND);
+	}
+
+	public int getFlags(long record){
+		return segment(record).get(position(record) + FLAGS) & 0xFF;
+	}
+
+	public int getNumber(long record){
+		return segment(record).getShort(position(record) + NUMBER) & 0xFFFF;
+	}
+
+	public int getType(long record){
+		return segment(record).getShort(position(record) + TYPE) & 0xFFFF;
+	}
+
+	public int getParameter1(long record){
+		return segment(record).getShort(position(record) + PARAMETER1) & 0xFFFF;
+	}
+
+	public int getParameter2(long record){
+		return segment(record).getShort(position(record) + PARAMETER2) & 0xFFFF;
+	}
+
+	/**
+	 * A byte of the status data, offset 0 is the field after the number
+	 */
+	public int getData(long record, int offset){
+		MappedByteBuffer buf = segment(record);
+		int at = position(record);
+		if(offset < 0 || offset >= buf.get(at + LENGTH))
+			throw new IndexOutOfBoundsException("offset " + offset);
+		return buf.get(at + DATA + offset) & 0xFF;
+	}
+
+	/**
+	 * Rebuilds an event log record, null if the record is of another kind
+	 */
+	public EventLogData getEventLogData(long record){
+		if(getKind(record) != KIND_EVENT_LOG)
+			return null;
+		boolean valid = (getFlags(record) & FLAG_CONTROLLER_TIME) != 0;
+		Calendar c = Calendar.getInstance(timeZone);
+		c.setTimeInMillis(getTime(record));
+		return new EventLogData(getNumber(record), valid,
+				valid ? c.get(Calendar.MONTH) + 1 : 0, valid ? c.get(Calendar.DAY_OF_MONTH) : 0,
+				valid ? c.get(Calendar.HOUR_OF_DAY) : 0, valid ? c.get(Calendar.MINUTE) : 0,
+				getType(record), getParameter1(record), getParameter2(record));
+	}
+
+	/**
+	 * The time of an event log record, in the latest year that does not
+	 * put it after the time it was received
+	 */
+	public static long eventTime(EventLogData event, long received, TimeZone timeZone){
+		return eventTime(event, received, Calendar.getInstance(timeZone));
+	}
+
+	private static long eventTime(EventLogData event, long received, Calendar c){
+		c.setTimeInMillis(received);
+		//a minute of slack for the controller's clock running ahead
+		long latest = received + 60000;
+		c.set(Calendar.MONTH, event.getMonth() - 1);
+		c.set(Calendar.DAY_OF_MONTH, event.getDay());
+		c.set(Calendar.HOUR_OF_DAY, event.getHour());
+		c.set(Calendar.MINUTE, event.getMinute());
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		//february 29th only comes every fourth year
+		for(int i = 0; i < 8 && (c.getTimeInMillis() > latest
+				|| c.get(Calendar.DAY_OF_MONTH) != event.getDay()); i++){
+			c.add(Calendar.YEAR, -1);
+			c.set(Calendar.MONTH, event.getMonth() - 1);
+			c.set(Calendar.DAY_OF_MONTH, event.getDay());
+		}
+		return c.getTimeInMillis();
+	}
+
+	/**
+	 * Records the statuses and other events a connection is notified of
+	 * from now on.  Statuses are taken from the receive buffer, so only
+	 * other events are decoded for the store.  Appends that fail are not
+	 * thrown into the connection, they are counted by
+	 * {@link #getFailedAppends()}.
+	 */
+	public void recordNotifications(Connection c){
+		c.addStatusViewListener(new ObjectStatusViewListener() {
+			public void objectStatus(ObjectStatusView view) {
+				try {
+					append(view, System.currentTimeMillis());
+				} catch (IOException e) {
+					appendFailed(e);
+				}
+			}
+		});
+		c.addNotificationListener(new NotificationListener() {
+			public void objectStausNotification(ObjectStatus status) {
+			}
+			public void otherEventNotification(OtherEventNotifications other) {
+				long now = System.currentTimeMillis();
+				try {
+					for(OtherEvent event : other.getNotifications())
+						append(event, now);
+				} catch (IOException e) {
+					appendFailed(e);
+				}
+			}
+		});
+	}
+
+	private void appendFailed(IOException e){
+		lastAppendFailure = e;
+		failedAppends.incrementAndGet();
+	}
+
+	/**
+	 * Notifications that recordNotifications could not append
+	 */
+	public long getFailedAppends(){
+		return failedAppends.get();
+	}
+
+	/**
+	 * Why the last of them failed, or null
+	 */
+	public IOException getLastAppendFailure(){
+		return lastAppendFailure;
+	}
+
+	/**
+	 * Writes what has been appended out to the files
+	 */
+	public void force(){
+		for(MappedByteBuffer buf : segments)
+			buf.force();
+	}
+
+	/**
+	 * Writes everything out, further appends fail.  The mappings are
+	 * released when they are garbage collected.
+	 */
+	public synchronized void close(){
+		if(closed)
+			return;
+		force();
+		closed = true;
+	}
+}
@@ -0,0 +1,60 @@
+/** Asynchronous notification of part changes.
+ *
+ */
+/*  Copyright (C) 2010 Michael Geddes
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.wheelycreek.jomnilinkII;
+
+import com.digitaldan.jomnilinkII.ListenerQueue;
+
+/** Passes change messages to a listener on its own thread.
+ * Each AsyncNotifyListener has a bounded ListenerQueue, so a slow listener
+ * holds up only itself.
+ */
+public class AsyncNotifyListener implements OmniNotifyListener {
+	private final OmniNotifyListener listener;
+	private final ListenerQueue queue;
+
+	public AsyncNotifyListener(OmniNotifyListener listener) {
+		this(listener, new ListenerQueue(listener.getClass().getName()));
+	}
+	public AsyncNotifyListener(OmniNotifyListener listener, ListenerQueue queue) {
+		this.listener = listener;
+		this.queue = queue;
+	}
+
+	/** The listener being called.
+	 */
+	public OmniNotifyListener getListener() {
+		return listener;
+	}
+	/** The queue, for its metrics and slow listener threshold.
+	 */
+	public ListenerQueue getQueue() {
+		return queue;
+	}
+
+	@Override
+	public void objectChangedNotification(final ChangeMessage msg) {
+		queue.execute(new Runnable() {
+			public void run() {
+				listener.objectChangedNotification(msg);
+			}
+		});
+	}
+}
+// vim: syntax=java.doxygen ts=4 sw=4 noet
@@ -54,6 +54,13 @@ public interface OmniNotifyListener {
 		/** Why is this update sent?
 		 */
 		public NotifyType notifyType;
+		/** The kind of change, one of the part's ChangeType values.
+		 * Part change messages override this with their own ChangeType.
+		 * @return The change type, or null if there isn't one.
+		 */
+		public Enum<?> getChangeType() {
+			return null;
+		}
 		/* (non-Javadoc)
 		 * @see java.lang.Object#toString()
 		 */
@@ -64,6 +71,36 @@ public interface OmniNotifyListener {
 		}
 	}
 	
+	/** All the changes one status record made to a part.
+	 * Sent instead of a ChangeMessage per change by parts that aggregate
+	 * their changes, the part's derived message carries the old and new
+	 * values.  getChangeType() is null, use isChanged().
+	 */
+	public class StatusChangeMessage extends ChangeMessage {
+		/** Bit mask(type) is set for each change type that changed.
+		 */
+		public final int changed;
+
+		public StatusChangeMessage(OmniArea area, int number, NotifyType notifyType, int changed) {
+			super(area, number, notifyType);
+			this.changed = changed;
+		}
+		/** Whether a change type is one of the changes.
+		 */
+		public boolean isChanged(Enum<?> changeType) {
+			return (changed & mask(changeType)) != 0;
+		}
+		/** The bit for a change type.
+		 */
+		public static int mask(Enum<?> changeType) {
+			return 1 << changeType.ordinal();
+		}
+		@Override
+		public String toString() {
+			return String.format("StatusChangeMessage [area=%s, number=%s, notifyType=%s, changed=0x%x]", area,
+					number, notifyType, changed);
+		}
+	}
 	
 	/** Request for an action.
 	 * This will 
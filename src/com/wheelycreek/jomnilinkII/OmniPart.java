@@ -33,6 +33,9 @@ public class OmniPart extends OmniPartBase {
 	public final OmniArea area;
 
 	private String part_name;
+	private boolean aggregate_changes;
+	/// Changes collected for a status record, -1 when not collecting.
+	private int collected_changes = -1;
 
 	/** Message indicating a name change.
 	  */
@@ -101,6 +104,43 @@ public class OmniPart extends OmniPartBase {
 		return part_name;
 	}
 	
+	/** Send one StatusChangeMessage per status record instead of a
+	 * ChangeMessage for each value it changes.
+	 */
+	public void setAggregateChanges(boolean aggregate) {
+		aggregate_changes = aggregate;
+	}
+	public boolean isAggregateChanges() {
+		return aggregate_changes;
+	}
+	/** Start collecting the changes from a status record.
+	 * Change requests are never aggregated.
+	 * @return True if the changes are being collected.
+	 */
+	protected boolean beginChanges(OmniNotifyListener.NotifyType notifyType) {
+		if (!aggregate_changes || notifyType == OmniNotifyListener.NotifyType.ChangeRequest)
+			return false;
+		collected_changes = 0;
+		return true;
+	}
+	/** Stop collecting changes.
+	 * @return The mask of the changes collected.
+	 */
+	protected int endChanges() {
+		int changes = collected_changes;
+		collected_changes = -1;
+		return (changes < 0) ? 0 : changes;
+	}
+	/** Collect a change if changes are being collected.
+	 * @return False if the change should be notified now.
+	 */
+	protected boolean collectChange(Enum<?> changeType) {
+		if (collected_changes < 0)
+			return false;
+		collected_changes |= OmniNotifyListener.StatusChangeMessage.mask(changeType);
+		return true;
+	}
+	
 	protected void notifyCmd( CommandMessage cmd ) {
 		ActionRequest rqst = new ActionRequest(area, number, cmd);
 		notify(rqst);
@@ -1,6 +1,6 @@
 package com.wheelycreek.jomnilinkII;
 
-import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class OmniPartBase {
 	
@@ -8,35 +8,50 @@ public class OmniPartBase {
 	
 	public OmniPartBase(int number) {
 		this.number = number;
-		notificationListeners = new Vector<OmniNotifyListener>();
+		notificationListeners = new CopyOnWriteArrayList<OmniNotifyListener>();
 	}
-	protected Vector<OmniNotifyListener> notificationListeners;
+	protected CopyOnWriteArrayList<OmniNotifyListener> notificationListeners;
 	
 	/** Add a listener for changes to this 'Part'.
 	 * @param listener Listener to add.
 	 */
 	public void addNotificationListener(OmniNotifyListener listener){
-		synchronized (notificationListeners) {
-			notificationListeners.add(listener);
-		}
+		notificationListeners.add(listener);
+	}
+	/** Add a listener that is called on its own thread.
+	 * @param listener Listener to add.
+	 * @return The wrapper, whose queue has the listener's metrics.
+	 */
+	public AsyncNotifyListener addAsyncNotificationListener(OmniNotifyListener listener){
+		AsyncNotifyListener async = new AsyncNotifyListener(listener);
+		notificationListeners.add(async);
+		return async;
 	}
 	/** Remove listener from the list.
+	 * Also removes (and stops) an asynchronous wrapper around the listener.
 	 * @param listener
 	 */
 	public void removeNotificationListener(OmniNotifyListener listener){
-		synchronized (notificationListeners) {
-			if(notificationListeners.contains(listener))
-				notificationListeners.remove(listener);
+		removeListener(notificationListeners, listener);
+	}
+	/** Remove a listener, or an asynchronous wrapper around it, from a list.
+	 */
+	public static void removeListener(CopyOnWriteArrayList<OmniNotifyListener> listeners, OmniNotifyListener listener){
+		for (OmniNotifyListener l : listeners) {
+			if (l == listener)
+				listeners.remove(l);
+			else if (l instanceof AsyncNotifyListener && ((AsyncNotifyListener)l).getListener() == listener) {
+				listeners.remove(l);
+				((AsyncNotifyListener)l).getQueue().shutdown();
+			}
 		}
 	}
 	/** Called by derived class property setters to notify of changes.
 	 * @param message
 	 */
 	protected void notify( OmniNotifyListener.ChangeMessage message ) {
-		synchronized (notificationListeners) {
-			for (OmniNotifyListener l : notificationListeners) {
-				l.objectChangedNotification(message);
-			}
+		for (OmniNotifyListener l : notificationListeners) {
+			l.objectChangedNotification(message);
 		}
 	}
 
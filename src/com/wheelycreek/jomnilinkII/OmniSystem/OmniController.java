@@ -18,19 +18,27 @@
  */
 package com.wheelycreek.jomnilinkII.OmniSystem;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
 
 import com.digitaldan.jomnilinkII.Connection;
 import com.digitaldan.jomnilinkII.DisconnectListener;
 import com.digitaldan.jomnilinkII.Message;
 import com.digitaldan.jomnilinkII.NotificationListener;
+import com.digitaldan.jomnilinkII.NotificationPublisher;
 import com.digitaldan.jomnilinkII.OmniInvalidResponseException;
 import com.digitaldan.jomnilinkII.OmniNotConnectedException;
 import com.digitaldan.jomnilinkII.OmniUnknownMessageTypeException;
@@ -38,6 +46,8 @@ import com.digitaldan.jomnilinkII.MessageTypes.CommandMessage;
 import com.digitaldan.jomnilinkII.MessageTypes.NameData;
 import com.digitaldan.jomnilinkII.MessageTypes.ObjectProperties;
 import com.digitaldan.jomnilinkII.MessageTypes.ObjectStatus;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectProperties;
+import com.digitaldan.jomnilinkII.MessageTypes.ReqObjectStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.OtherEventNotifications;
 import com.digitaldan.jomnilinkII.MessageTypes.SecurityCodeValidation;
 import com.digitaldan.jomnilinkII.MessageTypes.SystemFeatures;
@@ -59,7 +69,9 @@ import com.digitaldan.jomnilinkII.MessageTypes.statuses.MessageStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.statuses.Status;
 import com.digitaldan.jomnilinkII.MessageTypes.statuses.UnitStatus;
 import com.digitaldan.jomnilinkII.MessageTypes.statuses.ZoneStatus;
+import com.wheelycreek.jomnilinkII.AsyncNotifyListener;
 import com.wheelycreek.jomnilinkII.OmniNotifyListener;
+import com.wheelycreek.jomnilinkII.OmniPartBase;
 import com.wheelycreek.jomnilinkII.OmniPart;
 import com.wheelycreek.jomnilinkII.OmniPart.NameChangeMessage;
 import com.wheelycreek.jomnilinkII.Parts.OmniButton;
@@ -158,21 +170,49 @@ public class OmniController implements OmniNotifyListener {
 	/** The current key (for use with reconnect)
 	 */
 	private String omni_key;
+	/** Properties cache, if warmStart has been called.
+	 */
+	private PropertyCache propertyCache;
+	private File cacheFile;
+	/** Capacities asked for, when there is no properties cache.
+	 */
+	private int[] capacities = new int[OmniArea.values().length];
+	/** Property requests sent at a time when loading.
+	 */
+	private int propertyWindow = DEFAULT_PROPERTY_WINDOW;
+	/// Bulk loads running, and the pipeline depth to put back when the last ends.
+	private final Object pipelineLock = new Object();
+	private int bulkLoads;
+	private int savedPipelineDepth;
+	public static final int DEFAULT_PROPERTY_WINDOW = 8;
 
 	// Collections of names. Used for doing lookups.
 	protected SortedMap<OmniArea, Vector<String> > names;
+	/// Case folded names of parts, kept up to date from name changes.
+	protected OmniNameIndex nameIndex;
 
 	// Collections of Omni parts.
-	protected SortedMap<Integer, OmniZone> zones;
-	protected SortedMap<Integer, OmniSensor> sensors;
-	protected SortedMap<Integer, OmniUnit> units;
-	protected SortedMap<Integer, OmniOutput> outputs;
-	protected SortedMap<Integer, OmniDevice> devices;
-	protected SortedMap<Integer, OmniRoom> rooms;
-	protected SortedMap<Integer, OmniFlag> flags;
-	protected SortedMap<Integer, OmniButton> buttons;
-	protected SortedMap<Integer, OmniMessage> messages;
-	protected SortedMap<Integer, OmniUPBLink> upblinks;
+	protected OmniPartStore<OmniZone> zones;
+	protected OmniPartStore<OmniSensor> sensors;
+	protected OmniPartStore<OmniUnit> units;
+	protected OmniPartStore<OmniOutput> outputs;
+	protected OmniPartStore<OmniDevice> devices;
+	protected OmniPartStore<OmniRoom> rooms;
+	protected OmniPartStore<OmniFlag> flags;
+	protected OmniPartStore<OmniButton> buttons;
+	protected OmniPartStore<OmniMessage> messages;
+	protected OmniPartStore<OmniUPBLink> upblinks;
+	/// Every kind of unit by number, they share the one number space.
+	protected OmniPartStore<OmniUnit> unitIndex;
+
+	/// The last published snapshot, replaced whole.
+	private volatile OmniSnapshot snapshot = OmniSnapshot.EMPTY;
+	private final Object snapshotLock = new Object();
+	/// Parts changed since the last snapshot, by area ordinal.
+	private final BitSet[] snapshotChanges = new BitSet[OmniArea.values().length];
+	private int snapshotBatch;
+	/// Snapshots are only kept once one has been asked for.
+	private volatile boolean snapshotsEnabled;
 	
 	// Various one-off bits of system information.
 	protected SystemFeatures    sys_features;
@@ -185,17 +225,91 @@ public class OmniController implements OmniNotifyListener {
 	  * Called by constructors.
 	  */
 	private void constructArrays() {
-		notificationListeners = new Vector<OmniNotifyListener>();
-		zones   = new TreeMap<Integer, OmniZone>();
-		sensors = new TreeMap<Integer, OmniSensor>();
-		units   = new TreeMap<Integer, OmniUnit>();
-		outputs = new TreeMap<Integer, OmniOutput>();
-		devices = new TreeMap<Integer, OmniDevice>();
-		rooms   = new TreeMap<Integer, OmniRoom>();
-		flags   = new TreeMap<Integer, OmniFlag>();
-		buttons = new TreeMap<Integer, OmniButton>();
-		messages = new TreeMap<Integer, OmniMessage>();
-		upblinks = new TreeMap<Integer, OmniUPBLink>();
+		notificationListeners = new CopyOnWriteArrayList<OmniNotifyListener>();
+		zones = new OmniPartStore<OmniZone>();
+		sensors = new OmniPartStore<OmniSensor>();
+		units = new OmniPartStore<OmniUnit>();
+		outputs = new OmniPartStore<OmniOutput>();
+		devices = new OmniPartStore<OmniDevice>();
+		rooms = new OmniPartStore<OmniRoom>();
+		flags = new OmniPartStore<OmniFlag>();
+		buttons = new OmniPartStore<OmniButton>();
+		messages = new OmniPartStore<OmniMessage>();
+		upblinks = new OmniPartStore<OmniUPBLink>();
+		unitIndex = new OmniPartStore<OmniUnit>(512);
+		nameIndex = new OmniNameIndex();
+		for (int i = 0; i < snapshotChanges.length; ++i)
+			snapshotChanges[i] = new BitSet();
+	}
+
+	/** The state of the zones, units and sensors.
+	 * Snapshots are immutable and replaced whole as parts change, so the
+	 * snapshot returned is consistent and can be read from any thread
+	 * without locking.  Compare versions to see whether anything changed.
+	 * Until the first call no snapshots are built.
+	 */
+	public OmniSnapshot getSnapshot() {
+		if (!snapshotsEnabled)
+			enableSnapshots();
+		return snapshot;
+	}
+	private void enableSnapshots() {
+		synchronized (snapshotLock) {
+			if (snapshotsEnabled)
+				return;
+			snapshotsEnabled = true;
+			for (Integer number : zones.keySet())
+				snapshotChanges[OmniArea.Zone.ordinal()].set(number);
+			for (Integer number : unitIndex.keySet())
+				snapshotChanges[OmniArea.Unit.ordinal()].set(number);
+			for (Integer number : sensors.keySet())
+				snapshotChanges[OmniArea.Sensor.ordinal()].set(number);
+			if (snapshotBatch == 0)
+				publishSnapshot();
+		}
+	}
+	/** Hold back the next snapshot until endSnapshotBatch, so that the
+	 * changes from many records are published as one.
+	 */
+	protected void beginSnapshotBatch() {
+		synchronized (snapshotLock) {
+			++snapshotBatch;
+		}
+	}
+	protected void endSnapshotBatch() {
+		synchronized (snapshotLock) {
+			if (--snapshotBatch == 0)
+				publishSnapshot();
+		}
+	}
+	/** Note a change to a part, publishing a new snapshot unless batched.
+	 */
+	private void snapshotChanged(OmniArea area, int number) {
+		if (!snapshotsEnabled)
+			return;
+		switch (area) {
+		case Zone:
+		case Unit:
+		case Sensor:
+			break;
+		default:
+			return;
+		}
+		synchronized (snapshotLock) {
+			snapshotChanges[area.ordinal()].set(number);
+			if (snapshotBatch == 0)
+				publishSnapshot();
+		}
+	}
+	private void publishSnapshot() {
+		boolean changed = false;
+		for (BitSet bits : snapshotChanges)
+			changed |= !bits.isEmpty();
+		if (!changed)
+			return;
+		snapshot = snapshot.next(snapshotChanges, zones, unitIndex, sensors);
+		for (BitSet bits : snapshotChanges)
+			bits.clear();
 	}
 	
 	/** Construct an omni controller.
@@ -214,6 +328,9 @@ public class OmniController implements OmniNotifyListener {
 	
 	public void shutdown() {
 		shutting_down = true;
+		statusPublisher.close();
+		eventPublisher.close();
+		changePublisher.close();
 		if (omni != null) {
 			omni.disconnect();
 			omni = null;
@@ -231,6 +348,8 @@ public class OmniController implements OmniNotifyListener {
 	 */
 	public void connectTo(String host, int port, String key, boolean keepKey) throws UnknownHostException, IOException, Exception {
 		createConnection(host, port, key);
+		if (!host.equals(omni_host))
+			capacities = new int[OmniArea.values().length];
 		this.omni_host = host;
 		if (keepKey) {
 			this.omni_port = port;
@@ -323,7 +442,117 @@ public class OmniController implements OmniNotifyListener {
 		// (Querying for sensors will result in an error).
 		if (area == OmniArea.Sensor)
 			area = OmniArea.Zone;
-		return omni.reqObjectTypeCapacities(area.get_objtype_msg()).getCapacity();
+		int capacity = knownCapacity(area);
+		if (capacity > 0)
+			return capacity;
+		capacity = omni.reqObjectTypeCapacities(area.get_objtype_msg()).getCapacity();
+		capacities[area.ordinal()] = capacity;
+		PropertyCache cache = propertyCache;
+		if (cache != null)
+			cache.putCapacity(area, capacity);
+		return capacity;
+	}
+	/** The capacity of an area if it is known without asking the omni.
+	 * @return The capacity, or 0 if not known.
+	 */
+	private int knownCapacity(OmniArea area) {
+		if (area == OmniArea.Sensor)
+			area = OmniArea.Zone;
+		PropertyCache cache = propertyCache;
+		if (cache != null && cache.getCapacity(area) > 0)
+			return cache.getCapacity(area);
+		return capacities[area.ordinal()];
+	}
+
+	/** Set how many property requests are sent at a time when loading.
+	 * While properties load, the connection's pipeline depth is raised to
+	 * this so they are all on the wire at once, then put back.  Other
+	 * traffic only runs pipelined if the connection was set up that way.
+	 * @param window 1 to Connection.MAX_PIPELINE_DEPTH
+	 */
+	public void setPropertyWindow(int window) {
+		if (window < 1 || window > Connection.MAX_PIPELINE_DEPTH)
+			throw new IllegalArgumentException("invalid property window ("+window+")");
+		propertyWindow = window;
+	}
+	public int getPropertyWindow() {
+		return propertyWindow;
+	}
+
+	/** Load the properties of a range of objects.
+	 * Each object is asked for by number, so no request waits on the reply
+	 * to the one before, and a window of them is sent at a time.  Unnamed
+	 * objects are left out here rather than by the controller.  When
+	 * loading all of them the controller is first asked for the last named
+	 * object, as panels rarely use their whole capacity.  If it doesn't
+	 * say, every object up to the capacity is asked for.  A range is
+	 * loaded without asking for the capacity.
+	 * @param area Zone, Sensor, Unit, Button or Msg.
+	 * @param from The first object.
+	 * @param to The last object, 0 or less for all of them.  Limited to the
+	 * capacity when it is known.
+	 * @param filter3 The load filter, for units.
+	 * @return The properties of the named objects, in order.
+	 */
+	protected List<ObjectProperties> bulkLoadProperties(OmniArea area, int from, int to, int filter3) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
+		List<ObjectProperties> result = new ArrayList<ObjectProperties>();
+		if (from < 1)
+			from = 1;
+		if (to > 0) {
+			int capacity = knownCapacity(area);
+			if (capacity > 0 && to > capacity)
+				to = capacity;
+			if (to < from)
+				to = from;
+		} else {
+			int capacity = getCapacity(area);
+			to = capacity;
+			Message last = omni.sendAndReceive(new ReqObjectProperties(area.get_objtype_msg(), capacity+1, -1,
+					ObjectProperties.FILTER_1_NAMED, ObjectProperties.FILTER_2_AREA_ALL, filter3));
+			if (last.getMessageType() == Message.MESG_TYPE_OBJ_PROP)
+				to = Math.min(((ObjectProperties)last).getNumber(), capacity);
+		}
+		int window = propertyWindow;
+		Connection c = omni;
+		beginPipelined(c, window);
+		try {
+			for (int first = from; first <= to; first += window) {
+				Message[] reqs = new Message[Math.min(window, to - first + 1)];
+				for (int i = 0; i < reqs.length; ++i)
+					reqs[i] = new ReqObjectProperties(area.get_objtype_msg(), first + i, 0,
+							ObjectProperties.FILTER_1_NAMED_UNAMED, ObjectProperties.FILTER_2_AREA_ALL, filter3);
+				for (Message reply : c.sendAndReceive(reqs)) {
+					// Objects that don't exist, or aren't of the type asked for.
+					if (reply.getMessageType() == Message.MESG_TYPE_END_OF_DATA)
+						continue;
+					if (reply.getMessageType() != Message.MESG_TYPE_OBJ_PROP)
+						throw new OmniInvalidResponseException(reply);
+					ObjectProperties prop = (ObjectProperties)reply;
+					if (prop.getName() != null && prop.getName().length() > 0)
+						result.add(prop);
+				}
+			}
+		} finally {
+			endPipelined(c);
+		}
+		return result;
+	}
+	/** Raise the connection's pipeline depth to the window for a bulk load.
+	 * Loads may overlap, the depth it had is kept until the last one ends.
+	 */
+	private void beginPipelined(Connection c, int window) {
+		synchronized (pipelineLock) {
+			if (bulkLoads++ == 0)
+				savedPipelineDepth = c.getPipelineDepth();
+			if (window > c.getPipelineDepth())
+				c.setPipelineDepth(window);
+		}
+	}
+	private void endPipelined(Connection c) {
+		synchronized (pipelineLock) {
+			if (--bulkLoads == 0)
+				c.setPipelineDepth(savedPipelineDepth);
+		}
 	}
 	
 	/** Reload all properties (including names and types).
@@ -340,6 +569,185 @@ public class OmniController implements OmniNotifyListener {
 		loadButtons();
 		loadMessages();
 	}
+
+	/** Load the properties and names from a cache file, falling back to the omni.
+	 * If the file holds a cache for this host, model and firmware the object
+	 * model is populated from it straight away and then revalidated against
+	 * the omni on a background thread, which rewrites the file.  Otherwise
+	 * everything is loaded from the omni and the file written.
+	 * Call after connecting, in place of reloadProperties.
+	 * @param file The cache file.
+	 * @return true if the cache was used.
+	 */
+	public boolean warmStart(File file) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException, Exception {
+		SystemInformation info = getInfo();
+		cacheFile = file;
+		PropertyCache cache = null;
+		try {
+			cache = PropertyCache.read(file);
+		} catch (IOException e) {
+			if (getDebugChan(dcConnection))
+				System.out.println("Ignoring property cache: "+e.getMessage());
+		}
+		if (cache == null || !cache.matches(omni_host, info)) {
+			propertyCache = new PropertyCache(omni_host, info);
+			reloadProperties();
+			saveCache();
+			return false;
+		}
+		propertyCache = cache;
+		applyCache(cache);
+		Thread revalidate = new Thread("Omni property revalidation") {
+			@Override
+			public void run() {
+				try {
+					revalidateCache();
+				} catch (Exception e) {
+					if (getDebugChan(dcConnection))
+						System.out.println("Property revalidation failed: "+e.getMessage());
+				}
+			}
+		};
+		revalidate.setDaemon(true);
+		revalidate.start();
+		return true;
+	}
+	/** Populate the object model from a cache.
+	 */
+	protected void applyCache(PropertyCache cache) {
+		beginSnapshotBatch();
+		try {
+			applyCacheProperties(cache);
+		} finally {
+			endSnapshotBatch();
+		}
+	}
+	private void applyCacheProperties(PropertyCache cache) {
+		for (ObjectProperties prop : cache.getProperties(Message.OBJ_TYPE_ZONE))
+			zonePropertiesReceived((ZoneProperties)prop);
+		for (ObjectProperties prop : cache.getProperties(Message.OBJ_TYPE_AUX_SENSOR))
+			sensorPropertiesReceived((AuxSensorProperties)prop);
+		for (ObjectProperties prop : cache.getProperties(Message.OBJ_TYPE_UNIT))
+			unitPropertiesReceived((UnitProperties)prop);
+		for (ObjectProperties prop : cache.getProperties(Message.OBJ_TYPE_BUTTON))
+			buttonPropertiesReceived((ButtonProperties)prop);
+		for (ObjectProperties prop : cache.getProperties(Message.OBJ_TYPE_MESG))
+			messagePropertiesReceived((MessageProperties)prop);
+		for (OmniArea area : OmniArea.values()) {
+			Vector<String> list = cache.getNames(area);
+			if (list == null)
+				continue;
+			if (names == null)
+				names = new TreeMap< OmniArea, Vector<String> >();
+			names.put(area, list);
+			for (int i = 0; i < list.size(); ++i)
+				nameIndex.put(area, i+1, list.get(i));
+		}
+		for (OmniArea area : OmniArea.values())
+			nameIndex.setComplete(area, true);
+	}
+	/** Reload everything in the cache from the omni and rewrite the cache file.
+	 * The omni is read into a new cache without touching the parts, which
+	 * are then brought up to date from it in one snapshot batch.  Parts and
+	 * names the omni no longer has are dropped.
+	 */
+	protected void revalidateCache() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException, Exception {
+		PropertyCache old = propertyCache;
+		PropertyCache fresh = new PropertyCache(omni_host, getInfo());
+		// Capacities don't change for the same model and firmware.
+		if (old != null) {
+			for (OmniArea area : OmniArea.values()) {
+				if (old.getCapacity(area) > 0)
+					fresh.putCapacity(area, old.getCapacity(area));
+			}
+		}
+		propertyCache = fresh;
+		try {
+			cacheArea(fresh, OmniArea.Zone, ObjectProperties.FILTER_3_ANY_LOAD);
+			cacheArea(fresh, OmniArea.Sensor, ObjectProperties.FILTER_3_NONE);
+			cacheArea(fresh, OmniArea.Unit, ObjectProperties.FILTER_3_ANY_LOAD);
+			cacheArea(fresh, OmniArea.Button, ObjectProperties.FILTER_3_NONE);
+			cacheArea(fresh, OmniArea.Msg, ObjectProperties.FILTER_3_NONE);
+			if (names != null) {
+				for (OmniArea area : OmniArea.values()) {
+					if (!names.containsKey(area))
+						continue;
+					Vector<String> list = new Vector<String>();
+					load_name_vector(area, list, false);
+					fresh.putNames(area, list);
+				}
+			}
+		} catch (Exception e) {
+			propertyCache = old;
+			throw e;
+		}
+		beginSnapshotBatch();
+		try {
+			applyCacheProperties(fresh);
+			dropMissing(fresh);
+		} finally {
+			endSnapshotBatch();
+		}
+		saveCache();
+	}
+	private void cacheArea(PropertyCache cache, OmniArea area, int filter3) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
+		for (ObjectProperties prop : bulkLoadProperties(area, 1, -1, filter3))
+			cache.put(prop);
+	}
+	/** Drop the parts that have no properties in a cache.
+	 */
+	private void dropMissing(PropertyCache cache) {
+		dropMissing(OmniArea.Zone, zones, cache.getProperties(Message.OBJ_TYPE_ZONE));
+		dropMissing(OmniArea.Sensor, sensors, cache.getProperties(Message.OBJ_TYPE_AUX_SENSOR));
+		dropMissing(OmniArea.Button, buttons, cache.getProperties(Message.OBJ_TYPE_BUTTON));
+		dropMissing(OmniArea.Msg, messages, cache.getProperties(Message.OBJ_TYPE_MESG));
+		dropMissing(OmniArea.Unit, unitIndex, cache.getProperties(Message.OBJ_TYPE_UNIT));
+		// A unit may also have changed kind, keep only the one in the index.
+		dropReplacedUnits(units);
+		dropReplacedUnits(outputs);
+		dropReplacedUnits(devices);
+		dropReplacedUnits(rooms);
+		dropReplacedUnits(flags);
+	}
+	private <T extends OmniPart> void dropMissing(OmniArea area, OmniPartStore<T> store, Collection<ObjectProperties> keep) {
+		BitSet numbers = new BitSet();
+		for (ObjectProperties prop : keep)
+			numbers.set(prop.getNumber());
+		Iterator<Entry<Integer, T>> it = store.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<Integer, T> entry = it.next();
+			int number = entry.getKey();
+			if (numbers.get(number))
+				continue;
+			it.remove();
+			entry.getValue().removeNotificationListener(this);
+			nameIndex.remove(area, number);
+			snapshotChanged(area, number);
+		}
+	}
+	private <T extends OmniUnit> void dropReplacedUnits(OmniPartStore<T> store) {
+		Iterator<Entry<Integer, T>> it = store.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<Integer, T> entry = it.next();
+			if (unitIndex.get(entry.getKey().intValue()) != entry.getValue()) {
+				it.remove();
+				entry.getValue().removeNotificationListener(this);
+			}
+		}
+	}
+	/** Write the properties cache file, if warmStart has been used.
+	 */
+	public void saveCache() throws IOException {
+		if (propertyCache != null && cacheFile != null)
+			propertyCache.write(cacheFile);
+	}
+	/** Remember loaded properties in the cache.
+	 */
+	private void cacheProperties(ObjectProperties prop) {
+		PropertyCache cache = propertyCache;
+		if (cache != null)
+			cache.put(prop);
+	}
 	/** Reload the status for the parts.
 	 * @throws OmniUnknownMessageTypeException 
 	 * @throws OmniInvalidResponseException 
@@ -349,13 +757,63 @@ public class OmniController implements OmniNotifyListener {
 	public void reloadStatus() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		updateZones();
 		updateSensors();
-		updateUnits();
-		updateOutputs();
-		updateDevices();
-		updateRooms();
-		updateFlags();
+		updateAllUnits();
 		updateMessages(null);
 	}
+
+	/** Refresh the status of a set of objects.
+	 * The planner's ranges are all sent at once, and each status in the
+	 * replies is passed to the loaded object with that number.
+	 * @param area Unit, Sensor or Msg.
+	 * @param planner The objects to refresh.
+	 * @param notifyType Notification type to update the objects with.
+	 */
+	protected void refreshStatus(OmniArea area, StatusRefreshPlanner planner, NotifyType notifyType) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
+		List<int[]> ranges = planner.plan();
+		if (ranges.isEmpty())
+			return;
+		Message[] reqs = new Message[ranges.size()];
+		for (int i = 0; i < reqs.length; ++i) {
+			int[] range = ranges.get(i);
+			reqs[i] = new ReqObjectStatus(area.get_objtype_msg(), range[0], range[1]);
+		}
+		Message[] replies = omni.sendAndReceive(reqs);
+		beginSnapshotBatch();
+		try {
+			for (Message reply : replies) {
+				if (reply.getMessageType() != Message.MESG_TYPE_OBJ_STATUS)
+					throw new OmniInvalidResponseException(reply);
+				for (Status status : ((ObjectStatus)reply).getStatuses())
+					statusRefreshed(area, status, notifyType);
+			}
+		} finally {
+			endSnapshotBatch();
+		}
+	}
+
+	/** Pass a refreshed status to its object, if it is loaded.
+	 */
+	private void statusRefreshed(OmniArea area, Status status, NotifyType notifyType) {
+		switch (area) {
+		case Unit: {
+			OmniUnit unit = getUnit(status.getNumber());
+			if (unit != null)
+				unit.update((UnitStatus)status, notifyType);
+		} break;
+		case Sensor: {
+			OmniSensor sensor = sensors.get(status.getNumber());
+			if (sensor != null)
+				sensor.update((AuxSensorStatus)status, notifyType);
+		} break;
+		case Msg: {
+			OmniMessage message = messages.get(status.getNumber());
+			if (message != null)
+				message.update((MessageStatus)status, notifyType);
+		} break;
+		default:
+			break;
+		}
+	}
 	
 	/** Receive status notifications from the communications layer.
 	 * @param s The status object for the area.
@@ -366,7 +824,19 @@ public class OmniController implements OmniNotifyListener {
 			System.out.println( area.toString()+" changed");
 			System.out.println(s.toString());
 		}
+		if (statusPublisher.hasSubscribers())
+			statusPublisher.submit(s);
 				
+		beginSnapshotBatch();
+		try {
+			statusReceived(area, s);
+		} finally {
+			endSnapshotBatch();
+		}
+	}
+	/** Pass each status record to its part.
+	 */
+	private void statusReceived(OmniArea area, ObjectStatus s) {
 		switch (area) {
 		case Area:
 			break;
@@ -387,7 +857,7 @@ public class OmniController implements OmniNotifyListener {
 				MessageStatus ms = (MessageStatus)status[i];
 				messageStatusReceive(ms);
 			}
-			
+		
 		} break;
 		case Thermo:
 			break;
@@ -456,6 +926,8 @@ public class OmniController implements OmniNotifyListener {
 	  */
 	protected void otherEventNotify(OtherEventNotifications o) {
 		for(int k=0;k<o.Count();k++){
+			if (eventPublisher.hasSubscribers() && o.getNotification(k) != null)
+				eventPublisher.submit(o.getNotification(k));
 			otherEventReceive(o.getNotification(k));
 		}
 	}
@@ -505,12 +977,45 @@ public class OmniController implements OmniNotifyListener {
 	
 	
 	@SuppressWarnings("unchecked")
-	protected < T extends OmniPart > T getByName( String name, OmniArea area, SortedMap<Integer, T> partmap) throws OmniNotConnectedException, Exception {
-		T part = findNameInMap(name, partmap);
-		if (part != null)
-			return part;
+	protected < T extends OmniPart > T getByName( String name, OmniArea area, OmniPartStore<T> partmap) throws OmniNotConnectedException, Exception {
+		int number = nameIndex.find(area, name);
+		if (number >= 0) {
+			T part = partmap.get(number);
+			if (part != null)
+				return part;
+			return (T)getPart(area, number);
+		}
+		if (nameIndex.isComplete(area))
+			return null;
 		return (T)findInPartNames(name, area);
 	}
+	/** Get a unit of any kind by name.
+	 * @return The unit or null.
+	 */
+	private OmniUnit getUnitByName(String name) throws OmniNotConnectedException, Exception {
+		int number = nameIndex.find(OmniArea.Unit, name);
+		if (number >= 0) {
+			OmniUnit unit = unitIndex.get(number);
+			if (unit == null) {
+				loadUnits(number, number);
+				unit = unitIndex.get(number);
+			}
+			return unit;
+		}
+		if (nameIndex.isComplete(OmniArea.Unit))
+			return null;
+		OmniPart part = findInPartNames(name, OmniArea.Unit);
+		return (part instanceof OmniUnit) ? (OmniUnit)part : null;
+	}
+	/** Find the parts whose names start with a prefix, ignoring case.
+	 * Only names already loaded are searched; this never talks to the controller.
+	 * @param area   The part type.
+	 * @param prefix Start of the name.
+	 * @return Object numbers in ascending order.
+	 */
+	public int[] findNames(OmniArea area, String prefix) {
+		return nameIndex.findPrefix(area, prefix);
+	}
 	/** 
 	 * @param name
 	 * @param area
@@ -524,7 +1029,7 @@ public class OmniController implements OmniNotifyListener {
 		for (int idx = 0; idx < namelist.size(); ++idx)
 			if (namelist.get(idx).equalsIgnoreCase(name)) {
 				// Get the part. We can't check if the returned type is a 'T' because of type erasure!
-				return getPart(area, idx);
+				return getPart(area, idx+1);
 			}
 	
 		return null;
@@ -567,27 +1072,36 @@ public class OmniController implements OmniNotifyListener {
 	 * @throws IOException 
 	  */
 	protected void loadZones(int startZone, int endZone) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException{
-		
-		if (endZone <= 0)
-			endZone = getCapacity(OmniArea.Zone);
-		else if (endZone < startZone)
-			endZone =  startZone;
+		boolean all = (startZone <= 1 && endZone <= 0);
+		for (ObjectProperties prop : bulkLoadProperties(OmniArea.Zone, startZone, endZone, ObjectProperties.FILTER_3_ANY_LOAD))
+			zonePropertiesReceived((ZoneProperties)prop);
+		if (all)
+			nameIndex.setComplete(OmniArea.Zone, true);
+	}
 
-		int objnum = startZone-1;
-		Message m;
-		while((m = omni.reqObjectProperties(Message.OBJ_TYPE_ZONE, objnum, 1, 
-				ObjectProperties.FILTER_1_NAMED, ObjectProperties.FILTER_2_AREA_ALL, ObjectProperties.FILTER_3_ANY_LOAD)).getMessageType() 
-				== Message.MESG_TYPE_OBJ_PROP){
-			ZoneProperties zp = (ZoneProperties)m;
-			objnum = zp.getNumber();
-			OmniZone zone = zones.get(objnum);
-			if (zone == null) {
-				zone = new OmniZone(objnum);
-				zones.put(objnum, zone);
-				zone.addNotificationListener(this);
-			}
-			zone.update(zp, NotifyType.Initial);
+	/** Apply zone properties loaded from the omni or the cache.
+	 */
+	protected OmniZone zonePropertiesReceived(ZoneProperties zp) {
+		OmniZone zone = zoneFor(zp.getNumber());
+		zone.update(zp, NotifyType.Initial);
+		cacheProperties(zp);
+		return zone;
+	}
+
+	/** Get a zone object without loading it, creating it if needed.
+	 * @param zonenr The zone number.
+	 * @return the zone, listened to by this controller.
+	  */
+	protected OmniZone zoneFor(int zonenr) {
+		OmniZone zone = zones.get(zonenr);
+		if (zone == null) {
+			zone = new OmniZone(zonenr);
+			zones.put(zonenr, zone);
+			zone.addNotificationListener(this);
+			zone.setAggregateChanges(aggregateChanges);
+			snapshotChanged(OmniArea.Zone, zonenr);
 		}
+		return zone;
 	}
 
 	/** Update status of all loaded zones.
@@ -638,61 +1152,44 @@ public class OmniController implements OmniNotifyListener {
 		loadSensors(1,-1);
 	}
 	protected void loadSensors(int fromObj, int toObj) throws Exception, IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
-		int objnum = fromObj-1;
-		if (objnum < 0) objnum = 0;
-		Message m;
-		while((m = omni.reqObjectProperties(Message.OBJ_TYPE_AUX_SENSOR, objnum, 1, 
-				ObjectProperties.FILTER_1_NAMED, ObjectProperties.FILTER_2_AREA_ALL, ObjectProperties.FILTER_3_NONE)).getMessageType() 
-				== Message.MESG_TYPE_OBJ_PROP){
-			AuxSensorProperties op = (AuxSensorProperties)m; 	
-			objnum = op.getNumber();
-			OmniSensor sensor= sensors.get(objnum);
-			if (sensor == null) {
-				sensor = new OmniSensor(objnum);
-				sensors.put(objnum, sensor);
-				sensor.addNotificationListener(this);
-				sensor.update(op, NotifyType.Initial);
-			}
-			if (toObj > 0 && objnum >= toObj)
-				break;
-		}
-		
+		boolean all = (fromObj <= 1 && toObj <= 0);
+		for (ObjectProperties prop : bulkLoadProperties(OmniArea.Sensor, fromObj, toObj, ObjectProperties.FILTER_3_NONE))
+			sensorPropertiesReceived((AuxSensorProperties)prop);
+		if (all)
+			nameIndex.setComplete(OmniArea.Sensor, true);
 	}
 	
+	/** Apply sensor properties loaded from the omni or the cache.
+	 */
+	protected OmniSensor sensorPropertiesReceived(AuxSensorProperties op) {
+		int objnum = op.getNumber();
+		OmniSensor sensor= sensors.get(objnum);
+		if (sensor == null) {
+			sensor = new OmniSensor(objnum);
+			sensors.put(objnum, sensor);
+			sensor.addNotificationListener(this);
+			sensor.setAggregateChanges(aggregateChanges);
+			snapshotChanged(OmniArea.Sensor, objnum);
+		}
+		sensor.update(op, NotifyType.Initial);
+		cacheProperties(op);
+		return sensor;
+	}
+
 	/** Update the status of all loaded sensors.
 	 */
 	protected void updateSensors() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		// Update all sensor values.
-		Iterator<OmniSensor> iter = sensors.values().iterator();
-		while (iter.hasNext()) {
-			OmniSensor sense = iter.next();
-			if (sense != null) {
-				ObjectStatus status = omni.reqObjectStatus(OmniArea.Sensor.get_objtype_msg(), sense.number,sense.number);
-				AuxSensorStatus [] sensorstats = (AuxSensorStatus[])status.getStatuses();
-				if (sense.number == sensorstats[0].getNumber())
-					sense.update(sensorstats[0], NotifyType.Notify);
-			}
-		}
+		StatusRefreshPlanner planner = new StatusRefreshPlanner();
+		planner.addAll(sensors);
+		refreshStatus(OmniArea.Sensor, planner, NotifyType.Notify);
 	}
 	
 	/** Get at a unit object.
 	  This includes outputs, rooms, devices and flags.
 	  */
 	public OmniUnit getUnit(int unitNo) {
-		OmniUnit ret = units.get(unitNo);
-		if (ret == null) {
-			ret = outputs.get(unitNo);
-			if (ret == null) {
-				ret = rooms.get(unitNo);
-				if (ret == null ) {
-					ret = devices.get(unitNo);
-					if (ret == null ) {
-						ret = flags.get(unitNo);
-					}
-				}
-			}
-		}
-		return ret;
+		return unitIndex.get(unitNo);
 	}
 	/** Get a unit by  name.
 	 * @param name  Name of the unit.
@@ -701,11 +1198,7 @@ public class OmniController implements OmniNotifyListener {
 	 * @throws Exception
 	 */
 	public OmniUnit getUnit( String name) throws OmniNotConnectedException, Exception {
-		OmniPart unit;
-		unit = findInPartNames(name, OmniArea.Unit);
-		if (unit instanceof OmniUnit)
-			return (OmniUnit)unit;
-		return null;
+		return getUnitByName(name);
 	}
 	
 	/** Get an Output object by number.
@@ -734,12 +1227,9 @@ public class OmniController implements OmniNotifyListener {
 		return ret;
 	}
 	public OmniRoom getRoom(String name) throws OmniNotConnectedException, Exception {
-		OmniRoom room = findNameInMap(name, rooms);
-		if (room != null)
-			return room;
-		OmniPart part = findInPartNames(name, OmniArea.Unit);
-		if (part instanceof OmniRoom)
-			return (OmniRoom)part;
+		OmniUnit unit = getUnitByName(name);
+		if (unit instanceof OmniRoom)
+			return (OmniRoom)unit;
 		else
 			return null;
 	}
@@ -771,12 +1261,9 @@ public class OmniController implements OmniNotifyListener {
 	 * @throws Exception
 	 */
 	public OmniDevice getDevice(String name) throws OmniNotConnectedException, Exception {
-		OmniDevice device = findNameInMap(name, devices);
-		if (device != null)
-			return device;
-		OmniPart part = findInPartNames(name, OmniArea.Unit);
-		if (part instanceof OmniDevice)
-			return (OmniDevice)part;
+		OmniUnit unit = getUnitByName(name);
+		if (unit instanceof OmniDevice)
+			return (OmniDevice)unit;
 		else
 			return null;
 	}
@@ -795,12 +1282,9 @@ public class OmniController implements OmniNotifyListener {
 		return ret;
 	}
 	public OmniFlag getFlag(String name) throws OmniNotConnectedException, Exception {
-		OmniFlag flag = findNameInMap(name, flags);
-		if (flag != null)
-			return flag;
-		OmniPart part = findInPartNames(name, OmniArea.Unit);
-		if (part instanceof OmniFlag)
-			return (OmniFlag)part;
+		OmniUnit unit = getUnitByName(name);
+		if (unit instanceof OmniFlag)
+			return (OmniFlag)unit;
 		else
 			return null;
 	}
@@ -815,76 +1299,85 @@ public class OmniController implements OmniNotifyListener {
 	    Includes all types of units.
 	  */
 	protected void loadUnits( int fromUnit, int toUnit ) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
-		int objnum = fromUnit-1;
-		if (objnum < 0) objnum = 0;
-		Message m;
+		boolean all = (fromUnit <= 1 && toUnit <= 0);
 		// Get initial properties
-		while((m = omni.reqObjectProperties(OmniArea.Unit.get_objtype_msg(), objnum, 1, 
-				ObjectProperties.FILTER_1_NAMED, ObjectProperties.FILTER_2_AREA_ALL, ObjectProperties.FILTER_3_ANY_LOAD)).getMessageType() 
-				== Message.MESG_TYPE_OBJ_PROP){
-			UnitProperties uprop = (UnitProperties)m;
-			objnum = uprop.getNumber();
-			OmniUnit unit = null;
-			switch (OmniUnit.UnitType.typeAsEnum(uprop.getUnitType())) {
-				case UPB:
-				case HLCLoad:
-				case RadioRA:
-				case ViziaRFLoad:
-				case CentraLite: {
-					OmniDevice device = devices.get(objnum);
-					if (device == null) {
-						device = new OmniDevice(objnum);
-						devices.put(objnum, device);
-						device.addNotificationListener(this);
-					}
-					unit = device;
-				} break;
-				case Output: {
-					OmniOutput output = outputs.get(objnum);
-					if (output == null) {
-						output = new OmniOutput(objnum);
-						outputs.put(objnum, output);
-						output.addNotificationListener(this);
-					}
-					unit = output;
-				}break;
-				case HLCRoom:
-				case ViziaRFRoom:{
-					OmniRoom room = rooms.get(objnum);
-					if (room == null) {
-						room = new OmniRoom(objnum);
-						rooms.put(objnum, room);
-						room.addNotificationListener(this);
-					}
-					unit = room;
-				} break;
-				case Flag: {
-					OmniFlag flag = flags.get(objnum);
-					if (flag == null) {
-						flag = new OmniFlag(objnum);
-						flags.put(objnum, flag);
-						flag.addNotificationListener(this);
-					}
-					unit = flag;
-				} break;		
-				case AudioZone:
-				case AudioSource: 
-				default:{
-					unit = units.get(objnum);
-					if (unit == null) {
-						unit = new OmniUnit(objnum);
-						units.put(objnum, unit);
-						unit.addNotificationListener(this);
-					}
+		for (ObjectProperties prop : bulkLoadProperties(OmniArea.Unit, fromUnit, toUnit, ObjectProperties.FILTER_3_ANY_LOAD))
+			unitPropertiesReceived((UnitProperties)prop);
+		if (all)
+			nameIndex.setComplete(OmniArea.Unit, true);
+	}
+	
+
+	/** Apply unit properties loaded from the omni or the cache.
+	 * Creates the right kind of unit for the unit type.
+	 */
+	protected OmniUnit unitPropertiesReceived(UnitProperties uprop) {
+		int objnum = uprop.getNumber();
+		OmniUnit unit = null;
+		switch (OmniUnit.UnitType.typeAsEnum(uprop.getUnitType())) {
+			case UPB:
+			case HLCLoad:
+			case RadioRA:
+			case ViziaRFLoad:
+			case CentraLite: {
+				OmniDevice device = devices.get(objnum);
+				if (device == null) {
+					device = new OmniDevice(objnum);
+					devices.put(objnum, device);
+					device.addNotificationListener(this);
+					device.setAggregateChanges(aggregateChanges);
+				}
+				unit = device;
+			} break;
+			case Output: {
+				OmniOutput output = outputs.get(objnum);
+				if (output == null) {
+					output = new OmniOutput(objnum);
+					outputs.put(objnum, output);
+					output.addNotificationListener(this);
+					output.setAggregateChanges(aggregateChanges);
+				}
+				unit = output;
+			}break;
+			case HLCRoom:
+			case ViziaRFRoom:{
+				OmniRoom room = rooms.get(objnum);
+				if (room == null) {
+					room = new OmniRoom(objnum);
+					rooms.put(objnum, room);
+					room.addNotificationListener(this);
+					room.setAggregateChanges(aggregateChanges);
+				}
+				unit = room;
+			} break;
+			case Flag: {
+				OmniFlag flag = flags.get(objnum);
+				if (flag == null) {
+					flag = new OmniFlag(objnum);
+					flags.put(objnum, flag);
+					flag.addNotificationListener(this);
+					flag.setAggregateChanges(aggregateChanges);
+				}
+				unit = flag;
+			} break;		
+			case AudioZone:
+			case AudioSource: 
+			default:{
+				unit = units.get(objnum);
+				if (unit == null) {
+					unit = new OmniUnit(objnum);
+					units.put(objnum, unit);
+					unit.addNotificationListener(this);
+					unit.setAggregateChanges(aggregateChanges);
 				}
 			}
-			if (unit != null)
-				unit.update(uprop, NotifyType.Initial);
-			if (toUnit > 0 && objnum >= toUnit)
-				break;
 		}
+		if (unitIndex.put(objnum, unit) != unit)
+			snapshotChanged(OmniArea.Unit, objnum);
+		unit.update(uprop, NotifyType.Initial);
+		cacheProperties(uprop);
+		return unit;
 	}
-	
 
 	/** Update the status of all loaded units.
 	 * @throws OmniUnknownMessageTypeException 
@@ -892,17 +1385,17 @@ public class OmniController implements OmniNotifyListener {
 	 * @throws OmniNotConnectedException 
 	 * @throws IOException 
 	 */	
-	private <T extends OmniUnit>  void updateUnitCollection( SortedMap<Integer, T> unitsmap ) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException  {
-		Iterator<T> iter = unitsmap.values().iterator();
-		while (iter.hasNext()) {
-			OmniUnit unit = iter.next();
-			if (unit != null) {
-				ObjectStatus status = omni.reqObjectStatus(OmniArea.Unit.get_objtype_msg(), unit.number, unit.number);
-				UnitStatus [] unitstats = (UnitStatus[])status.getStatuses();
-				if (unit.number == unitstats[0].getNumber())
-					unit.update(unitstats[0], NotifyType.Notify);
-			}
-		}
+	private <T extends OmniUnit>  void updateUnitCollection( OmniPartStore<T> unitsmap ) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException  {
+		StatusRefreshPlanner planner = new StatusRefreshPlanner();
+		planner.addAll(unitsmap);
+		refreshStatus(OmniArea.Unit, planner, NotifyType.Notify);
+	}
+	/** Update the status of all loaded units, outputs, devices, rooms and flags together.
+	 */
+	public void updateAllUnits() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
+		StatusRefreshPlanner planner = new StatusRefreshPlanner();
+		planner.addAll(unitIndex);
+		refreshStatus(OmniArea.Unit, planner, NotifyType.Notify);
 	}
 	public void updateUnits() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		updateUnitCollection( units);
@@ -953,25 +1446,27 @@ public class OmniController implements OmniNotifyListener {
 	/** Load a range of buttons.
 	  */
 	protected void loadButtons(int objFrom, int objTo) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
-		int objnum = objFrom-1;
-		Message m;
+		boolean all = (objFrom <= 1 && objTo <= 0);
 		// Get initial button properties
-		while((m = omni.reqObjectProperties(OmniArea.Button.get_objtype_msg(), objnum, 1, 
-				ObjectProperties.FILTER_1_NAMED, ObjectProperties.FILTER_2_AREA_ALL, ObjectProperties.FILTER_3_NONE)).getMessageType() 
-				== Message.MESG_TYPE_OBJ_PROP){
-			ButtonProperties bprop = (ButtonProperties)m;
-			objnum = bprop.getNumber();
-			OmniButton button = buttons.get(objnum);
-			if (button == null) {
-				button = new OmniButton(objnum);
-				button.updateName(bprop.getName(), NotifyType.Initial);
-				buttons.put(objnum, button);
-				button.addNotificationListener(this);
-			}
+		for (ObjectProperties prop : bulkLoadProperties(OmniArea.Button, objFrom, objTo, ObjectProperties.FILTER_3_NONE))
+			buttonPropertiesReceived((ButtonProperties)prop);
+		if (all)
+			nameIndex.setComplete(OmniArea.Button, true);
+	}
 
-			if (objTo > 0 && objnum >= objTo )
-				break;
+	/** Apply button properties loaded from the omni or the cache.
+	 */
+	protected OmniButton buttonPropertiesReceived(ButtonProperties bprop) {
+		int objnum = bprop.getNumber();
+		OmniButton button = buttons.get(objnum);
+		if (button == null) {
+			button = new OmniButton(objnum);
+			buttons.put(objnum, button);
+			button.addNotificationListener(this);
 		}
+		button.updateName(bprop.getName(), NotifyType.Initial);
+		cacheProperties(bprop);
+		return button;
 	}
 
 	/** get a macro Message object.
@@ -1007,64 +1502,50 @@ public class OmniController implements OmniNotifyListener {
 	/** Load a range of messages.
 	  */
 	protected void loadMessages(int objFrom, int objTo) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
-		int objnum = objFrom-1;
-		Message m;
+		boolean all = (objFrom <= 1 && objTo <= 0);
+		StatusRefreshPlanner planner = new StatusRefreshPlanner();
 		// Get initial message properties
-		while((m = omni.reqObjectProperties(OmniArea.Msg.get_objtype_msg(), objnum, 1, 
-				ObjectProperties.FILTER_1_NAMED, ObjectProperties.FILTER_2_AREA_ALL, ObjectProperties.FILTER_3_NONE)).getMessageType() 
-				== Message.MESG_TYPE_OBJ_PROP){
-			MessageProperties mprop = (MessageProperties)m;
-			objnum = mprop.getNumber();
-			OmniMessage message = messages.get(objnum);
-			if (message == null) {
-				message = new OmniMessage(objnum);
-				messages.put(objnum, message);
-				message.addNotificationListener(this);
-			}
-			message.update(mprop, NotifyType.Initial);
-			// for some reason message properties don't contain their current state. 
-			updateMessage(message, NotifyType.Initial);
-			if (objTo > 0 && objnum >= objTo )
-				break;
+		for (ObjectProperties prop : bulkLoadProperties(OmniArea.Msg, objFrom, objTo, ObjectProperties.FILTER_3_NONE)) {
+			messagePropertiesReceived((MessageProperties)prop);
+			// for some reason message properties don't contain their current state,
+			// they are fetched in ranges once all are loaded.
+			planner.add(prop.getNumber());
 		}
-		
+		refreshStatus(OmniArea.Msg, planner, NotifyType.Initial);
+		if (all)
+			nameIndex.setComplete(OmniArea.Msg, true);
 	}
 	
-	/** Update the status of all loaded sensors.
+	/** Apply message properties loaded from the omni or the cache.
+	 */
+	protected OmniMessage messagePropertiesReceived(MessageProperties mprop) {
+		int objnum = mprop.getNumber();
+		OmniMessage message = messages.get(objnum);
+		if (message == null) {
+			message = new OmniMessage(objnum);
+			messages.put(objnum, message);
+			message.addNotificationListener(this);
+		}
+		message.update(mprop, NotifyType.Initial);
+		cacheProperties(mprop);
+		return message;
+	}
+
+	/** Update the status of all loaded messages.
 	 */
 	protected void updateMessages() throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
 		updateMessages(NotifyType.Notify);	
 		
 	}
-	/** Update the status of all loaded sensors.
+	/** Update the status of all loaded messages.
 	 * @param notifyType The notification type.
 	 */
 	protected void updateMessages(NotifyType notifyType) throws IOException, OmniNotConnectedException, OmniInvalidResponseException, OmniUnknownMessageTypeException {
-		// Update all sensor values.
-		Iterator<OmniMessage> iter = messages.values().iterator();
-		while (iter.hasNext()) {
-			OmniMessage msgObj = iter.next();
-			if (msgObj != null) 
-				updateMessage(msgObj, notifyType );
-		}
+		// Update all message values.
+		StatusRefreshPlanner planner = new StatusRefreshPlanner();
+		planner.addAll(messages);
+		refreshStatus(OmniArea.Msg, planner, notifyType);
 	}
-	/**  Update the status a single message object.
-	 * @param notifyType
-	 * @param msgObj
-	 * @throws IOException
-	 * @throws OmniNotConnectedException
-	 * @throws OmniInvalidResponseException
-	 * @throws OmniUnknownMessageTypeException
-	 */
-	private void updateMessage( OmniMessage msgObj, NotifyType notifyType)
-			throws IOException, OmniNotConnectedException,
-			OmniInvalidResponseException, OmniUnknownMessageTypeException {
-		ObjectStatus status = omni.reqObjectStatus(OmniArea.Msg.get_objtype_msg(), msgObj.number,msgObj.number);
-		MessageStatus [] sensorstats = (MessageStatus[])status.getStatuses();
-		if (msgObj.number == sensorstats[0].getNumber())
-			msgObj.update(sensorstats[0], notifyType);
-	}
-
 	public OmniUPBLink getUPBLink(int idx) {
 		OmniUPBLink link = upblinks.get(idx);
 		if (link == null) {
@@ -1123,9 +1604,16 @@ public class OmniController implements OmniNotifyListener {
 			Message msg = omni.receiveName(area.get_objtype_msg(), i);
 			if (msg instanceof NameData ) {
 				NameData nameMsg = (NameData)msg;
-				list.set(i, nameMsg.getName());
-			}
+				int number = nameMsg.getObjectNumber();
+				if (number >= 1 && number <= max_number)
+					list.set(number-1, nameMsg.getName());
+				nameIndex.put(area, number, nameMsg.getName());
+				// Names come back for the next named object.
+				i = Math.max(i, number-1);
+			} else
+				break; // No more names.
 		}
+		nameIndex.setComplete(area, true);
 	}
 	protected Vector<String> create_loaded_name_vector(OmniArea area) throws OmniNotConnectedException, Exception {
 		Vector<String> result = new Vector<String>();
@@ -1140,6 +1628,8 @@ public class OmniController implements OmniNotifyListener {
 			// Really shouldn't get this
 			e.printStackTrace();
 		}
+		if (propertyCache != null)
+			propertyCache.putNames(area, result);
 		return result;
 	}
 	
@@ -1174,6 +1664,7 @@ public class OmniController implements OmniNotifyListener {
 	protected void setName( OmniArea area, int index, String name ) throws OmniNotConnectedException, Exception {
 		boolean force = false;
 
+		nameIndex.put(area, index, name);
 		// Update the part if possible.
 		OmniPart part = getPart(area, index);
 		if (part == null)
@@ -1350,25 +1841,111 @@ public class OmniController implements OmniNotifyListener {
 		}
 	}
 
-	private Vector<OmniNotifyListener> notificationListeners;
+	private CopyOnWriteArrayList<OmniNotifyListener> notificationListeners;
+	private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+	private boolean aggregateChanges;
+	private final NotificationPublisher<ObjectStatus> statusPublisher = new NotificationPublisher<ObjectStatus>();
+	private final NotificationPublisher<OtherEvent> eventPublisher = new NotificationPublisher<OtherEvent>();
+	private final NotificationPublisher<ChangeMessage> changePublisher = new NotificationPublisher<ChangeMessage>();
 	
 	/** Add a notification handler for property changes.
 	 * @param listener
 	 */
 	public void addNotificationListener(OmniNotifyListener listener){
-		synchronized (notificationListeners) {
-			notificationListeners.add(listener);
-		}
+		notificationListeners.add(listener);
+	}
+	/** Add a notification handler that is called on its own thread.
+	 * A slow handler added this way does not hold up other handlers or the
+	 * connection.
+	 * @param listener
+	 * @return The wrapper, whose queue has the handler's metrics.
+	 */
+	public AsyncNotifyListener addAsyncNotificationListener(OmniNotifyListener listener){
+		AsyncNotifyListener async = new AsyncNotifyListener(listener);
+		notificationListeners.add(async);
+		return async;
 	}
 	
-	/** Remove the notification handler.
+	/** Remove the notification handler, or the asynchronous wrapper around it.
 	 * @param listener
 	 */
 	public void removeNotificationListener(OmniNotifyListener listener){
-		synchronized (notificationListeners) {
-			if(notificationListeners.contains(listener))
-				notificationListeners.remove(listener);
-		}
+		OmniPartBase.removeListener(notificationListeners, listener);
+	}
+
+	/** Have zones, units and sensors send one StatusChangeMessage per
+	 * status record, with a mask of what changed and the old and new
+	 * values, instead of a ChangeMessage for each value it changes.
+	 * Applies to the parts already loaded and those loaded later.
+	 */
+	public void setAggregateChanges(boolean aggregate) {
+		aggregateChanges = aggregate;
+		for (OmniZone zone : zones.values())
+			zone.setAggregateChanges(aggregate);
+		for (OmniSensor sensor : sensors.values())
+			sensor.setAggregateChanges(aggregate);
+		for (OmniUnit unit : unitIndex.values())
+			unit.setAggregateChanges(aggregate);
+	}
+	public boolean isAggregateChanges() {
+		return aggregateChanges;
+	}
+
+	/** Subscribe to the changes of an area.
+	 * Unlike a notification handler, the listener is only called for
+	 * changes it subscribed to.
+	 * @param listener  Listener to call.
+	 * @param area  The area.
+	 * @param changeTypes Change types wanted (eg OmniZone.ChangeType.Status), none for all.
+	 * @return The subscription, to unsubscribe with.
+	 */
+	public SubscriptionIndex.Subscription subscribe(OmniNotifyListener listener, OmniArea area, Enum<?>... changeTypes) {
+		return subscriptions.subscribe(listener, area, 0, 0, changeTypes);
+	}
+	/** Subscribe to the changes of a range of parts.
+	 * @param listener  Listener to call.
+	 * @param area  The area.
+	 * @param from  First part number.
+	 * @param to    Last part number, limited to the capacity of the area if known.
+	 * @param changeTypes Change types wanted, none for all.
+	 * @return The subscription, to unsubscribe with.
+	 */
+	public SubscriptionIndex.Subscription subscribe(OmniNotifyListener listener, OmniArea area, int from, int to, Enum<?>... changeTypes) {
+		if (from < 1)
+			throw new IllegalArgumentException("Part numbers start at 1");
+		int capacity = knownCapacity(area);
+		if (capacity > 0 && to > capacity)
+			to = Math.max(from, capacity);
+		return subscriptions.subscribe(listener, area, from, to, changeTypes);
+	}
+	public void unsubscribe(SubscriptionIndex.Subscription subscription) {
+		subscriptions.unsubscribe(subscription);
+	}
+	/** Remove all the subscriptions of a listener.
+	 */
+	public void unsubscribe(OmniNotifyListener listener) {
+		subscriptions.unsubscribe(listener);
+	}
+	
+	/** Status notifications as a reactive stream.
+	 * Unlike the connection's publisher this one lasts across reconnects and
+	 * only completes on shutdown.  Subscribers without demand have
+	 * notifications buffered for them, the oldest being dropped, and never
+	 * hold up the connection.
+	 */
+	public Flow.Publisher<ObjectStatus> getStatusPublisher() {
+		return statusPublisher;
+	}
+	/** Other events as a reactive stream, one item per event.
+	 */
+	public Flow.Publisher<OtherEvent> getOtherEventPublisher() {
+		return eventPublisher;
+	}
+	/** Change notifications from the parts as a reactive stream.
+	 * Change requests on their way to the omni are not published.
+	 */
+	public Flow.Publisher<ChangeMessage> getChangePublisher() {
+		return changePublisher;
 	}
 	
 	/** Pass on an command from and ActionRequest message.
@@ -1455,6 +2032,8 @@ public class OmniController implements OmniNotifyListener {
 	
 	@Override
 	public void objectChangedNotification(ChangeMessage msg) {
+		if (msg instanceof NameChangeMessage)
+			nameIndex.put(msg.area, msg.number, ((NameChangeMessage)msg).name);
 		if (getDebugChan(dcChildMessage))
 			try {
 				String areaname = getName(msg.area, msg.number);
@@ -1483,11 +2062,13 @@ public class OmniController implements OmniNotifyListener {
 			}
 		}
 		else {
-			synchronized (notificationListeners) {
-				for (OmniNotifyListener l : notificationListeners) {
-					l.objectChangedNotification(msg);
-				}
+			snapshotChanged(msg.area, msg.number);
+			for (OmniNotifyListener l : notificationListeners) {
+				l.objectChangedNotification(msg);
 			}
+			subscriptions.dispatch(msg);
+			if (changePublisher.hasSubscribers())
+				changePublisher.submit(msg);
 		}
 	}
 
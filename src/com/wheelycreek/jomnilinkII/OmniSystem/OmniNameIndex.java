@@ -0,0 +1,199 @@
+/** Name lookup index for omni parts.
+ *
+ */
+/*  Copyright (C) 2010 Michael Geddes
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.wheelycreek.jomnilinkII.OmniSystem;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+
+/** Maps part names to object numbers, per area.
+ *
+ * Names are case folded.  Whole names are found through a hash map and
+ * prefixes through a trie whose nodes each keep the numbers of every name
+ * below them, so a lookup costs the length of the name or prefix plus the
+ * matches returned.  Where several parts share a name the lowest number
+ * wins, as it did for the old linear scans.
+ */
+public class OmniNameIndex {
+	/// A trie node.
+	private static class Node {
+		HashMap<Character, Node> children;
+		/// Numbers whose name starts with the path to this node.
+		final BitSet below = new BitSet();
+		/// Numbers whose name ends at this node.
+		final BitSet here = new BitSet();
+
+		Node child(char c, boolean create) {
+			Node node = (children == null) ? null : children.get(c);
+			if (node == null && create) {
+				if (children == null)
+					children = new HashMap<Character, Node>();
+				node = new Node();
+				children.put(c, node);
+			}
+			return node;
+		}
+	}
+
+	/// The names for one area.
+	private static class AreaNames {
+		String[] byNumber = new String[32];
+		final HashMap<String, Node> exact = new HashMap<String, Node>();
+		final Node root = new Node();
+		/// Every named part in the area has been indexed.
+		boolean complete;
+	}
+
+	private final AreaNames[] areas = new AreaNames[OmniArea.values().length];
+
+	/** The folded form of a name, as it is indexed.
+	 */
+	public static String fold(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+
+	private AreaNames areaNames(OmniArea area, boolean create) {
+		AreaNames names = areas[area.ordinal()];
+		if (names == null && create) {
+			names = new AreaNames();
+			areas[area.ordinal()] = names;
+		}
+		return names;
+	}
+
+	/** Set the name of a part.
+	 * @param name The name, null or empty to remove it.
+	 */
+	public synchronized void put(OmniArea area, int number, String name) {
+		if (number < 0)
+			return;
+		if (name != null && name.trim().length() == 0)
+			name = null;
+		AreaNames names = areaNames(area, name != null);
+		if (names == null)
+			return; // Nothing to remove.
+		String old = (number < names.byNumber.length) ? names.byNumber[number] : null;
+		if (old != null) {
+			if (name != null && old.equals(name))
+				return;
+			unlink(names, number, fold(old));
+		}
+		if (number >= names.byNumber.length) {
+			String[] byNumber = new String[Math.max(number + 1, names.byNumber.length * 2)];
+			System.arraycopy(names.byNumber, 0, byNumber, 0, names.byNumber.length);
+			names.byNumber = byNumber;
+		}
+		names.byNumber[number] = name;
+		if (name != null)
+			link(names, number, fold(name));
+	}
+	/** Remove the name of a part.
+	 */
+	public void remove(OmniArea area, int number) {
+		put(area, number, null);
+	}
+	/** Forget every name in an area.
+	 */
+	public synchronized void clear(OmniArea area) {
+		areas[area.ordinal()] = null;
+	}
+
+	private static void link(AreaNames names, int number, String key) {
+		Node node = names.root;
+		node.below.set(number);
+		for (int i = 0; i < key.length(); ++i) {
+			node = node.child(key.charAt(i), true);
+			node.below.set(number);
+		}
+		node.here.set(number);
+		names.exact.put(key, node);
+	}
+	private static void unlink(AreaNames names, int number, String key) {
+		Node node = names.root;
+		node.below.clear(number);
+		for (int i = 0; i < key.length() && node != null; ++i) {
+			node = node.child(key.charAt(i), false);
+			if (node != null)
+				node.below.clear(number);
+		}
+		if (node != null) {
+			node.here.clear(number);
+			if (node.here.isEmpty())
+				names.exact.remove(key);
+		}
+	}
+
+	/** Get the indexed name of a part.
+	 * @return The name or null.
+	 */
+	public synchronized String getName(OmniArea area, int number) {
+		AreaNames names = areaNames(area, false);
+		if (names == null || number < 0 || number >= names.byNumber.length)
+			return null;
+		return names.byNumber[number];
+	}
+	/** Whether any names are indexed for an area.
+	 */
+	public synchronized boolean isEmpty(OmniArea area) {
+		AreaNames names = areaNames(area, false);
+		return names == null || names.root.below.isEmpty();
+	}
+
+	/** Mark an area as holding every named part, so a miss is final.
+	 */
+	public synchronized void setComplete(OmniArea area, boolean complete) {
+		areaNames(area, true).complete = complete;
+	}
+	public synchronized boolean isComplete(OmniArea area) {
+		AreaNames names = areaNames(area, false);
+		return names != null && names.complete;
+	}
+
+	/** Find a part by name, ignoring case.
+	 * @return The lowest object number with that name, or -1.
+	 */
+	public synchronized int find(OmniArea area, String name) {
+		AreaNames names = areaNames(area, false);
+		if (names == null || name == null)
+			return -1;
+		Node node = names.exact.get(fold(name));
+		return (node == null) ? -1 : node.here.nextSetBit(0);
+	}
+	/** Find all parts whose name starts with a prefix, ignoring case.
+	 * @return The object numbers in ascending order.
+	 */
+	public synchronized int[] findPrefix(OmniArea area, String prefix) {
+		AreaNames names = areaNames(area, false);
+		if (names == null || prefix == null)
+			return new int[0];
+		String key = prefix.toLowerCase(Locale.ROOT);
+		Node node = names.root;
+		for (int i = 0; i < key.length() && node != null; ++i)
+			node = node.child(key.charAt(i), false);
+		if (node == null)
+			return new int[0];
+		int[] result = new int[node.below.cardinality()];
+		int idx = 0;
+		for (int n = node.below.nextSetBit(0); n >= 0; n = node.below.nextSetBit(n + 1))
+			result[idx++] = n;
+		return result;
+	}
+}
+// vim: syntax=java.doxygen ts=4 sw=4 noet
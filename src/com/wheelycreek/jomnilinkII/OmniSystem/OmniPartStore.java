@@ -0,0 +1,264 @@
+/** Array backed store of omni parts.
+ *
+ */
+/*  Copyright (C) 2010 Michael Geddes
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.wheelycreek.jomnilinkII.OmniSystem;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/** A sorted map of parts indexed directly by object number.
+ *
+ * Object numbers are small and dense (bounded by the controller's capacity
+ * for the type), so parts are kept in an array slot per number.  get(int)
+ * and put(int, T) neither box nor search.  The array grows as needed.
+ *
+ * subMap, headMap and tailMap return views backed by the same array.
+ */
+public class OmniPartStore<T> extends AbstractMap<Integer, T> implements SortedMap<Integer, T> {
+	/// The slots shared between a store and its views.
+	private static class Slots {
+		Object[] parts;
+		int count;
+		int modCount;
+		Slots(int capacity) {
+			parts = new Object[capacity];
+		}
+	}
+
+	private static final int DEFAULT_CAPACITY = 32;
+
+	private final Slots slots;
+	/// First number in this view.
+	private final int from;
+	/// One past the last number in this view.
+	private final int to;
+
+	public OmniPartStore() {
+		this(DEFAULT_CAPACITY);
+	}
+	/** Construct a store.
+	 * @param capacity Initial highest object number + 1.
+	 */
+	public OmniPartStore(int capacity) {
+		this(new Slots(capacity < 1 ? 1 : capacity), 0, Integer.MAX_VALUE);
+	}
+	private OmniPartStore(Slots slots, int from, int to) {
+		this.slots = slots;
+		this.from = from;
+		this.to = to;
+	}
+
+	/** Make room for object numbers up to maxNumber without growing later.
+	 */
+	public void ensureCapacity(int maxNumber) {
+		if (maxNumber >= slots.parts.length) {
+			Object[] parts = new Object[Math.max(maxNumber + 1, slots.parts.length * 2)];
+			System.arraycopy(slots.parts, 0, parts, 0, slots.parts.length);
+			slots.parts = parts;
+		}
+	}
+
+	private boolean inRange(int number) {
+		return number >= from && number < to;
+	}
+
+	/** Get a part by number.
+	 * @return The part or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int number) {
+		Object[] parts = slots.parts;
+		if (number < 0 || number >= parts.length || !inRange(number))
+			return null;
+		return (T)parts[number];
+	}
+	/** Store a part by number.
+	 * @return The part previously stored there, or null.
+	 */
+	public T put(int number, T part) {
+		if (part == null)
+			throw new NullPointerException("part");
+		if (number < 0 || !inRange(number))
+			throw new IllegalArgumentException("Object number out of range: " + number);
+		ensureCapacity(number);
+		T old = get(number);
+		slots.parts[number] = part;
+		if (old == null)
+			++slots.count;
+		++slots.modCount;
+		return old;
+	}
+	/** Remove a part by number.
+	 * @return The part removed, or null.
+	 */
+	public T remove(int number) {
+		T old = get(number);
+		if (old != null) {
+			slots.parts[number] = null;
+			--slots.count;
+			++slots.modCount;
+		}
+		return old;
+	}
+	public boolean containsKey(int number) {
+		return get(number) != null;
+	}
+
+	/** Next number at or after number that holds a part.
+	 * @return The number, or -1 if there are none.
+	 */
+	public int nextNumber(int number) {
+		Object[] parts = slots.parts;
+		int end = Math.min(parts.length, to);
+		for (int n = Math.max(number, from); n < end; ++n)
+			if (parts[n] != null)
+				return n;
+		return -1;
+	}
+	/** Last number before number that holds a part.
+	 * @return The number, or -1 if there are none.
+	 */
+	private int previousNumber(int number) {
+		Object[] parts = slots.parts;
+		for (int n = Math.min(number, Math.min(parts.length, to)) - 1; n >= from; --n)
+			if (parts[n] != null)
+				return n;
+		return -1;
+	}
+
+	@Override
+	public T get(Object key) {
+		return (key instanceof Integer) ? get(((Integer)key).intValue()) : null;
+	}
+	@Override
+	public T put(Integer key, T value) {
+		return put(key.intValue(), value);
+	}
+	@Override
+	public T remove(Object key) {
+		return (key instanceof Integer) ? remove(((Integer)key).intValue()) : null;
+	}
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+	@Override
+	public int size() {
+		if (from == 0 && to == Integer.MAX_VALUE)
+			return slots.count;
+		int size = 0;
+		for (int n = nextNumber(from); n >= 0; n = nextNumber(n + 1))
+			++size;
+		return size;
+	}
+	@Override
+	public boolean isEmpty() {
+		return nextNumber(from) < 0;
+	}
+	@Override
+	public void clear() {
+		Object[] parts = slots.parts;
+		for (int n = nextNumber(from); n >= 0; n = nextNumber(n + 1)) {
+			parts[n] = null;
+			--slots.count;
+		}
+		++slots.modCount;
+	}
+
+	public Comparator<? super Integer> comparator() {
+		return null;
+	}
+	public Integer firstKey() {
+		int n = nextNumber(from);
+		if (n < 0)
+			throw new NoSuchElementException();
+		return n;
+	}
+	public Integer lastKey() {
+		int n = previousNumber(to);
+		if (n < 0)
+			throw new NoSuchElementException();
+		return n;
+	}
+	public SortedMap<Integer, T> subMap(Integer fromKey, Integer toKey) {
+		if (fromKey > toKey)
+			throw new IllegalArgumentException("fromKey > toKey");
+		return new OmniPartStore<T>(slots, Math.max(from, fromKey), Math.min(to, toKey));
+	}
+	public SortedMap<Integer, T> headMap(Integer toKey) {
+		return new OmniPartStore<T>(slots, from, Math.max(from, Math.min(to, toKey)));
+	}
+	public SortedMap<Integer, T> tailMap(Integer fromKey) {
+		return new OmniPartStore<T>(slots, Math.min(to, Math.max(from, fromKey)), to);
+	}
+
+	@Override
+	public Set<Entry<Integer, T>> entrySet() {
+		return new AbstractSet<Entry<Integer, T>>() {
+			@Override
+			public Iterator<Entry<Integer, T>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				return OmniPartStore.this.size();
+			}
+			@Override
+			public void clear() {
+				OmniPartStore.this.clear();
+			}
+		};
+	}
+
+	/// Walks the occupied slots in number order.
+	private class EntryIterator implements Iterator<Entry<Integer, T>> {
+		private int next = nextNumber(from);
+		private int last = -1;
+		private int expectedModCount = slots.modCount;
+
+		public boolean hasNext() {
+			return next >= 0;
+		}
+		public Entry<Integer, T> next() {
+			if (next < 0)
+				throw new NoSuchElementException();
+			if (slots.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			last = next;
+			next = nextNumber(next + 1);
+			return new SimpleImmutableEntry<Integer, T>(last, get(last));
+		}
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			if (slots.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			OmniPartStore.this.remove(last);
+			expectedModCount = slots.modCount;
+			last = -1;
+		}
+	}
+}
+// vim: syntax=java.doxygen ts=4 sw=4 noet
@@ -0,0 +1,217 @@
+/** Immutable snapshot of the state of an omni controller.
+ *
+ */
+/*  Copyright (C) 2010 Michael Geddes
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.wheelycreek.jomnilinkII.OmniSystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import com.wheelycreek.jomnilinkII.Parts.OmniSensor;
+import com.wheelycreek.jomnilinkII.Parts.OmniUnit;
+import com.wheelycreek.jomnilinkII.Parts.OmniZone;
+
+/** The zones, units and sensors of a controller as they were at one version.
+ *
+ * A snapshot never changes.  The controller builds the next one from the
+ * last, sharing the arrays of the areas that did not change, so a reader
+ * holding a snapshot sees one consistent state of the whole house without
+ * any locking.
+ */
+public class OmniSnapshot {
+	/** A zone as it was.
+	 */
+	public static class ZoneState {
+		public final int number;
+		public final String name;
+		public final OmniZone.ZoneType zoneType;
+		public final int area;
+		public final OmniZone.SecureStatus status;
+		public final OmniZone.LatchAlarmStatus latchAlarm;
+		public final OmniZone.AlarmStatus alarm;
+		public final int loop;
+
+		public ZoneState(OmniZone zone) {
+			number = zone.number;
+			name = zone.getName();
+			zoneType = zone.getZoneType();
+			area = zone.getArea();
+			status = zone.getZoneStatus();
+			latchAlarm = zone.getLatchAlarmStatus();
+			alarm = zone.getAlarmStatus();
+			loop = zone.getLoopValue();
+		}
+		@Override
+		public String toString() {
+			return String.format("ZoneState [number=%d, name=%s, status=%s, latch_alarm=%s, alarm=%s]",
+					number, name, status, latchAlarm, alarm);
+		}
+	}
+	/** A unit as it was.
+	 */
+	public static class UnitState {
+		public final int number;
+		public final String name;
+		public final OmniUnit.UnitVariant variant;
+		public final OmniUnit.UnitType unitType;
+		public final int rawStatus;
+		public final int value;
+		public final int timeSec;
+
+		public UnitState(OmniUnit unit) {
+			number = unit.number;
+			name = unit.getName();
+			variant = unit.getVariant();
+			unitType = unit.getUnitType();
+			rawStatus = unit.getRawStatus();
+			value = unit.getValue();
+			timeSec = unit.getTimeSec();
+		}
+		@Override
+		public String toString() {
+			return String.format("UnitState [number=%d, name=%s, variant=%s, raw_status=%d, value=%d]",
+					number, name, variant, rawStatus, value);
+		}
+	}
+	/** A sensor as it was.
+	 */
+	public static class SensorState {
+		public final int number;
+		public final String name;
+		public final OmniSensor.SensorType sensorType;
+		public final boolean triggerOutput;
+		public final Temperature temperature;
+		public final Temperature heatSetPoint;
+		public final Temperature coolSetPoint;
+
+		public SensorState(OmniSensor sensor) {
+			number = sensor.number;
+			name = sensor.getName();
+			sensorType = sensor.getSensorType();
+			triggerOutput = sensor.isTriggerOutput();
+			temperature = sensor.getTemperature();
+			heatSetPoint = sensor.getHeatSetPoint();
+			coolSetPoint = sensor.getCoolSetPoint();
+		}
+		@Override
+		public String toString() {
+			return String.format("SensorState [number=%d, name=%s, temperature=%s]", number, name, temperature);
+		}
+	}
+
+	/** The snapshot before anything is loaded.
+	 */
+	public static final OmniSnapshot EMPTY = new OmniSnapshot(0, new ZoneState[0], new UnitState[0], new SensorState[0]);
+
+	private final long version;
+	// Indexed by part number, null where there is no part.
+	private final ZoneState[] zones;
+	private final UnitState[] units;
+	private final SensorState[] sensors;
+
+	private OmniSnapshot(long version, ZoneState[] zones, UnitState[] units, SensorState[] sensors) {
+		this.version = version;
+		this.zones = zones;
+		this.units = units;
+		this.sensors = sensors;
+	}
+
+	/** The version, one more than the snapshot this was built from.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public ZoneState getZone(int number) {
+		return (number >= 0 && number < zones.length) ? zones[number] : null;
+	}
+	public UnitState getUnit(int number) {
+		return (number >= 0 && number < units.length) ? units[number] : null;
+	}
+	public SensorState getSensor(int number) {
+		return (number >= 0 && number < sensors.length) ? sensors[number] : null;
+	}
+	/** The zones in number order.
+	 */
+	public List<ZoneState> getZones() {
+		return present(zones);
+	}
+	/** The units in number order.
+	 */
+	public List<UnitState> getUnits() {
+		return present(units);
+	}
+	/** The sensors in number order.
+	 */
+	public List<SensorState> getSensors() {
+		return present(sensors);
+	}
+	private static <T> List<T> present(T[] states) {
+		List<T> result = new ArrayList<T>();
+		for (T state : states)
+			if (state != null)
+				result.add(state);
+		return Collections.unmodifiableList(result);
+	}
+
+	/** Build the next snapshot.
+	 * Only the areas with changed parts are copied.
+	 * @param changed The changed part numbers, indexed by area ordinal.
+	 * @param zoneStore The zones.
+	 * @param unitStore The units of every variant.
+	 * @param sensorStore The sensors.
+	 */
+	OmniSnapshot next(BitSet[] changed, OmniPartStore<OmniZone> zoneStore,
+			OmniPartStore<OmniUnit> unitStore, OmniPartStore<OmniSensor> sensorStore) {
+		ZoneState[] z = zones;
+		BitSet bits = changed[OmniArea.Zone.ordinal()];
+		if (!bits.isEmpty()) {
+			z = copy(z, bits);
+			for (int n = bits.nextSetBit(0); n >= 0; n = bits.nextSetBit(n + 1)) {
+				OmniZone zone = zoneStore.get(n);
+				z[n] = (zone == null) ? null : new ZoneState(zone);
+			}
+		}
+		UnitState[] u = units;
+		bits = changed[OmniArea.Unit.ordinal()];
+		if (!bits.isEmpty()) {
+			u = copy(u, bits);
+			for (int n = bits.nextSetBit(0); n >= 0; n = bits.nextSetBit(n + 1)) {
+				OmniUnit unit = unitStore.get(n);
+				u[n] = (unit == null) ? null : new UnitState(unit);
+			}
+		}
+		SensorState[] s = sensors;
+		bits = changed[OmniArea.Sensor.ordinal()];
+		if (!bits.isEmpty()) {
+			s = copy(s, bits);
+			for (int n = bits.nextSetBit(0); n >= 0; n = bits.nextSetBit(n + 1)) {
+				OmniSensor sensor = sensorStore.get(n);
+				s[n] = (sensor == null) ? null : new SensorState(sensor);
+			}
+		}
+		return new OmniSnapshot(version + 1, z, u, s);
+	}
+	private static <T> T[] copy(T[] states, BitSet changed) {
+		return Arrays.copyOf(states, Math.max(states.length, changed.length()));
+	}
+}
+// vim: syntax=java.doxygen ts=4 sw=4 noet
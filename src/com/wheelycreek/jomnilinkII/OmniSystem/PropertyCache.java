@@ -0,0 +1,278 @@
+/** On disk cache of the properties of an omni controller.
+ *
+ */
+/*  Copyright (C) 2010 Michael Geddes
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.wheelycreek.jomnilinkII.OmniSystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import com.digitaldan.jomnilinkII.Message;
+import com.digitaldan.jomnilinkII.MessageTypes.ObjectProperties;
+import com.digitaldan.jomnilinkII.MessageTypes.SystemInformation;
+import com.digitaldan.jomnilinkII.MessageTypes.properties.AuxSensorProperties;
+import com.digitaldan.jomnilinkII.MessageTypes.properties.ButtonProperties;
+import com.digitaldan.jomnilinkII.MessageTypes.properties.MessageProperties;
+import com.digitaldan.jomnilinkII.MessageTypes.properties.UnitProperties;
+import com.digitaldan.jomnilinkII.MessageTypes.properties.ZoneProperties;
+
+/** Decoded properties, names and capacities of one controller.
+ *
+ * The cache belongs to a host and a model and firmware version, a cache
+ * read for anything else should be thrown away.  Zone, unit, sensor,
+ * button and message properties are kept; others are ignored.
+ */
+public class PropertyCache {
+	private static final int MAGIC = 0x4f4d4e43; // "OMNC"
+	private static final int VERSION = 1;
+
+	private final String host;
+	private final int model;
+	private final int major;
+	private final int minor;
+	private final int revision;
+
+	/// Properties keyed by object type << 16 | number.
+	private final SortedMap<Integer, ObjectProperties> properties = new TreeMap<Integer, ObjectProperties>();
+	private final SortedMap<OmniArea, Vector<String> > names = new TreeMap<OmniArea, Vector<String> >();
+	private final int[] capacities = new int[OmniArea.values().length];
+
+	/** Construct an empty cache.
+	 * @param host The controller host.
+	 * @param info The controller's model and firmware.
+	 */
+	public PropertyCache(String host, SystemInformation info) {
+		this(host, info.getModel(), info.getMajor(), info.getMinor(), info.getRevision());
+	}
+	private PropertyCache(String host, int model, int major, int minor, int revision) {
+		this.host = host;
+		this.model = model;
+		this.major = major;
+		this.minor = minor;
+		this.revision = revision;
+	}
+
+	/** Whether this cache is for a controller.
+	 */
+	public boolean matches(String host, SystemInformation info) {
+		return this.host.equals(host) && model == info.getModel() && major == info.getMajor()
+			&& minor == info.getMinor() && revision == info.getRevision();
+	}
+
+	private static boolean isCached(int objectType) {
+		switch (objectType) {
+		case Message.OBJ_TYPE_ZONE:
+		case Message.OBJ_TYPE_UNIT:
+		case Message.OBJ_TYPE_AUX_SENSOR:
+		case Message.OBJ_TYPE_BUTTON:
+		case Message.OBJ_TYPE_MESG:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/** Remember the properties of an object.
+	 */
+	public synchronized void put(ObjectProperties prop) {
+		if (isCached(prop.getObjectType()))
+			properties.put((prop.getObjectType() << 16) | prop.getNumber(), prop);
+	}
+	/** Get the properties of every object of a type, in number order.
+	 */
+	public synchronized Collection<ObjectProperties> getProperties(int objectType) {
+		return new Vector<ObjectProperties>(properties.subMap(objectType << 16, (objectType + 1) << 16).values());
+	}
+
+	public synchronized void putNames(OmniArea area, Vector<String> list) {
+		names.put(area, new Vector<String>(list));
+	}
+	/** Get the names for an area.
+	 * @return A copy of the names, or null if they are not cached.
+	 */
+	public synchronized Vector<String> getNames(OmniArea area) {
+		Vector<String> list = names.get(area);
+		return (list == null) ? null : new Vector<String>(list);
+	}
+
+	public synchronized void putCapacity(OmniArea area, int capacity) {
+		capacities[area.ordinal()] = capacity;
+	}
+	/** Get the capacity of an area.
+	 * @return The capacity, or 0 if it is not cached.
+	 */
+	public synchronized int getCapacity(OmniArea area) {
+		return capacities[area.ordinal()];
+	}
+
+	/** Read a cache file.
+	 * @return The cache, or null if there is no file.
+	 * @throws IOException if the file can not be read or is not a cache.
+	 */
+	public static PropertyCache read(File file) throws IOException {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a property cache: " + file);
+			PropertyCache cache = new PropertyCache(in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+			OmniArea[] areas = OmniArea.values();
+			for (int i = in.readInt(); i > 0; --i)
+				cache.capacities[in.readByte()] = in.readInt();
+			for (int i = in.readInt(); i > 0; --i) {
+				OmniArea area = areas[in.readByte()];
+				Vector<String> list = new Vector<String>();
+				list.setSize(in.readInt());
+				for (int n = in.readInt(); n > 0; --n)
+					list.set(in.readInt(), in.readUTF());
+				cache.names.put(area, list);
+			}
+			for (int i = in.readInt(); i > 0; --i)
+				cache.put(readProperties(in));
+			return cache;
+		} catch (EOFException e) {
+			throw new IOException("Truncated property cache: " + file);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt property cache: " + file);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Write the cache to a file.
+	 * The file is replaced as a whole, a reader never sees half a cache.
+	 */
+	public synchronized void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(host);
+			out.writeInt(model);
+			out.writeInt(major);
+			out.writeInt(minor);
+			out.writeInt(revision);
+			int count = 0;
+			for (int capacity : capacities)
+				if (capacity > 0)
+					++count;
+			out.writeInt(count);
+			for (int i = 0; i < capacities.length; ++i)
+				if (capacities[i] > 0) {
+					out.writeByte(i);
+					out.writeInt(capacities[i]);
+				}
+			out.writeInt(names.size());
+			for (OmniArea area : names.keySet()) {
+				Vector<String> list = names.get(area);
+				out.writeByte(area.ordinal());
+				out.writeInt(list.size());
+				count = 0;
+				for (String name : list)
+					if (name != null)
+						++count;
+				out.writeInt(count);
+				for (int i = 0; i < list.size(); ++i)
+					if (list.get(i) != null) {
+						out.writeInt(i);
+						out.writeUTF(list.get(i));
+					}
+			}
+			out.writeInt(properties.size());
+			for (ObjectProperties prop : properties.values())
+				writeProperties(out, prop);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Windows will not rename over an existing file.
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Could not replace " + file);
+		}
+	}
+
+	private static void writeProperties(DataOutputStream out, ObjectProperties prop) throws IOException {
+		out.writeByte(prop.getObjectType());
+		out.writeShort(prop.getNumber());
+		out.writeUTF(prop.getName() == null ? "" : prop.getName());
+		switch (prop.getObjectType()) {
+		case Message.OBJ_TYPE_ZONE: {
+			ZoneProperties zp = (ZoneProperties)prop;
+			out.writeInt(zp.getStatus());
+			out.writeInt(zp.getLoop());
+			out.writeInt(zp.getZoneType());
+			out.writeInt(zp.getArea());
+			out.writeInt(zp.getOptions());
+		} break;
+		case Message.OBJ_TYPE_UNIT: {
+			UnitProperties up = (UnitProperties)prop;
+			out.writeInt(up.getState());
+			out.writeInt(up.getTime());
+			out.writeInt(up.getUnitType());
+		} break;
+		case Message.OBJ_TYPE_AUX_SENSOR: {
+			AuxSensorProperties sp = (AuxSensorProperties)prop;
+			out.writeInt(sp.getStatus());
+			out.writeInt(sp.getCurrent());
+			out.writeInt(sp.getLowSetpoint());
+			out.writeInt(sp.getHighSetpoint());
+			out.writeInt(sp.getSensorType());
+		} break;
+		default:
+			break;
+		}
+	}
+	private static ObjectProperties readProperties(DataInputStream in) throws IOException {
+		int objectType = in.readByte();
+		int number = in.readUnsignedShort();
+		String name = in.readUTF();
+		switch (objectType) {
+		case Message.OBJ_TYPE_ZONE:
+			return new ZoneProperties(number, in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), name);
+		case Message.OBJ_TYPE_UNIT:
+			return new UnitProperties(number, in.readInt(), in.readInt(), in.readInt(), name);
+		case Message.OBJ_TYPE_AUX_SENSOR:
+			return new AuxSensorProperties(number, in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), name);
+		case Message.OBJ_TYPE_BUTTON:
+			return new ButtonProperties(number, name);
+		case Message.OBJ_TYPE_MESG:
+			return new MessageProperties(number, name);
+		default:
+			throw new IOException("Unknown object type in property cache: " + objectType);
+		}
+	}
+}
+// vim: syntax=java.doxygen ts=4 sw=4 noet
@@ -0,0 +1,102 @@
+/** Plans the status requests for a refresh.
+ *
+ */
+/*  Copyright (C) 2010 Michael Geddes
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.wheelycreek.jomnilinkII.OmniSystem;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+
+/** Collects the object numbers that need their status refreshed and
+ * merges them into as few range requests as possible.
+ *
+ * A status reply holds at most MAX_RECORDS objects, so each range starts at
+ * the lowest number not yet covered and runs as far as the last wanted
+ * number within MAX_RECORDS of it.  Numbers in the gaps are fetched too, it
+ * costs a few bytes rather than a round trip.
+ */
+public class StatusRefreshPlanner {
+	/// Objects in one status request, as Connection splits them.
+	public static final int MAX_RECORDS = 25;
+
+	private final BitSet numbers = new BitSet();
+	private final int maxRecords;
+
+	public StatusRefreshPlanner() {
+		this(MAX_RECORDS);
+	}
+	/** Construct a planner.
+	 * @param maxRecords The most objects one range may cover.
+	 */
+	public StatusRefreshPlanner(int maxRecords) {
+		if (maxRecords < 1)
+			throw new IllegalArgumentException("maxRecords must be at least 1");
+		this.maxRecords = maxRecords;
+	}
+
+	/** Add an object to refresh.
+	 */
+	public void add(int number) {
+		if (number > 0)
+			numbers.set(number);
+	}
+	/** Add objects to refresh.
+	 */
+	public void addAll(Collection<Integer> objnums) {
+		for (Integer number : objnums)
+			add(number);
+	}
+	/** Add every object held in a store.
+	 */
+	public void addAll(OmniPartStore<?> store) {
+		for (int n = store.nextNumber(1); n >= 0; n = store.nextNumber(n + 1))
+			add(n);
+	}
+
+	public boolean isEmpty() {
+		return numbers.isEmpty();
+	}
+	/** Number of objects to refresh.
+	 */
+	public int size() {
+		return numbers.cardinality();
+	}
+	public void clear() {
+		numbers.clear();
+	}
+
+	/** Get the ranges to request.
+	 * @return {first, last} pairs in ascending order.
+	 */
+	public List<int[]> plan() {
+		List<int[]> ranges = new Vector<int[]>();
+		int first = numbers.nextSetBit(0);
+		while (first >= 0) {
+			int limit = first + maxRecords - 1;
+			int last = first;
+			for (int n = numbers.nextSetBit(first + 1); n >= 0 && n <= limit; n = numbers.nextSetBit(n + 1))
+				last = n;
+			ranges.add(new int[] {first, last});
+			first = numbers.nextSetBit(last + 1);
+		}
+		return ranges;
+	}
+}
+// vim: syntax=java.doxygen ts=4 sw=4 noet
@@ -0,0 +1,222 @@
+/** Filtered subscriptions to change notifications.
+ *
+ */
+/*  Copyright (C) 2010 Michael Geddes
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.wheelycreek.jomnilinkII.OmniSystem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import com.wheelycreek.jomnilinkII.OmniNotifyListener;
+import com.wheelycreek.jomnilinkII.OmniNotifyListener.ChangeMessage;
+import com.wheelycreek.jomnilinkII.OmniNotifyListener.StatusChangeMessage;
+
+/** Index of subscriptions by area, object number and change type.
+ *
+ * An aggregated StatusChangeMessage goes to a subscriber once if any of
+ * the change types it wants is among the changes.
+ * The index is rebuilt when a subscription is added or removed and
+ * swapped in whole, so dispatch takes no lock and only looks at the
+ * subscribers whose filter matches: those for the whole area, those whose
+ * range holds the object number, each split into any change type and by
+ * change type.
+ */
+public class SubscriptionIndex {
+	/** A listener and the changes it wants.
+	 */
+	public static class Subscription {
+		public final OmniNotifyListener listener;
+		public final OmniArea area;
+		/// First object number, 0 for the whole area.
+		public final int from;
+		/// Last object number, 0 for the whole area.
+		public final int to;
+		/// The change types wanted, empty for all.
+		public final Set<Enum<?>> changeTypes;
+
+		Subscription(OmniNotifyListener listener, OmniArea area, int from, int to, Enum<?>[] changeTypes) {
+			this.listener = listener;
+			this.area = area;
+			this.from = from;
+			this.to = to;
+			this.changeTypes = Collections.unmodifiableSet(new HashSet<Enum<?>>(Arrays.asList(changeTypes)));
+		}
+		/** Whether the subscription wants a change.
+		 */
+		public boolean matches(ChangeMessage msg) {
+			if (msg.area != area || (from != 0 && (msg.number < from || msg.number > to)))
+				return false;
+			if (changeTypes.isEmpty())
+				return true;
+			if (msg instanceof StatusChangeMessage)
+				return firstChange((StatusChangeMessage)msg) != null;
+			return changeTypes.contains(msg.getChangeType());
+		}
+		/// The first of the wanted change types in an aggregated change.
+		Enum<?> firstChange(StatusChangeMessage msg) {
+			for (Enum<?> type : changeTypes)
+				if (msg.isChanged(type))
+					return type;
+			return null;
+		}
+		@Override
+		public String toString() {
+			return String.format("Subscription [area=%s, from=%d, to=%d, changeTypes=%s]", area, from, to, changeTypes);
+		}
+	}
+
+	private static final Subscription[] NONE = new Subscription[0];
+
+	/// Subscribers for one area/number, immutable once built.
+	private static class Bucket {
+		Subscription[] any = NONE;
+		Map<Enum<?>, Subscription[]> byChange;
+
+		void add(Subscription sub) {
+			if (sub.changeTypes.isEmpty()) {
+				any = append(any, sub);
+				return;
+			}
+			if (byChange == null)
+				byChange = new HashMap<Enum<?>, Subscription[]>();
+			for (Enum<?> type : sub.changeTypes) {
+				Subscription[] subs = byChange.get(type);
+				byChange.put(type, append(subs == null ? NONE : subs, sub));
+			}
+		}
+		private static Subscription[] append(Subscription[] subs, Subscription sub) {
+			Subscription[] result = Arrays.copyOf(subs, subs.length + 1);
+			result[subs.length] = sub;
+			return result;
+		}
+	}
+
+	/// The buckets for one area.
+	private static class AreaIndex {
+		Bucket whole;
+		Bucket[] byNumber = new Bucket[0];
+	}
+
+	/// Object numbers are 16 bit on the wire.
+	public static final int MAX_NUMBER = 0xFFFF;
+
+	private final Vector<Subscription> subscriptions = new Vector<Subscription>();
+	private volatile AreaIndex[] index = new AreaIndex[OmniArea.values().length];
+
+	/** Subscribe to changes.
+	 * @param listener The listener to call.
+	 * @param area The area wanted.
+	 * @param from First object number, 0 for the whole area.
+	 * @param to Last object number, ignored for the whole area and limited to {@link #MAX_NUMBER}.
+	 * @param changeTypes Change types wanted (eg OmniZone.ChangeType.Status), none for all.
+	 * @return The subscription, to unsubscribe with.
+	 */
+	public synchronized Subscription subscribe(OmniNotifyListener listener, OmniArea area, int from, int to, Enum<?>... changeTypes) {
+		if (from < 0 || from > MAX_NUMBER || (from > 0 && to < from))
+			throw new IllegalArgumentException("Invalid object range "+from+"-"+to);
+		if (to > MAX_NUMBER)
+			to = MAX_NUMBER;
+		Subscription sub = new Subscription(listener, area, from, from == 0 ? 0 : to, changeTypes);
+		subscriptions.add(sub);
+		rebuild();
+		return sub;
+	}
+	/** Remove a subscription.
+	 */
+	public synchronized void unsubscribe(Subscription sub) {
+		if (subscriptions.remove(sub))
+			rebuild();
+	}
+	/** Remove every subscription of a listener.
+	 */
+	public synchronized void unsubscribe(OmniNotifyListener listener) {
+		boolean changed = false;
+		for (int i = subscriptions.size()-1; i >= 0; --i)
+			if (subscriptions.get(i).listener == listener) {
+				subscriptions.remove(i);
+				changed = true;
+			}
+		if (changed)
+			rebuild();
+	}
+	public synchronized int size() {
+		return subscriptions.size();
+	}
+
+	private void rebuild() {
+		AreaIndex[] result = new AreaIndex[OmniArea.values().length];
+		for (Subscription sub : subscriptions) {
+			AreaIndex area = result[sub.area.ordinal()];
+			if (area == null) {
+				area = new AreaIndex();
+				result[sub.area.ordinal()] = area;
+			}
+			if (sub.from == 0) {
+				if (area.whole == null)
+					area.whole = new Bucket();
+				area.whole.add(sub);
+				continue;
+			}
+			if (sub.to >= area.byNumber.length)
+				area.byNumber = Arrays.copyOf(area.byNumber, sub.to + 1);
+			for (int n = sub.from; n <= sub.to; ++n) {
+				if (area.byNumber[n] == null)
+					area.byNumber[n] = new Bucket();
+				area.byNumber[n].add(sub);
+			}
+		}
+		index = result;
+	}
+
+	/** Pass a change to the subscribers that want it.
+	 */
+	public void dispatch(ChangeMessage msg) {
+		AreaIndex area = index[msg.area.ordinal()];
+		if (area == null)
+			return;
+		Enum<?> type = msg.getChangeType();
+		if (area.whole != null)
+			dispatch(area.whole, type, msg);
+		if (msg.number >= 0 && msg.number < area.byNumber.length && area.byNumber[msg.number] != null)
+			dispatch(area.byNumber[msg.number], type, msg);
+	}
+	private static void dispatch(Bucket bucket, Enum<?> type, ChangeMessage msg) {
+		for (Subscription sub : bucket.any)
+			sub.listener.objectChangedNotification(msg);
+		if (bucket.byChange != null && msg instanceof StatusChangeMessage) {
+			// Several wanted types may have changed, call each subscriber once.
+			StatusChangeMessage scm = (StatusChangeMessage)msg;
+			for (Map.Entry<Enum<?>, Subscription[]> entry : bucket.byChange.entrySet())
+				if (scm.isChanged(entry.getKey()))
+					for (Subscription sub : entry.getValue())
+						if (sub.firstChange(scm) == entry.getKey())
+							sub.listener.objectChangedNotification(msg);
+		} else if (bucket.byChange != null && type != null) {
+			Subscription[] subs = bucket.byChange.get(type);
+			if (subs != null)
+				for (Subscription sub : subs)
+					sub.listener.objectChangedNotification(msg);
+		}
+	}
+}
+// vim: syntax=java.doxygen ts=4 sw=4 noet
@@ -76,9 +76,13 @@ public class OmniDevice extends OmniUnit {
 	protected void updateScene(char  scn, NotifyType notifyType) {
 		if (scn != scene ) {
 			this.scene = scn;
-			notify(createChangeMessage( ChangeType.Scene, notifyType));
+			notifyChange(ChangeType.Scene, notifyType);
 		}
 	}
+	@Override
+	public char getScene() {
+		return scene;
+	}
 	public Boolean getSwitchedOn() {
 		return switched_on;
 	}
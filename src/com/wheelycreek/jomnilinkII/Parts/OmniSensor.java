@@ -111,6 +111,45 @@ public class OmniSensor extends OmniPart {
 		return new SensorChangeMessage(area, number, notifyType, changetype);
 	}
 
+	/** Notify a change, or collect it for a SensorStatusChangeMessage.
+	 */
+	protected void notifyChange( ChangeType changetype, OmniNotifyListener.NotifyType notifyType) {
+		if (!collectChange(changetype))
+			notify(createChangeMessage(changetype, notifyType));
+	}
+
+	/** The changes one sensor status made, when the sensor aggregates changes.
+	 * changed has a bit for each of ChangeType.Status, Temperature, HeatSet
+	 * and CoolSet.
+	 */
+	public static class SensorStatusChangeMessage extends OmniNotifyListener.StatusChangeMessage {
+		public final boolean oldTriggerOutput, newTriggerOutput;
+		public final Temperature oldTemperature, newTemperature;
+		public final Temperature oldHeatSet, newHeatSet;
+		public final Temperature oldCoolSet, newCoolSet;
+
+		public SensorStatusChangeMessage(int number, OmniNotifyListener.NotifyType notifyType, int changed,
+				boolean oldTriggerOutput, Temperature oldTemperature, Temperature oldHeatSet, Temperature oldCoolSet,
+				boolean newTriggerOutput, Temperature newTemperature, Temperature newHeatSet, Temperature newCoolSet) {
+			super(OmniArea.Sensor, number, notifyType, changed);
+			this.oldTriggerOutput = oldTriggerOutput;
+			this.newTriggerOutput = newTriggerOutput;
+			this.oldTemperature = oldTemperature;
+			this.newTemperature = newTemperature;
+			this.oldHeatSet = oldHeatSet;
+			this.newHeatSet = newHeatSet;
+			this.oldCoolSet = oldCoolSet;
+			this.newCoolSet = newCoolSet;
+		}
+		@Override
+		public String toString() {
+			return String.format(
+					"SensorStatusChangeMessage [number=%s, notifyType=%s, changed=0x%x, trigger=%s->%s, temp=%s->%s, heat=%s->%s, cool=%s->%s]",
+					number, notifyType, changed, oldTriggerOutput, newTriggerOutput, oldTemperature, newTemperature,
+					oldHeatSet, newHeatSet, oldCoolSet, newCoolSet);
+		}
+	}
+
 	private boolean trigger_output;
 	private Temperature temp, heatSet, coolSet;
 	private SensorType sensor_type;
@@ -130,7 +169,7 @@ public class OmniSensor extends OmniPart {
 	public void updateTriggerOutput(boolean triggerOutput, OmniNotifyListener.NotifyType notifyType) {
 		if (trigger_output != triggerOutput) {
 			trigger_output = triggerOutput;
-			notify(createChangeMessage(ChangeType.Status, notifyType ));
+			notifyChange(ChangeType.Status, notifyType);
 		}
 	}
 	/** The current temperature.
@@ -158,7 +197,7 @@ public class OmniSensor extends OmniPart {
 	public void updateTemperature(Temperature temp, OmniNotifyListener.NotifyType notifyType) {
 		if (isDifferent(this.temp,temp)) {
 			this.temp = temp;
-			notify(createChangeMessage(ChangeType.Temperature, notifyType));
+			notifyChange(ChangeType.Temperature, notifyType);
 		}
 	}
 	/** The heat set-point temperature.
@@ -179,7 +218,7 @@ public class OmniSensor extends OmniPart {
 	public void updateHeatSetPoint(Temperature temp, OmniNotifyListener.NotifyType notifyType) {
 		if (isDifferent(this.heatSet,temp)) {
 			this.heatSet = temp;
-			notify(createChangeMessage(ChangeType.HeatSet, notifyType));
+			notifyChange(ChangeType.HeatSet, notifyType);
 		}
 	}
 
@@ -200,7 +239,7 @@ public class OmniSensor extends OmniPart {
 	public void updateCoolSetPoint(Temperature temp, OmniNotifyListener.NotifyType notifyType) {
 		if (isDifferent(this.coolSet,temp)) {
 			this.coolSet = temp;
-			notify(createChangeMessage(ChangeType.CoolSet, notifyType));
+			notifyChange(ChangeType.CoolSet, notifyType);
 		}
 	}
 
@@ -222,7 +261,7 @@ public class OmniSensor extends OmniPart {
 	public void updateSensorType( SensorType type, OmniNotifyListener.NotifyType notifyType) {
 		if (type != sensor_type) {
 			sensor_type = type;
-			notify(createChangeMessage(ChangeType.Type, notifyType));
+			notifyChange(ChangeType.Type, notifyType);
 		}
 	}
 	/** Update values for the sensor.
@@ -242,6 +281,23 @@ public class OmniSensor extends OmniPart {
 	 * @param isInitial  Is this the initial update for the sensor.
 	 */
 	public void update(AuxSensorStatus sensestat, OmniNotifyListener.NotifyType notifyType) {
+		if (!beginChanges(notifyType)) {
+			updateStatus(sensestat, notifyType);
+			return;
+		}
+		boolean oldTrigger = trigger_output;
+		Temperature oldTemp = temp, oldHeat = heatSet, oldCool = coolSet;
+		int changed;
+		try {
+			updateStatus(sensestat, notifyType);
+		} finally {
+			changed = endChanges();
+		}
+		if (changed != 0)
+			notify(new SensorStatusChangeMessage(number, notifyType, changed,
+					oldTrigger, oldTemp, oldHeat, oldCool, trigger_output, temp, heatSet, coolSet));
+	}
+	private void updateStatus(AuxSensorStatus sensestat, OmniNotifyListener.NotifyType notifyType) {
 		this.updateCoolSetPoint(new Temperature(sensestat.getCoolSetpoint()), notifyType); 
 		this.updateHeatSetPoint(new Temperature(sensestat.getHeatSetpoint()), notifyType);
 		this.updateTemperature(new Temperature(sensestat.getTemp()), notifyType);
@@ -164,9 +164,53 @@ public class OmniUnit extends OmniPart {
 	protected OmniNotifyListener.ChangeMessage createChangeMessage( ChangeType changetype, int timeFor, OmniNotifyListener.NotifyType notifyType) {
 		return new UnitChangeMessage(area, unit_variant, number, timeFor, notifyType, changetype);
 	}
+	/** Notify a change, or collect it for a UnitStatusChangeMessage.
+	 */
+	protected void notifyChange( ChangeType changetype, OmniNotifyListener.NotifyType notifyType) {
+		if (!collectChange(changetype))
+			notify(createChangeMessage(changetype, notifyType));
+	}
+
+	/** The changes one unit status made, when the unit aggregates changes.
+	 * changed has a bit for each of ChangeType.RawState, Status and Scene.
+	 * The scenes are ' ' for units without scenes or when none is set.
+	 */
+	public static class UnitStatusChangeMessage extends OmniNotifyListener.StatusChangeMessage {
+		final public UnitVariant variantType;
+		final public int oldRawStatus, newRawStatus;
+		final public int oldValue, newValue;
+		final public int oldTimeSec, newTimeSec;
+		final public char oldScene, newScene;
+
+		public UnitStatusChangeMessage(UnitVariant unitvar, int number, OmniNotifyListener.NotifyType notifyType, int changed,
+				int oldRawStatus, int oldValue, int oldTimeSec, char oldScene,
+				int newRawStatus, int newValue, int newTimeSec, char newScene) {
+			super(OmniArea.Unit, number, notifyType, changed);
+			this.variantType = unitvar;
+			this.oldRawStatus = oldRawStatus;
+			this.newRawStatus = newRawStatus;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+			this.oldTimeSec = oldTimeSec;
+			this.newTimeSec = newTimeSec;
+			this.oldScene = oldScene;
+			this.newScene = newScene;
+		}
+		@Override
+		public String toString() {
+			return String.format(
+				"UnitStatusChangeMessage [variant=%s, number=%s, notifyType=%s, changed=0x%x, raw_status=%d->%d, value=%d->%d, time=%d->%d, scene=%c->%c]",
+				variantType, number, notifyType, changed, oldRawStatus, newRawStatus, oldValue, newValue, oldTimeSec, newTimeSec, oldScene, newScene);
+		}
+	}
 	public UnitVariant getVariant() {
 		return unit_variant;
 	}
+	/** The scene last set, ' ' if none or the unit has no scenes.
+	 */
+	public char getScene() {
+		return ' ';
+	}
 	
 	public int getValue() {
 		return this.value;
@@ -257,7 +301,7 @@ For counters:
 			else
 				this.when_set = new Date();
 		}
-		notify(createChangeMessage(ChangeType.RawState, notifyType));
+		notifyChange(ChangeType.RawState, notifyType);
 	}
 
 	/** The number of seconds the item was set for.  
@@ -293,7 +337,7 @@ For counters:
 	public void updateUnitType(UnitType unitType, OmniNotifyListener.NotifyType notifyType) {
 		if (unitType != this.unit_type) {
 			unit_type = unitType;
-			notify(createChangeMessage(ChangeType.UnitType, notifyType));
+			notifyChange(ChangeType.UnitType, notifyType);
 		}
 	}
 
@@ -314,7 +358,21 @@ For counters:
 	 * @param isInitial  True if this is the initial value.
 	 */
 	public void update(UnitStatus status,OmniNotifyListener.NotifyType notifyType) {
-		this.updateStatus(status.getStatus(), status.getTime(), notifyType);
+		if (!beginChanges(notifyType)) {
+			this.updateStatus(status.getStatus(), status.getTime(), notifyType);
+			return;
+		}
+		int oldRawStatus = raw_status, oldValue = value, oldTimeSec = time_remain_sec;
+		char oldScene = getScene();
+		int changed;
+		try {
+			this.updateStatus(status.getStatus(), status.getTime(), notifyType);
+		} finally {
+			changed = endChanges();
+		}
+		if (changed != 0)
+			notify(new UnitStatusChangeMessage(unit_variant, number, notifyType, changed,
+					oldRawStatus, oldValue, oldTimeSec, oldScene, raw_status, value, time_remain_sec, getScene()));
 	}
 	public void sendSetLevel(int levelPerc, int timeSec) {
 		if (levelPerc < 0) levelPerc = 0;
@@ -333,7 +391,7 @@ For counters:
 			this.switched_on = newValue!=0;
 			this.time_remain_sec = timeSec;
 			this.when_set = new Date();
-			notify(createChangeMessage(ChangeType.Status, notifyType));
+			notifyChange(ChangeType.Status, notifyType);
 		}
 	}
 	protected void updateSwitchedOn(boolean b, int timeSec, NotifyType notifyType) {
@@ -342,7 +400,7 @@ For counters:
 			this.value = b?((unit_variant == UnitVariant.Device)?100:255):0;
 			this.time_remain_sec = timeSec;
 			this.when_set = new Date();
-			notify(createChangeMessage(ChangeType.Status, notifyType));
+			notifyChange(ChangeType.Status, notifyType);
 		}		
 	}
 
@@ -160,6 +160,39 @@ public class OmniZone extends OmniPart {
 		ZoneChangeMessage msg = new ZoneChangeMessage(number,changetype, notifyType );
 		return msg;
 	}
+	/** Notify a change, or collect it for a ZoneStatusChangeMessage.
+	 */
+	protected void notifyChange( ChangeType changetype, OmniNotifyListener.NotifyType notifyType) {
+		if (!collectChange(changetype))
+			notify(createChangeMessage(changetype, notifyType));
+	}
+
+	/** The changes one zone status made, when the zone aggregates changes.
+	 * changed has a bit for each of ChangeType.Status, LatchAlarm and Alarm.
+	 */
+	public static class ZoneStatusChangeMessage extends OmniNotifyListener.StatusChangeMessage {
+		public final SecureStatus oldStatus, newStatus;
+		public final LatchAlarmStatus oldLatchAlarm, newLatchAlarm;
+		public final AlarmStatus oldAlarm, newAlarm;
+
+		public ZoneStatusChangeMessage(int number, OmniNotifyListener.NotifyType notifyType, int changed,
+				SecureStatus oldStatus, LatchAlarmStatus oldLatchAlarm, AlarmStatus oldAlarm,
+				SecureStatus newStatus, LatchAlarmStatus newLatchAlarm, AlarmStatus newAlarm) {
+			super(OmniArea.Zone, number, notifyType, changed);
+			this.oldStatus = oldStatus;
+			this.newStatus = newStatus;
+			this.oldLatchAlarm = oldLatchAlarm;
+			this.newLatchAlarm = newLatchAlarm;
+			this.oldAlarm = oldAlarm;
+			this.newAlarm = newAlarm;
+		}
+		@Override
+		public String toString() {
+			return String.format(
+					"ZoneStatusChangeMessage [number=%s, notifyType=%s, changed=0x%x, status=%s->%s, latch_alarm=%s->%s, alarm=%s->%s]",
+					number, notifyType, changed, oldStatus, newStatus, oldLatchAlarm, newLatchAlarm, oldAlarm, newAlarm);
+		}
+	}
 	
 	private SecureStatus zone_status;
 	private LatchAlarmStatus latch_alarm_status;
@@ -192,7 +225,7 @@ public class OmniZone extends OmniPart {
 	public void updateZoneType( ZoneType zoneType, OmniNotifyListener.NotifyType notifyType ) {
 		if (zoneType != this.zone_type) {
 			this.zone_type = zoneType;
-			notify(createChangeMessage(ChangeType.ZoneType, notifyType));
+			notifyChange(ChangeType.ZoneType, notifyType);
 		}
 	}
 	/** The zone area.
@@ -211,7 +244,7 @@ public class OmniZone extends OmniPart {
 	public void updateZoneArea( int zone_area, OmniNotifyListener.NotifyType notifyType ) {
 		if (zone_area != this.zone_area) {
 			this.zone_area = zone_area;
-			notify(createChangeMessage(ChangeType.Area, notifyType));
+			notifyChange(ChangeType.Area, notifyType);
 		}
 	}
 
@@ -275,7 +308,7 @@ public class OmniZone extends OmniPart {
 	protected void updateZoneStatus(SecureStatus zoneStatus, OmniNotifyListener.NotifyType notifyType) {
 		if (zone_status != zoneStatus)  {
 			zone_status = zoneStatus;
-			this.notify(createChangeMessage(ChangeType.Status, notifyType));
+			notifyChange(ChangeType.Status, notifyType);
 		}
 	}
 	/** The Latched alarm status for the zone.
@@ -290,7 +323,7 @@ public class OmniZone extends OmniPart {
 	protected void updateLatchAlarmStatus(LatchAlarmStatus latchAlarmStatus, OmniNotifyListener.NotifyType notifyType) {
 		if (latch_alarm_status != latchAlarmStatus) {
 			latch_alarm_status = latchAlarmStatus;
-			notify(createChangeMessage(ChangeType.LatchAlarm, notifyType));
+			notifyChange(ChangeType.LatchAlarm, notifyType);
 		}
 	}
 	/** The current status of the alarm 
@@ -305,7 +338,7 @@ public class OmniZone extends OmniPart {
 	protected void updateAlarmStatus(AlarmStatus alarmStatus, OmniNotifyListener.NotifyType notifyType) {
 		if (alarmStatus != alarm_status) {
 			alarm_status = alarmStatus;
-			notify( createChangeMessage(ChangeType.Alarm, notifyType));
+			notifyChange(ChangeType.Alarm, notifyType);
 		}
 	}
 	/** The current 'loop' value.
@@ -318,7 +351,7 @@ public class OmniZone extends OmniPart {
 	public void updateLoopValue( int loop, OmniNotifyListener.NotifyType notifyType) {
 		if (loop != this.loop) {
 			this.loop = loop;
-			notify(createChangeMessage(ChangeType.Loop, notifyType));
+			notifyChange(ChangeType.Loop, notifyType);
 		}
 	}
 
@@ -357,7 +390,7 @@ public class OmniZone extends OmniPart {
 	public void updateRawOptions( int options, OmniNotifyListener.NotifyType notifyType ) {
 		if (options != this.options) {
 			options = this.options;
-			notify(createChangeMessage(ChangeType.Options, notifyType));
+			notifyChange(ChangeType.Options, notifyType);
 		}
 	}
 
@@ -373,7 +406,22 @@ public class OmniZone extends OmniPart {
 	}
 
 	public void update(ZoneStatus status, OmniNotifyListener.NotifyType notifyType) {
-		this.updateRawStatus(status.getStatus(), notifyType);
+		if (!beginChanges(notifyType)) {
+			this.updateRawStatus(status.getStatus(), notifyType);
+			return;
+		}
+		SecureStatus oldStatus = zone_status;
+		LatchAlarmStatus oldLatchAlarm = latch_alarm_status;
+		AlarmStatus oldAlarm = alarm_status;
+		int changed;
+		try {
+			this.updateRawStatus(status.getStatus(), notifyType);
+		} finally {
+			changed = endChanges();
+		}
+		if (changed != 0)
+			notify(new ZoneStatusChangeMessage(number, notifyType, changed,
+					oldStatus, oldLatchAlarm, oldAlarm, zone_status, latch_alarm_status, alarm_status));
 	}
 }
 // vim: syntax=java.doxygen ts=4 sw=4 noet